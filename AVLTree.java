@@ -0,0 +1,463 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+/**
+ * A self-balancing AVL tree built on top of the rotations provided by
+ * BSTRotation. Every node stores the height of its subtree, and after each
+ * insert and remove the heights of the two subtrees of every node differ by
+ * at most one. This keeps the tree below 1.44 * log2(n + 2) levels, lower
+ * than the 2 * log2(n + 1) bound of a red-black tree, so lookups visit fewer
+ * nodes, at the cost of somewhat more rotations when the tree changes.
+ *
+ * Duplicate values follow the same left-insertion rule as BinarySearchTree:
+ * a value equal to one already stored is placed in that node's left subtree.
+ */
+public class AVLTree<T> extends BSTRotation<T> {
+
+    /**
+     * Node type used by the AVL tree: a BinaryTreeNode that also remembers
+     * the height of its subtree. A byte is enough, since a tree of height
+     * 128 would need more nodes than fit in memory.
+     */
+    protected static class AVLNode<T> extends BinaryTreeNode<T> {
+
+        // number of nodes on the longest path from this node down to a leaf
+        protected byte height = 1;
+
+        /**
+         * Creates a new leaf node holding data.
+         * @param data the value the new node stores
+         */
+        public AVLNode(T data) { super(data); }
+
+        @Override
+        protected void reset(T newData) {
+            super.reset(newData);
+            this.height = 1;
+        }
+
+        @Override
+        public AVLNode<T> childLeft() { return (AVLNode<T>) this.left; }
+
+        @Override
+        public AVLNode<T> childRight() { return (AVLNode<T>) this.right; }
+
+        @Override
+        public AVLNode<T> parent() { return (AVLNode<T>) this.up; }
+    }
+
+    /**
+     * Creates an empty AVL tree that does not track subtree sizes.
+     */
+    public AVLTree() {
+        super();
+    }
+
+    /**
+     * Creates an empty AVL tree that optionally keeps per-node subtree
+     * sizes, so that rank() and select() run in O(log n) time.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     */
+    public AVLTree(boolean trackSubtreeSizes) {
+        super(trackSubtreeSizes);
+    }
+
+    /**
+     * Creates an empty AVL tree that optionally keeps per-node subtree
+     * sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     */
+    public AVLTree(boolean trackSubtreeSizes, boolean compressDuplicates) {
+        super(trackSubtreeSizes, compressDuplicates);
+    }
+
+    /**
+     * Creates an empty AVL tree that orders its values with comparator
+     * instead of their natural order.
+     * @param comparator the order of the values, or null for natural order
+     */
+    public AVLTree(Comparator<? super T> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates an empty AVL tree that orders its values by the long key
+     * keyExtractor extracts from them, which every node caches.
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public AVLTree(ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(keyExtractor);
+    }
+
+    /**
+     * Creates an empty AVL tree ordered by comparator that optionally keeps
+     * per-node subtree sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param comparator the order of the values, or null for natural order
+     */
+    public AVLTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator) {
+        super(trackSubtreeSizes, compressDuplicates, comparator);
+    }
+
+    /**
+     * Creates an empty AVL tree ordered by the long key keyExtractor extracts
+     * from the values, that optionally keeps per-node subtree sizes and
+     * optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public AVLTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(trackSubtreeSizes, compressDuplicates, keyExtractor);
+    }
+
+    /**
+     * Creates a new leaf node holding data.
+     * @param data the value the new node stores
+     * @return a new AVLNode holding data
+     */
+    @Override
+    protected BinaryTreeNode<T> newNode(T data) {
+        return new AVLNode<>(data);
+    }
+
+    /**
+     * Sets the height of a node built by loadSorted(), whose children are
+     * already attached and have their heights set.
+     * @param node the node that was just built
+     * @param depth the depth of node, the root being at depth 1
+     * @param height the height of the whole tree being built
+     */
+    @Override
+    protected void initBulkLoadedNode(BinaryTreeNode<T> node, int depth, int height) {
+        updateHeight((AVLNode<T>) node);
+    }
+
+    /**
+     * Inserts a new data value into the tree and rebalances it.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null into an AVLTree");
+        }
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        this.size++;
+        this.modCount++;
+        if (this.root == null) {
+            this.root = createNode(data);
+            if (this.metrics != null) recordInsert(1, true, start);
+            return;
+        }
+        long key = keyOf(data);
+        // walk down to a leaf, sending duplicates to the left, so that the
+        // new node never adopts a subtree and only its ancestors can change
+        BinaryTreeNode<T> current = this.root;
+        int depth = 1;
+        boolean goLeft;
+        while (true) {
+            if (this.trackSubtreeSizes) current.subtreeSize++;
+            int cmp = compare(data, key, current);
+            if (cmp == 0 && this.compressDuplicates) {
+                current.count++;
+                if (this.metrics != null) recordInsert(depth, false, start);
+                return;
+            }
+            goLeft = cmp <= 0;
+            BinaryTreeNode<T> next = goLeft ? current.childLeft() : current.childRight();
+            if (next == null) break;
+            current = next;
+            depth++;
+        }
+        BinaryTreeNode<T> newNode = createNode(data);
+        if (goLeft) {
+            current.setChildLeft(newNode);
+        } else {
+            current.setChildRight(newNode);
+        }
+        newNode.setParent(current);
+        retrace(current);
+        if (this.metrics != null) recordInsert(depth + 1, true, start);
+    }
+
+    /**
+     * Takes node out of the tree as BinarySearchTree does, then restores the
+     * heights and balance of the ancestors of the node that was physically
+     * unlinked.
+     * @param node the node whose value is being removed
+     * @return the parent of the node that was physically unlinked, or null
+     * if that node was the root
+     */
+    @Override
+    protected BinaryTreeNode<T> removeNode(BinaryTreeNode<T> node) {
+        BinaryTreeNode<T> parent = super.removeNode(node);
+        retrace(parent);
+        return parent;
+    }
+
+    /**
+     * Walks up from node, rebalancing every node whose subtree changed. The
+     * walk stops at the first node that keeps its height without a rotation,
+     * since nothing above it can have changed.
+     * @param node the lowest node whose subtree changed, may be null
+     */
+    protected void retrace(BinaryTreeNode<T> node) {
+        while (node != null) {
+            AVLNode<T> avl = (AVLNode<T>) node;
+            int before = avl.height;
+            AVLNode<T> subRoot = rebalance(avl);
+            if (subRoot == avl && avl.height == before) return;
+            node = subRoot.parent();
+        }
+    }
+
+    /**
+     * Recomputes the height of node from its children, and rotates when the
+     * heights of its subtrees differ by two: once when the taller child
+     * leans the same way, twice (through the taller grandchild) when it
+     * leans the other way.
+     * @param node the node to rebalance; the heights of its children must
+     * be correct
+     * @return the node now at the root of node's former subtree
+     */
+    protected AVLNode<T> rebalance(AVLNode<T> node) {
+        updateHeight(node);
+        int balance = height(node.childLeft()) - height(node.childRight());
+        if (balance > 1) {
+            AVLNode<T> child = node.childLeft();
+            if (height(child.childLeft()) < height(child.childRight())) {
+                child = rotateUp(child.childRight(), child);
+            }
+            return rotateUp(child, node);
+        }
+        if (balance < -1) {
+            AVLNode<T> child = node.childRight();
+            if (height(child.childRight()) < height(child.childLeft())) {
+                child = rotateUp(child.childLeft(), child);
+            }
+            return rotateUp(child, node);
+        }
+        return node;
+    }
+
+    /**
+     * Rotates child above parent and fixes both heights, the parent's first
+     * since it is now below the child.
+     * @return child
+     */
+    private AVLNode<T> rotateUp(AVLNode<T> child, AVLNode<T> parent) {
+        rotate(child, parent);
+        updateHeight(parent);
+        updateHeight(child);
+        return child;
+    }
+
+    /**
+     * Sets the height of node from the heights of its children.
+     */
+    private static void updateHeight(AVLNode<?> node) {
+        node.height = (byte) (1 + Math.max(height(node.childLeft()), height(node.childRight())));
+    }
+
+    /**
+     * @return the stored height of node, or 0 when node is null
+     */
+    protected static int height(AVLNode<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * Returns the height of the tree from the height stored in the root, in
+     * O(1) time.
+     * @return the height of the tree, 0 for an empty tree
+     */
+    @Override
+    public int height() {
+        return height((AVLNode<T>) this.root);
+    }
+
+    /**
+     * Checks the structure of the tree: parent links, ordering, stored
+     * heights and subtree sizes, and that the heights of the two subtrees of
+     * every node differ by at most one.
+     * @return the height of the tree (0 for an empty tree)
+     * @throws IllegalStateException when any of these properties is violated
+     */
+    public int validate() throws IllegalStateException {
+        if (this.root == null) return 0;
+        if (this.root.parent() != null) {
+            throw new IllegalStateException("Root has a parent");
+        }
+        return validateHelper((AVLNode<T>) this.root);
+    }
+
+    /**
+     * Private helper for validate method
+     * @param node the root of the subtree being checked
+     * @return the height of the subtree
+     */
+    private int validateHelper(AVLNode<T> node) {
+        if (node == null) return 0;
+        AVLNode<T> left = node.childLeft();
+        AVLNode<T> right = node.childRight();
+        if (left != null && (left.parent() != node || compare(left.getData(), left.key, node) > 0)) {
+            throw new IllegalStateException("Bad left child under " + node);
+        }
+        if (right != null && (right.parent() != node || compare(right.getData(), right.key, node) < 0)) {
+            throw new IllegalStateException("Bad right child under " + node);
+        }
+        if (this.trackSubtreeSizes && node.subtreeSize() != node.count() + subtreeSize(left) + subtreeSize(right)) {
+            throw new IllegalStateException("Wrong subtree size at " + node);
+        }
+        int leftHeight = validateHelper(left);
+        int rightHeight = validateHelper(right);
+        if (Math.abs(leftHeight - rightHeight) > 1) {
+            throw new IllegalStateException("Unbalanced subtrees under " + node);
+        }
+        if (node.height != 1 + Math.max(leftHeight, rightHeight)) {
+            throw new IllegalStateException("Wrong height at " + node);
+        }
+        return node.height;
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 inserts sorted values, which would make a plain BinarySearchTree
+     * degenerate, and checks the tree stays within the AVL height bound
+     * @return true if the tree stays balanced
+     */
+    public boolean test1() {
+        AVLTree<Integer> avl = new AVLTree<>();
+        for (int i = 0; i < 10000; i++) {
+            avl.insert(i);
+        }
+        avl.validate();
+        if (avl.size() != 10000) return false;
+        // an AVL tree with n nodes has height below 1.44 * log2(n + 2)
+        if (avl.height() > 1.44 * Math.log(10002) / Math.log(2) || avl.height() != avl.validate()) return false;
+        for (int i = 0; i < 10000; i++) {
+            if (!avl.contains(i)) return false;
+        }
+        return !avl.contains(-1) && !avl.contains(10000);
+    }
+
+    /**
+     * Test2 checks the four rotation cases on small trees
+     * @return true if the nodes end up in the expected places
+     */
+    public boolean test2() {
+        int[][] inserts = {{30, 20, 10}, {10, 20, 30}, {30, 10, 20}, {10, 30, 20}};
+        for (int[] values : inserts) {
+            AVLTree<Integer> avl = new AVLTree<>();
+            for (int value : values) {
+                avl.insert(value);
+            }
+            // left-left, right-right, left-right and right-left all end with 20 on top
+            if (avl.root.getData() != 20 || avl.root.childLeft().getData() != 10
+                || avl.root.childRight().getData() != 30 || avl.validate() != 2) return false;
+        }
+        // a duplicate goes down the left subtree of the node it equals
+        AVLTree<Integer> avl = new AVLTree<>();
+        for (int value : new int[] {20, 10, 30, 5, 15, 40, 3}) {
+            avl.insert(value);
+        }
+        avl.insert(10);
+        avl.validate();
+        if (!avl.root.toInOrderString().equals("[ 3, 5, 10, 10, 15, 20, 30, 40 ]")) return false;
+        // removing from the short side rotates at the root
+        avl.remove(30);
+        avl.remove(40);
+        avl.validate();
+        return avl.root.getData() == 10 && avl.size() == 6;
+    }
+
+    /**
+     * Test3 compares the tree against a RedBlackTree on random operations,
+     * with subtree sizes tracked so rank() and select() are checked as well,
+     * and validates the tree throughout
+     * @return true if both trees always agree
+     */
+    public boolean test3() {
+        Random random = new Random(22);
+        AVLTree<Integer> avl = new AVLTree<>(true);
+        RedBlackTree<Integer> reference = new RedBlackTree<>(true);
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (avl.remove(value) != reference.remove(value)) return false;
+                    break;
+                case 1:
+                    if (avl.contains(value) != reference.contains(value)) return false;
+                    break;
+                default:
+                    avl.insert(value);
+                    reference.insert(value);
+            }
+            if (i % 500 == 0) avl.validate();
+        }
+        avl.validate();
+        if (avl.size() != reference.size() || avl.root.subtreeSize() != reference.size()) return false;
+        for (int index = 0; index < avl.size(); index += 97) {
+            int value = reference.select(index);
+            if (avl.select(index) != value || avl.rank(value) != reference.rank(value)) return false;
+        }
+        Iterator<Integer> expected = reference.iterator();
+        for (int value : avl) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        return !expected.hasNext();
+    }
+
+    /**
+     * Test4 checks bulk loading and compressed duplicates: loaded nodes get
+     * their heights, and the tree keeps balancing afterwards
+     * @return true if the tree stays valid
+     */
+    public boolean test4() {
+        AVLTree<Integer> avl = new AVLTree<>(true, true);
+        List<Integer> batch = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            batch.add(i % 1000);
+        }
+        Collections.shuffle(batch, new Random(4));
+        avl.insertAll(batch);
+        if (avl.validate() != 10 || avl.size() != 3000 || avl.root.count() != 3) return false;
+        for (int i = 0; i < 1000; i++) {
+            avl.insert(1000 + i);
+        }
+        for (int i = 0; i < 500; i++) {
+            avl.remove(i);
+            avl.remove(i);
+            avl.remove(i);
+        }
+        avl.validate();
+        return avl.size() == 2500 && avl.select(0) == 500 && avl.rank(1000) == 1500;
+    }
+
+    public static void main(String[] args) {
+        AVLTree<Integer> faceOfTheOperations = new AVLTree<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+        System.out.println("Test 4 " + (faceOfTheOperations.test4() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,700 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A B+-tree implementation of SortedCollection for large data sets. Every
+ * node holds up to maxKeys keys packed into one array, so a lookup visits
+ * only about log(n) / log(maxKeys) nodes, each a handful of cache lines,
+ * instead of one separately allocated BinaryTreeNode per level. All values
+ * live in the leaves, which are linked in sorted order so that iteration
+ * and range scans walk arrays from leaf to leaf.
+ *
+ * Duplicates are stored as separate keys next to each other and may span
+ * several leaves. A leaf that loses its last key is unlinked from the tree,
+ * but nodes are not merged when they become less than half full, so the
+ * tree only shrinks in height when clear() is called.
+ */
+public class BPlusTree<T extends Comparable<T>> implements SortedCollection<T> {
+
+    // default maximum number of keys per node
+    public static final int DEFAULT_MAX_KEYS = 64;
+
+    /**
+     * Fields shared by leaf and internal nodes: the number of keys in use
+     * and the array they are packed into.
+     */
+    private abstract static class Node {
+        // number of keys in use
+        int count;
+        // the keys, in sorted order; one spare slot is used while splitting
+        final Object[] keys;
+
+        Node(int maxKeys) {
+            this.keys = new Object[maxKeys + 1];
+        }
+    }
+
+    /**
+     * A leaf node: the keys are the values stored in the tree.
+     */
+    private static final class Leaf extends Node {
+        // the neighboring leaves in sorted order, or null at either end
+        Leaf next;
+        Leaf prev;
+
+        Leaf(int maxKeys) {
+            super(maxKeys);
+        }
+    }
+
+    /**
+     * An internal node with count separator keys and count + 1 children.
+     * Every value under children[i] is >= keys[i - 1] and <= keys[i].
+     */
+    private static final class Internal extends Node {
+        // the subtrees; one spare slot is used while splitting
+        final Node[] children;
+
+        Internal(int maxKeys) {
+            super(maxKeys);
+            this.children = new Node[maxKeys + 2];
+        }
+    }
+
+    // maximum number of keys in one node
+    private final int maxKeys;
+    // the root node, a Leaf when the tree has a single level
+    private Node root;
+    // number of levels in the tree
+    private int height;
+    // number of values stored in the tree, including duplicates
+    private int size;
+    // number of structural changes, used by iterators to detect changes
+    private int modCount;
+    // separator key pushed up by the last internal split
+    private Object pushedUp;
+
+    /**
+     * Creates an empty tree with DEFAULT_MAX_KEYS keys per node.
+     */
+    public BPlusTree() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Creates an empty tree with the given fan-out.
+     * @param maxKeys the maximum number of keys in one node
+     * @throws IllegalArgumentException if maxKeys is less than 3
+     */
+    public BPlusTree(int maxKeys) throws IllegalArgumentException {
+        if (maxKeys < 3) {
+            throw new IllegalArgumentException("A node must hold at least 3 keys, not " + maxKeys);
+        }
+        this.maxKeys = maxKeys;
+        clear();
+    }
+
+    /**
+     * Inserts a new data value into the sorted collection.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        Node sibling = insertHelper(this.root, data);
+        if (sibling != null) {
+            // the root split, so the tree grows by one level
+            Internal newRoot = new Internal(this.maxKeys);
+            newRoot.keys[0] = firstKey(sibling);
+            newRoot.children[0] = this.root;
+            newRoot.children[1] = sibling;
+            newRoot.count = 1;
+            this.root = newRoot;
+            this.height++;
+        }
+        this.size++;
+        this.modCount++;
+    }
+
+    /**
+     * Private helper for insert method: inserts data into the subtree rooted
+     * at node, after any equal values already there.
+     * @return the new right sibling of node if node had to split, else null
+     */
+    private Node insertHelper(Node node, T data) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int position = upperBound(leaf, data);
+            System.arraycopy(leaf.keys, position, leaf.keys, position + 1, leaf.count - position);
+            leaf.keys[position] = data;
+            leaf.count++;
+            return leaf.count > this.maxKeys ? splitLeaf(leaf) : null;
+        }
+        Internal internal = (Internal) node;
+        int child = upperBound(internal, data);
+        Node sibling = insertHelper(internal.children[child], data);
+        if (sibling == null) return null;
+        // make room for the new child right after the one that split
+        System.arraycopy(internal.keys, child, internal.keys, child + 1, internal.count - child);
+        System.arraycopy(internal.children, child + 1, internal.children, child + 2, internal.count - child);
+        internal.keys[child] = firstKey(sibling);
+        internal.children[child + 1] = sibling;
+        internal.count++;
+        return internal.count > this.maxKeys ? splitInternal(internal) : null;
+    }
+
+    /**
+     * Moves the upper half of a full leaf into a new leaf linked after it.
+     * @return the new leaf
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf sibling = new Leaf(this.maxKeys);
+        int keep = leaf.count / 2;
+        sibling.count = leaf.count - keep;
+        System.arraycopy(leaf.keys, keep, sibling.keys, 0, sibling.count);
+        Arrays.fill(leaf.keys, keep, leaf.count, null);
+        leaf.count = keep;
+        sibling.next = leaf.next;
+        sibling.prev = leaf;
+        if (leaf.next != null) leaf.next.prev = sibling;
+        leaf.next = sibling;
+        return sibling;
+    }
+
+    /**
+     * Moves the upper half of a full internal node into a new node. The
+     * middle separator is left in the old node's spare slot, where
+     * firstKey() finds it when the parent links in the new node.
+     * @return the new internal node
+     */
+    private Internal splitInternal(Internal internal) {
+        Internal sibling = new Internal(this.maxKeys);
+        int keep = internal.count / 2;
+        // keys[keep] moves up to the parent; the rest move to the sibling
+        sibling.count = internal.count - keep - 1;
+        System.arraycopy(internal.keys, keep + 1, sibling.keys, 0, sibling.count);
+        System.arraycopy(internal.children, keep + 1, sibling.children, 0, sibling.count + 1);
+        this.pushedUp = internal.keys[keep];
+        Arrays.fill(internal.keys, keep, internal.count, null);
+        Arrays.fill(internal.children, keep + 1, internal.count + 1, null);
+        internal.count = keep;
+        return sibling;
+    }
+
+    /**
+     * @return the separator the parent needs for a node that just split off
+     */
+    private Object firstKey(Node sibling) {
+        return sibling instanceof Leaf ? sibling.keys[0] : this.pushedUp;
+    }
+
+    /**
+     * Check whether data is stored in the tree.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     */
+    @Override
+    public boolean contains(T data) {
+        Node node = this.root;
+        while (node instanceof Internal) {
+            node = ((Internal) node).children[lowerBound(node, data)];
+        }
+        Leaf leaf = (Leaf) node;
+        int position = lowerBound(leaf, data);
+        if (position == leaf.count) {
+            // equal values can start in the next leaf
+            leaf = leaf.next;
+            position = 0;
+        }
+        return leaf != null && data.compareTo(key(leaf, position)) == 0;
+    }
+
+    /**
+     * Removes one occurrence of data from the tree. A leaf left without keys
+     * is unlinked from its parent, and so is any parent left without
+     * children.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not in the tree
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        // remember the path, so that emptied nodes can be unlinked
+        Internal[] path = new Internal[this.height];
+        int[] indices = new int[this.height];
+        Node node = this.root;
+        for (int level = 0; node instanceof Internal; level++) {
+            path[level] = (Internal) node;
+            indices[level] = lowerBound(node, data);
+            node = path[level].children[indices[level]];
+        }
+        Leaf leaf = (Leaf) node;
+        int position = lowerBound(leaf, data);
+        if (position == leaf.count) {
+            // equal values can start in the next leaf: step the path along
+            leaf = nextLeaf(path, indices);
+            position = 0;
+        }
+        if (leaf == null || data.compareTo(key(leaf, position)) != 0) return false;
+
+        System.arraycopy(leaf.keys, position + 1, leaf.keys, position, leaf.count - position - 1);
+        leaf.keys[--leaf.count] = null;
+        if (leaf.count == 0 && leaf != this.root) {
+            if (leaf.prev != null) leaf.prev.next = leaf.next;
+            if (leaf.next != null) leaf.next.prev = leaf.prev;
+            unlinkChild(path, indices, this.height - 2);
+        }
+        this.size--;
+        this.modCount++;
+        return true;
+    }
+
+    /**
+     * Moves a descent path to the leftmost leaf after the one it ends at.
+     * @return that leaf, or null if the path ended at the last leaf
+     */
+    private Leaf nextLeaf(Internal[] path, int[] indices) {
+        int level = this.height - 2;
+        while (level >= 0 && indices[level] == path[level].count) {
+            level--;
+        }
+        if (level < 0) return null;
+        indices[level]++;
+        Node node = path[level].children[indices[level]];
+        for (level++; level < this.height - 1; level++) {
+            path[level] = (Internal) node;
+            indices[level] = 0;
+            node = path[level].children[0];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Removes the child at indices[level] from path[level], together with
+     * one of the separators next to it, then handles an emptied parent or a
+     * root left with a single child.
+     */
+    private void unlinkChild(Internal[] path, int[] indices, int level) {
+        Internal parent = path[level];
+        int child = indices[level];
+        if (parent.count == 0) {
+            // the parent loses its only child, so it goes too
+            unlinkChild(path, indices, level - 1);
+            return;
+        }
+        int separator = child == 0 ? 0 : child - 1;
+        System.arraycopy(parent.keys, separator + 1, parent.keys, separator, parent.count - separator - 1);
+        System.arraycopy(parent.children, child + 1, parent.children, child, parent.count - child);
+        parent.keys[parent.count - 1] = null;
+        parent.children[parent.count] = null;
+        parent.count--;
+        while (this.root instanceof Internal && this.root.count == 0) {
+            this.root = ((Internal) this.root).children[0];
+            this.height--;
+        }
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Removes all values and duplicates from the collection.
+     */
+    @Override
+    public void clear() {
+        this.root = new Leaf(this.maxKeys);
+        this.height = 1;
+        this.size = 0;
+        this.modCount++;
+    }
+
+    /**
+     * @return the number of levels in the tree, 1 when the root is a leaf
+     */
+    public int height() {
+        return this.height;
+    }
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T min() {
+        Leaf leaf = firstLeaf();
+        return leaf.count == 0 ? null : key(leaf, 0);
+    }
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T max() {
+        Node node = this.root;
+        while (node instanceof Internal) {
+            node = ((Internal) node).children[node.count];
+        }
+        return node.count == 0 ? null : key((Leaf) node, node.count - 1);
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return before(data, true);
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return after(data, true);
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return before(data, false);
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return after(data, false);
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. Iteration descends once to the
+     * first value >= lo and then scans leaf arrays.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> {
+            Leaf leaf = findLeaf(lo, true);
+            return new LeafIterator(leaf, lowerBound(leaf, lo), hi);
+        };
+    }
+
+    /**
+     * Returns an iterator over the values in sorted order, which walks the
+     * linked leaves.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new LeafIterator(firstLeaf(), 0, null);
+    }
+
+    /**
+     * Finds the first value after data (or equal to it, when inclusive).
+     */
+    private T after(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        Leaf leaf = findLeaf(data, inclusive);
+        int position = inclusive ? lowerBound(leaf, data) : upperBound(leaf, data);
+        if (position == leaf.count) {
+            leaf = leaf.next;
+            position = 0;
+        }
+        return leaf == null ? null : key(leaf, position);
+    }
+
+    /**
+     * Finds the last value before data (or equal to it, when inclusive).
+     */
+    private T before(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        // the value just before the first value > data (or >= data)
+        Leaf leaf = findLeaf(data, !inclusive);
+        int position = inclusive ? upperBound(leaf, data) : lowerBound(leaf, data);
+        if (position == 0) {
+            leaf = leaf.prev;
+            if (leaf == null) return null;
+            position = leaf.count;
+        }
+        return key(leaf, position - 1);
+    }
+
+    /**
+     * Descends to the leaf where the first value >= data (lowerBound true)
+     * or > data (lowerBound false) is, or would be, found.
+     */
+    private Leaf findLeaf(T data, boolean lowerBound) {
+        Node node = this.root;
+        while (node instanceof Internal) {
+            int child = lowerBound ? lowerBound(node, data) : upperBound(node, data);
+            node = ((Internal) node).children[child];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * @return the leftmost leaf
+     */
+    private Leaf firstLeaf() {
+        Node node = this.root;
+        while (node instanceof Internal) {
+            node = ((Internal) node).children[0];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * @return the first position in node whose key is >= data, or count
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> int lowerBound(Node node, T data) {
+        int low = 0;
+        int high = node.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (((T) node.keys[middle]).compareTo(data) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first position in node whose key is > data, or count
+     */
+    @SuppressWarnings("unchecked")
+    private static <T extends Comparable<T>> int upperBound(Node node, T data) {
+        int low = 0;
+        int high = node.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (((T) node.keys[middle]).compareTo(data) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the key at position in leaf
+     */
+    @SuppressWarnings("unchecked")
+    private T key(Leaf leaf, int position) {
+        return (T) leaf.keys[position];
+    }
+
+    /**
+     * Iterates over the values in sorted order by scanning leaf arrays and
+     * following the links between leaves.
+     */
+    private class LeafIterator implements Iterator<T> {
+
+        // the leaf holding the next value, or null when done
+        private Leaf leaf;
+        // the position of the next value in leaf
+        private int position;
+        // the largest value to produce, or null for no limit
+        private final T last;
+        // modCount of the tree when this iterator was created
+        private final int expectedModCount = BPlusTree.this.modCount;
+
+        private LeafIterator(Leaf leaf, int position, T last) {
+            this.leaf = leaf;
+            this.position = position;
+            this.last = last;
+            advance();
+        }
+
+        /**
+         * Moves past the end of the current leaf, and stops past the limit.
+         */
+        private void advance() {
+            if (this.leaf != null && this.position == this.leaf.count) {
+                this.leaf = this.leaf.next;
+                this.position = 0;
+            }
+            if (this.leaf != null && this.last != null && key(this.leaf, this.position).compareTo(this.last) > 0) {
+                this.leaf = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.leaf != null;
+        }
+
+        @Override
+        public T next() {
+            if (this.leaf == null) {
+                throw new NoSuchElementException();
+            }
+            if (BPlusTree.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            T data = key(this.leaf, this.position++);
+            advance();
+            return data;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 tests insert(), contains(), and size() with enough values to
+     * split leaves and internal nodes several times
+     * @return true if every value is found and the tree grew in height
+     */
+    public boolean test1() {
+        BPlusTree<Integer> tree = new BPlusTree<>(4);
+        if (!tree.isEmpty() || tree.contains(1) || tree.min() != null) return false;
+        for (int i = 0; i < 1000; i++) {
+            tree.insert((i * 7919) % 1000);
+        }
+        if (tree.size() != 1000 || tree.height() < 4) return false;
+        for (int i = 0; i < 1000; i++) {
+            if (!tree.contains(i)) return false;
+        }
+        if (tree.contains(-1) || tree.contains(1000)) return false;
+        int expected = 0;
+        for (int value : tree) {
+            if (value != expected++) return false;
+        }
+        return tree.min() == 0 && tree.max() == 999;
+    }
+
+    /**
+     * Test2 tests duplicates that span several leaves, including remove()
+     * @return true if every copy is counted and found
+     */
+    public boolean test2() {
+        BPlusTree<Integer> tree = new BPlusTree<>(3);
+        for (int i = 0; i < 50; i++) {
+            tree.insert(5);
+            tree.insert(i % 2 == 0 ? 1 : 9);
+        }
+        if (tree.size() != 100) return false;
+        for (int i = 0; i < 50; i++) {
+            if (!tree.contains(5) || !tree.remove(5)) return false;
+        }
+        if (tree.contains(5) || tree.remove(5) || tree.size() != 50) return false;
+        if (tree.floor(5) != 1 || tree.ceiling(5) != 9) return false;
+        StringBuilder sb = new StringBuilder();
+        for (int value : tree.range(1, 1)) {
+            sb.append(value);
+        }
+        return sb.toString().equals("1111111111111111111111111");
+    }
+
+    /**
+     * Test3 compares the tree against a RedBlackTree on a random mix of
+     * inserts, removes, and navigation queries
+     * @return true if both always agree
+     */
+    public boolean test3() {
+        Random random = new Random(5);
+        BPlusTree<Integer> tree = new BPlusTree<>(5);
+        RedBlackTree<Integer> reference = new RedBlackTree<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(2000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (tree.remove(value) != reference.remove(value)) return false;
+                    break;
+                case 1:
+                    if (!Objects.equals(tree.floor(value), reference.floor(value))) return false;
+                    if (!Objects.equals(tree.lower(value), reference.lower(value))) return false;
+                    if (!Objects.equals(tree.ceiling(value), reference.ceiling(value))) return false;
+                    if (!Objects.equals(tree.higher(value), reference.higher(value))) return false;
+                    break;
+                default:
+                    tree.insert(value);
+                    reference.insert(value);
+            }
+        }
+        if (tree.size() != reference.size()) return false;
+        Iterator<Integer> expected = reference.iterator();
+        for (int value : tree) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        // removing everything shrinks the tree back to a single leaf
+        while (!reference.isEmpty()) {
+            int value = reference.min();
+            reference.remove(value);
+            if (!tree.remove(value)) return false;
+        }
+        return tree.isEmpty() && tree.height() == 1 && !tree.iterator().hasNext();
+    }
+
+    public static void main(String[] args) {
+        BPlusTree<Integer> faceOfTheOperations = new BPlusTree<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+    }
+}
@@ -1,4 +1,77 @@
-public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree_Placeholder<T> {
+import java.util.Comparator;
+import java.util.function.ToLongFunction;
+
+public class BSTRotation<T> extends BinarySearchTree<T> {
+
+    /**
+     * Creates an empty tree that does not track subtree sizes.
+     */
+    public BSTRotation() {
+        super();
+    }
+
+    /**
+     * Creates an empty tree that optionally keeps per-node subtree sizes.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     */
+    public BSTRotation(boolean trackSubtreeSizes) {
+        super(trackSubtreeSizes);
+    }
+
+    /**
+     * Creates an empty tree that optionally keeps per-node subtree sizes and
+     * optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     */
+    public BSTRotation(boolean trackSubtreeSizes, boolean compressDuplicates) {
+        super(trackSubtreeSizes, compressDuplicates);
+    }
+
+    /**
+     * Creates an empty tree that orders its values with comparator
+     * instead of their natural order.
+     * @param comparator the order of the values, or null for natural order
+     */
+    public BSTRotation(Comparator<? super T> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates an empty tree that orders its values by the long key
+     * keyExtractor extracts from them, which every node caches.
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public BSTRotation(ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(keyExtractor);
+    }
+
+    /**
+     * Creates an empty tree ordered by comparator that optionally keeps
+     * per-node subtree sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param comparator the order of the values, or null for natural order
+     */
+    public BSTRotation(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator) {
+        super(trackSubtreeSizes, compressDuplicates, comparator);
+    }
+
+    /**
+     * Creates an empty tree ordered by the long key keyExtractor extracts
+     * from the values, that optionally keeps per-node subtree sizes and
+     * optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public BSTRotation(boolean trackSubtreeSizes, boolean compressDuplicates,
+        ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(trackSubtreeSizes, compressDuplicates, keyExtractor);
+    }
     
      /**
      * Performs the rotation operation on the provided nodes within this tree.
@@ -43,6 +116,15 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree_Place
                 throw new IllegalArgumentException("Illegal Argument!");
             }
 
+            if (this.metrics != null) {
+                this.metrics.recordRotation();
+            }
+
+            // parent is now below child, so its size must be fixed first
+            if (this.trackSubtreeSizes) {
+                parent.updateSubtreeSize();
+                child.updateSubtreeSize();
+            }
             
         
     }
@@ -310,11 +392,49 @@ public class BSTRotation<T extends Comparable<T>> extends BinarySearchTree_Place
         
     }
 
+    /**
+     * Tests that rotate() keeps subtree sizes correct in a tree that tracks them
+     * @return True if the rotated nodes have the right subtree sizes
+     */
+    public boolean test4() {
+        BSTRotation<Integer> bst = new BSTRotation<>(true);
+        bst.insert(10);
+        bst.insert(5);
+        bst.insert(14);
+        bst.insert(2);
+        bst.insert(7);
+
+        /*
+         *  before:
+         *              10
+         *      5               14
+         *  2       7
+         *
+         * expected after:
+         *              5
+         *      2               10
+         *                  7       14
+         */
+        bst.rotate(bst.root.childLeft(), bst.root);
+        if (bst.root.getData() != 5 || bst.root.subtreeSize() != 5) return false;
+        if (bst.root.childLeft().subtreeSize() != 1) return false;
+        if (bst.root.childRight().subtreeSize() != 3) return false;
+
+        // rotating back restores the original sizes
+        bst.rotate(bst.root.childRight(), bst.root);
+        if (bst.root.getData() != 10 || bst.root.subtreeSize() != 5) return false;
+        if (bst.root.childLeft().subtreeSize() != 3) return false;
+        if (bst.select(0) != 2 || bst.select(4) != 14 || bst.rank(10) != 3) return false;
+
+        return true;
+    }
+
     public static void main(String[] args) {
         BSTRotation<Integer> faceOfTheOperations= new BSTRotation<>();
         System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
         System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
         System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+        System.out.println("Test 4 " + (faceOfTheOperations.test4() ? "passes" : "fails"));
     }
 
     
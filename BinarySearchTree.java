@@ -1,4 +1,26 @@
-public class BinarySearchTree<T extends Comparable<T>> implements SortedCollection<T> {
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class BinarySearchTree<T> implements SortedCollection<T> {
     
     /**
      * Fields:
@@ -6,12 +28,187 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
      */
     protected BinaryTreeNode<T> root;
 
+    // number of values stored in the tree, including duplicates
+    protected int size;
+
+    // number of structural changes made to the tree, used by iterators to
+    // detect changes made while they are in use
+    protected int modCount;
+
+    // when true, every node's subtreeSize is kept up to date so that rank()
+    // and select() can be answered in time proportional to the tree's height
+    protected final boolean trackSubtreeSizes;
+
+    // when true, a duplicate insert increments the count of the node already
+    // holding that value instead of adding a new node
+    protected final boolean compressDuplicates;
+
+    // the order of the values, or null for their natural order
+    protected final Comparator<? super T> comparator;
+
+    // when not null, values are ordered by the long key this extracts from
+    // them, and every node caches the key of its value
+    protected final ToLongFunction<? super T> keyExtractor;
+
+    // where insert, contains and rotations are recorded, or null when the
+    // tree is not instrumented
+    protected TreeMetrics metrics;
+
+    // when true, nodes that are removed or cleared from the tree are kept in
+    // the pool below and reused by later inserts instead of being dropped
+    protected boolean pooling;
+
+    // the top of a stack of recycled subtrees, linked through the parent
+    // references of their roots, or null when the pool is empty. A cleared
+    // tree is pushed as a whole, and its nodes are only taken apart as
+    // they are reused
+    protected BinaryTreeNode<T> pool;
+
     /**
      * Class constructor
      * initializes root to 0 to make empty tree
      */
     public BinarySearchTree() {
+        this(false, false);
+    }
+
+    /**
+     * Creates an empty tree that optionally keeps per-node subtree sizes,
+     * which costs an extra update per node on each insert path but enables
+     * the rank() and select() order-statistic queries.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     */
+    public BinarySearchTree(boolean trackSubtreeSizes) {
+        this(trackSubtreeSizes, false);
+    }
+
+    /**
+     * Creates an empty tree that optionally keeps per-node subtree sizes and
+     * optionally compresses duplicates. In compressed mode every distinct
+     * value is stored in a single node along with the number of times it was
+     * inserted, so memory is proportional to the number of distinct values
+     * while size() still counts every duplicate.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     */
+    public BinarySearchTree(boolean trackSubtreeSizes, boolean compressDuplicates) {
+        this(trackSubtreeSizes, compressDuplicates, null, null);
+    }
+
+    /**
+     * Creates an empty tree that orders its values with comparator instead
+     * of their natural order, so values that are not Comparable can be
+     * stored without wrapping them.
+     * @param comparator the order of the values, or null for natural order
+     */
+    public BinarySearchTree(Comparator<? super T> comparator) {
+        this(false, false, comparator);
+    }
+
+    /**
+     * Creates an empty tree that orders its values by the long key that
+     * keyExtractor extracts from them. Each node caches the key of its
+     * value, and a search extracts the key of the value it looks for once,
+     * so walking down the tree compares primitive longs without calling
+     * keyExtractor or touching the values again. Values with equal keys are
+     * treated as duplicates.
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public BinarySearchTree(ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        this(false, false, keyExtractor);
+    }
+
+    /**
+     * Creates an empty tree ordered by comparator that optionally keeps
+     * per-node subtree sizes and optionally compresses duplicates.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param comparator the order of the values, or null for natural order
+     */
+    public BinarySearchTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator) {
+        this(trackSubtreeSizes, compressDuplicates, comparator, null);
+    }
+
+    /**
+     * Creates an empty tree ordered by the long key keyExtractor extracts
+     * from the values, that optionally keeps per-node subtree sizes and
+     * optionally compresses duplicates.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public BinarySearchTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        this(trackSubtreeSizes, compressDuplicates, null, keyExtractor);
+        if (keyExtractor == null) {
+            throw new NullPointerException("Key extractor cannot be null");
+        }
+    }
+
+    private BinarySearchTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator, ToLongFunction<? super T> keyExtractor) {
         this.root = null;
+        this.size = 0;
+        this.trackSubtreeSizes = trackSubtreeSizes;
+        this.compressDuplicates = compressDuplicates;
+        this.comparator = comparator;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * @return the order of the values in this tree, or null if they are in
+     * their natural order
+     */
+    @Override
+    public Comparator<? super T> comparator() {
+        if (this.keyExtractor != null) {
+            return Comparator.comparingLong(this.keyExtractor);
+        }
+        return this.comparator;
+    }
+
+    /**
+     * Extracts the key that data is ordered by in a keyed tree. A search
+     * does this once, and then compares the key with the keys cached in
+     * the nodes it visits.
+     * @param data the value to extract the key of
+     * @return the key of data, or 0 if this tree is not keyed
+     */
+    protected final long keyOf(T data) {
+        return this.keyExtractor == null ? 0 : this.keyExtractor.applyAsLong(data);
+    }
+
+    /**
+     * Compares data with the value stored in node, using the cached key of
+     * node in a keyed tree.
+     * @param data the value being searched for
+     * @param key the key of data, as returned by keyOf()
+     * @param node the node to compare with
+     * @return a negative number, zero or a positive number as data is below,
+     * equal to or above the value of node
+     */
+    @SuppressWarnings("unchecked")
+    protected final int compare(T data, long key, BinaryTreeNode<T> node) {
+        if (this.keyExtractor != null) return Long.compare(key, node.key);
+        if (this.comparator != null) return this.comparator.compare(data, node.getData());
+        return ((Comparable<? super T>) data).compareTo(node.getData());
+    }
+
+    /**
+     * Compares two values in the order of this tree.
+     * @return a negative number, zero or a positive number as a is below,
+     * equal to or above b
+     */
+    @SuppressWarnings("unchecked")
+    protected final int compare(T a, T b) {
+        if (this.keyExtractor != null) {
+            return Long.compare(this.keyExtractor.applyAsLong(a), this.keyExtractor.applyAsLong(b));
+        }
+        if (this.comparator != null) return this.comparator.compare(a, b);
+        return ((Comparable<? super T>) a).compareTo(b);
     }
 
     /**
@@ -26,58 +223,327 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         if (data == null) {
             throw new NullPointerException("Data value null!!!!!!!!!");
         }
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        BinaryTreeNode<T> node;
         if (this.root == null) {
-            this.root = new BinaryTreeNode<T>(data);
+            this.root = node = createNode(data);
         }
         else {
-            insertHelper(new BinaryTreeNode<T>(data) , this.root);
+            node = insertHelper(data, this.root);
+        }
+        this.size++;
+        this.modCount++;
+        if (this.metrics != null) {
+            // a compressed duplicate was counted in an existing node
+            boolean created = node != null;
+            recordInsert(depthOf(created ? node : findNode(data)), created, start);
         }
-        
     }
     /**
-     * Private helper for insert method
-     * @param newNode
-     * @param subRoot
-     */
-    protected void insertHelper(BinaryTreeNode<T> newNode, BinaryTreeNode<T> subRoot) {
-        //base case
-        if (subRoot == null) return;
-
-        // duplicate
-
-        if (newNode.getData().compareTo(subRoot.getData()) == 0) {
-            if (subRoot.childLeft() == null) {
-                subRoot.setChildLeft(newNode);
-                newNode.setParent(subRoot);
-                return;
-            }
-            newNode.setChildLeft(subRoot.childLeft());
-            subRoot.childLeft().setParent(newNode);
-            subRoot.setChildLeft(newNode);
-            newNode.setParent(subRoot);
-        }
-
-        if (newNode.getData().compareTo(subRoot.getData()) < 0) {
-            if (subRoot.childLeft() == null) {
-                subRoot.setChildLeft(newNode);
-                newNode.setParent(subRoot);
-                return;
-            } 
-            
-            else {
-                insertHelper(newNode, subRoot.childLeft());
-            }
-        } 
-        else if (newNode.getData().compareTo(subRoot.getData()) > 0) {
-            if (subRoot.childRight() == null) {
-                subRoot.setChildRight(newNode);
-                newNode.setParent(subRoot);
-                return;
-            } 
-            
-        else {
-            insertHelper(newNode, subRoot.childRight());
+     * Helper for insert method. Walks down from subRoot to the position of
+     * data in a single loop, comparing once per level. A duplicate of a
+     * value already in the tree is either counted in the existing node, when
+     * compressing duplicates, or spliced in as that node's left child.
+     * @param data the value being inserted
+     * @param subRoot the root of the subtree data is inserted into
+     * @return the new node holding data, or null if data was counted in an
+     * existing node
+     */
+    protected BinaryTreeNode<T> insertHelper(T data, BinaryTreeNode<T> subRoot) {
+        long key = keyOf(data);
+        BinaryTreeNode<T> current = subRoot;
+        while (current != null) {
+            if (this.trackSubtreeSizes) current.subtreeSize++;
+            int cmp = compare(data, key, current);
+            if (cmp == 0 && this.compressDuplicates) {
+                current.count++;
+                return null;
+            }
+            if (cmp == 0) {
+                // duplicate: becomes the left child, adopting the old left subtree
+                BinaryTreeNode<T> newNode = createNode(data);
+                BinaryTreeNode<T> oldLeft = current.childLeft();
+                if (oldLeft != null) {
+                    newNode.setChildLeft(oldLeft);
+                    oldLeft.setParent(newNode);
+                    if (this.trackSubtreeSizes) newNode.updateSubtreeSize();
+                }
+                current.setChildLeft(newNode);
+                newNode.setParent(current);
+                return newNode;
+            }
+            BinaryTreeNode<T> next = cmp < 0 ? current.childLeft() : current.childRight();
+            if (next == null) {
+                BinaryTreeNode<T> newNode = createNode(data);
+                if (cmp < 0) {
+                    current.setChildLeft(newNode);
+                } else {
+                    current.setChildRight(newNode);
+                }
+                newNode.setParent(current);
+                return newNode;
+            }
+            current = next;
+        }
+        return null;
+    }
+
+    /**
+     * Creates a new node holding data. Subclasses that store extra
+     * information in their nodes override this to create their node type.
+     * @param data the value the new node stores
+     * @return a new node holding data
+     */
+    protected BinaryTreeNode<T> newNode(T data) {
+        return new BinaryTreeNode<>(data);
+    }
+    /**
+     * Creates a new node holding data with newNode(), or reuses one from the
+     * node pool, and caches the key of data in it when the tree is keyed.
+     * @param data the value the new node stores
+     * @return a new node holding data
+     */
+    protected final BinaryTreeNode<T> createNode(T data) {
+        BinaryTreeNode<T> node = this.pool != null ? reuseNode(data) : newNode(data);
+        node.key = keyOf(data);
+        return node;
+    }
+    /**
+     * Takes the node on top of the pool and resets it to hold data. If the
+     * node was the root of a recycled subtree, its children take its place
+     * on the pool, so a cleared tree is taken apart one node per insert.
+     * @param data the value the reused node stores
+     * @return a node holding data, with no parent or children
+     */
+    private BinaryTreeNode<T> reuseNode(T data) {
+        BinaryTreeNode<T> node = this.pool;
+        this.pool = node.parent();
+        BinaryTreeNode<T> left = node.childLeft();
+        BinaryTreeNode<T> right = node.childRight();
+        if (left != null) {
+            left.setParent(this.pool);
+            this.pool = left;
+        }
+        if (right != null) {
+            right.setParent(this.pool);
+            this.pool = right;
+        }
+        node.reset(data);
+        return node;
+    }
+    /**
+     * Hands a node, or a whole subtree, that is no longer part of the tree
+     * to the node pool, when pooling is enabled. This takes O(1) time
+     * whatever the size of the subtree.
+     * @param subtree the root of the detached subtree
+     */
+    protected void recycle(BinaryTreeNode<T> subtree) {
+        if (this.pooling) {
+            subtree.setParent(this.pool);
+            this.pool = subtree;
+        }
+    }
+    /**
+     * Starts keeping the nodes of removed values, and of the whole tree on
+     * clear(), in a pool from which later inserts take their nodes. A tree
+     * that is filled and cleared over and over then allocates no nodes
+     * after its first fill. Pooled nodes keep their old values reachable
+     * until they are reused or disableNodePool() is called, and nodes that
+     * were handed out, such as root, must not be used once their values
+     * are removed.
+     */
+    public void enableNodePool() {
+        this.pooling = true;
+    }
+    /**
+     * Stops pooling nodes, and drops the nodes in the pool.
+     */
+    public void disableNodePool() {
+        this.pooling = false;
+        this.pool = null;
+    }
+    /**
+     * Creates a tree holding the values of an array that is already sorted,
+     * in O(n) time. The resulting tree has the minimum possible height.
+     * @param sorted the values to store, in non-decreasing order
+     * @return a new tree holding all of the values
+     * @throws NullPointerException if the array or any of its values is null
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <T extends Comparable<T>> BinarySearchTree<T> fromSorted(T[] sorted)
+        throws NullPointerException, IllegalArgumentException {
+        BinarySearchTree<T> bst = new BinarySearchTree<>();
+        bst.loadSorted(Arrays.asList(sorted).iterator(), sorted.length);
+        return bst;
+    }
+    /**
+     * Replaces the contents of this tree with n values taken from an
+     * iterator that produces them in sorted order. The tree is built in O(n)
+     * time with the minimum possible height and correct parent links, without
+     * a single comparison beyond the check that the input is sorted. When
+     * the input is invalid, the tree is left unchanged.
+     * @param sorted produces the values to store, in non-decreasing order
+     * @param n the number of values to take from the iterator
+     * @throws NullPointerException if any of the values is null
+     * @throws IllegalArgumentException if the values are not sorted, or the
+     * iterator runs out before producing n values
+     */
+    public void loadSorted(Iterator<? extends T> sorted, int n)
+        throws NullPointerException, IllegalArgumentException {
+        if (n < 0) {
+            throw new IllegalArgumentException("Negative number of values: " + n);
+        }
+        BulkLoader loader = new BulkLoader(sorted, n);
+        BinaryTreeNode<T> newRoot = loader.build(loader.nodes, 1, heightFor(loader.nodes));
+        // insertAll() reads the old tree while the new one is built, so it
+        // can only be recycled now
+        if (this.root != null) recycle(this.root);
+        this.root = newRoot;
+        this.size = n;
+        this.modCount++;
+    }
+    /**
+     * Inserts a batch of values in any order. The batch is sorted and merged
+     * with the values already in the tree, and the tree is rebuilt with
+     * minimum height, in O(n + m log m) time for m new values. For batches
+     * that are large compared to the tree this is much faster than calling
+     * insert() for every value, and it also rebalances the whole tree.
+     * @param batch the values to insert
+     * @throws NullPointerException if any of the values is null
+     */
+    @SuppressWarnings("unchecked")
+    public void insertAll(Collection<? extends T> batch) throws NullPointerException {
+        T[] values = (T[]) batch.toArray();
+        for (T value : values) {
+            if (value == null) {
+                throw new NullPointerException("Cannot insert null");
+            }
+        }
+        Arrays.sort(values, this::compare);
+        Iterator<T> existing = iterator();
+        Iterator<T> merged = new Iterator<T>() {
+            private T nextExisting = existing.hasNext() ? existing.next() : null;
+            private int nextBatch = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.nextExisting != null || this.nextBatch < values.length;
+            }
+
+            @Override
+            public T next() {
+                if (this.nextExisting != null && (this.nextBatch == values.length
+                    || compare(this.nextExisting, values[this.nextBatch]) <= 0)) {
+                    T data = this.nextExisting;
+                    this.nextExisting = existing.hasNext() ? existing.next() : null;
+                    return data;
+                }
+                return values[this.nextBatch++];
+            }
+        };
+        loadSorted(merged, this.size + values.length);
+    }
+    /**
+     * Called for every node created by loadSorted(), after its children have
+     * been attached. Subclasses that keep balancing information in their
+     * nodes override this to initialize it.
+     * @param node the node that was just built
+     * @param depth the depth of node, the root being at depth 1
+     * @param height the height of the whole tree being built
+     */
+    protected void initBulkLoadedNode(BinaryTreeNode<T> node, int depth, int height) {
+    }
+    /**
+     * @return the height of a minimum-height tree with the given number of nodes
+     */
+    private static int heightFor(int nodes) {
+        return 32 - Integer.numberOfLeadingZeros(nodes);
+    }
+
+    /**
+     * Builds a minimum-height subtree from values arriving in sorted order:
+     * the left subtree is built first, then its root takes the next value,
+     * then the right subtree is built. In a tree compressing duplicates, the
+     * sorted input is first collapsed into distinct values and their counts.
+     */
+    private class BulkLoader {
+
+        // the sorted values still to be placed
+        private final Iterator<? extends T> values;
+        // the counts of the distinct values, when compressing duplicates
+        private final Iterator<Integer> counts;
+        // the number of nodes to build
+        private final int nodes;
+        // the last value placed, to check the input is sorted
+        private T previous = null;
+
+        private BulkLoader(Iterator<? extends T> sorted, int n) {
+            if (BinarySearchTree.this.compressDuplicates) {
+                List<T> distinct = new ArrayList<>();
+                List<Integer> counts = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    T data = nextChecked(sorted);
+                    if (i > 0 && compare(data, distinct.get(distinct.size() - 1)) == 0) {
+                        counts.set(counts.size() - 1, counts.get(counts.size() - 1) + 1);
+                    } else {
+                        distinct.add(data);
+                        counts.add(1);
+                    }
+                }
+                this.values = distinct.iterator();
+                this.counts = counts.iterator();
+                this.nodes = distinct.size();
+            } else {
+                this.values = sorted;
+                this.counts = null;
+                this.nodes = n;
+            }
         }
+
+        /**
+         * Takes the next value from an iterator of sorted values.
+         * @throws IllegalArgumentException if the iterator is exhausted or
+         * the value is smaller than the one before it
+         */
+        private T nextChecked(Iterator<? extends T> sorted) {
+            if (!sorted.hasNext()) {
+                throw new IllegalArgumentException("Ran out of values to load");
+            }
+            T data = sorted.next();
+            if (data == null) {
+                throw new NullPointerException("Cannot insert null");
+            }
+            if (this.previous != null && compare(this.previous, data) > 0) {
+                throw new IllegalArgumentException("Values are not sorted: " + data + " after " + this.previous);
+            }
+            this.previous = data;
+            return data;
+        }
+
+        /**
+         * Builds a minimum-height subtree from the next n values.
+         * @param n the number of nodes in the subtree
+         * @param depth the depth of the subtree's root
+         * @param height the height of the whole tree
+         * @return the root of the subtree, or null when n is 0
+         */
+        private BinaryTreeNode<T> build(int n, int depth, int height) {
+            if (n == 0) return null;
+            int leftNodes = (n - 1) / 2;
+            BinaryTreeNode<T> left = build(leftNodes, depth + 1, height);
+            BinaryTreeNode<T> node = createNode(this.counts == null ? nextChecked(this.values) : this.values.next());
+            if (this.counts != null) {
+                node.setCount(this.counts.next());
+            }
+            BinaryTreeNode<T> right = build(n - 1 - leftNodes, depth + 1, height);
+            node.setChildLeft(left);
+            node.setChildRight(right);
+            if (left != null) left.setParent(node);
+            if (right != null) right.setParent(node);
+            // sizes are cheap to fill in here, so they are set even when untracked
+            node.updateSubtreeSize();
+            initBulkLoadedNode(node, depth, height);
+            return node;
         }
     }
 
@@ -88,24 +554,177 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
      * and false otherwise
      */
     @Override
-    public boolean contains(Comparable<T> data) {
+    public boolean contains(T data) {
+        if (this.metrics != null) {
+            return containsInstrumented(data);
+        }
         return containsHelper(data, this.root);
     }
     /**
-     * Private helper for contains method
-     * @param data
-     * @param subRoot
-     * @return
+     * Private helper for contains method. Walks down from subRoot in a
+     * single loop, comparing once per level.
+     * @param data the value being searched for
+     * @param subRoot the root of the subtree to search
+     * @return true if data is found in the subtree
      */
-    private boolean containsHelper(Comparable<T> data, BinaryTreeNode<T> subRoot) {
-        if (subRoot == null) return false;
-        if (subRoot.getData().compareTo((T) data) == 0) return true;
-        if (data.compareTo(subRoot.getData()) < 0) {
-            return containsHelper(data, subRoot.childLeft());
-        } else {
-            return containsHelper(data, subRoot.childRight());
+    private boolean containsHelper(T data, BinaryTreeNode<T> subRoot) {
+        long key = keyOf(data);
+        BinaryTreeNode<T> current = subRoot;
+        while (current != null) {
+            int cmp = compare(data, key, current);
+            if (cmp == 0) return true;
+            current = cmp < 0 ? current.childLeft() : current.childRight();
         }
+        return false;
     }
+    /**
+     * Checks a whole batch of values in one sweep over the tree. The probes
+     * are visited in sorted order, and each search starts where the previous
+     * one ended instead of at the root: it climbs only until it reaches a
+     * subtree whose range covers the next probe. A batch of k probes that
+     * are close together therefore costs far fewer comparisons than k
+     * separate contains() calls, and equal probes are answered once. An
+     * unsorted batch much smaller than the tree is spread too thinly for
+     * that to pay for sorting it, so it is answered with contains() calls.
+     * @param probes the values to look up, in any order, duplicates allowed
+     * @return a BitSet in which bit i is set if probes[i] is stored in the
+     * tree
+     * @throws NullPointerException if the array or any probe is null
+     */
+    @Override
+    public BitSet lookupBatch(T[] probes) throws NullPointerException {
+        BitSet found = new BitSet(probes.length);
+        Integer[] order = new Integer[probes.length];
+        boolean sorted = true;
+        for (int i = 0; i < probes.length; i++) {
+            if (probes[i] == null) {
+                throw new NullPointerException("Probe " + i + " is null");
+            }
+            order[i] = i;
+            sorted = sorted && (i == 0 || compare(probes[i - 1], probes[i]) <= 0);
+        }
+        if (!sorted && probes.length < this.size >> 7) {
+            return SortedCollection.super.lookupBatch(probes);
+        }
+        if (!sorted) {
+            Arrays.sort(order, (a, b) -> compare(probes[a], probes[b]));
+        }
+
+        // the last node visited by the previous search
+        BinaryTreeNode<T> finger = this.root;
+        T previous = null;
+        boolean previousFound = false;
+        for (int index : order) {
+            T probe = probes[index];
+            if (previous != null && compare(previous, probe) == 0) {
+                if (previousFound) found.set(index);
+                continue;
+            }
+            previous = probe;
+            if (finger == null) continue;
+            finger = fingerSearch(finger, probe);
+            previousFound = compare(probe, keyOf(probe), finger) == 0;
+            if (previousFound) found.set(index);
+        }
+        return found;
+    }
+
+    /**
+     * Searches for probe, starting at node, where the search for a smaller
+     * probe ended. Every value in node's subtree is above the ancestors from
+     * which the earlier search went right, and so is probe. So climbing only
+     * has to go on while probe is not below the nearest ancestor from which
+     * the search went left; below that point, searching down finds probe
+     * exactly where a search from the root would.
+     * @param node the node where the previous search ended
+     * @param probe the value to search for, not smaller than the last probe
+     * @return the node holding probe, or the last node visited if probe is
+     * not in the tree
+     */
+    private BinaryTreeNode<T> fingerSearch(BinaryTreeNode<T> node, T probe) {
+        long key = keyOf(probe);
+        while (node.parent() != null) {
+            BinaryTreeNode<T> parent = node.parent();
+            if (parent.childLeft() == node) {
+                int cmp = compare(probe, key, parent);
+                if (cmp < 0) break;
+                if (cmp == 0) return parent;
+            }
+            node = parent;
+        }
+        while (true) {
+            int cmp = compare(probe, key, node);
+            if (cmp == 0) return node;
+            BinaryTreeNode<T> next = cmp < 0 ? node.childLeft() : node.childRight();
+            if (next == null) return node;
+            node = next;
+        }
+    }
+
+    /**
+     * The same search as containsHelper, recording the nodes it visits and
+     * the time it takes in the tree's metrics.
+     * @param data the value being searched for
+     * @return true if data is found in the tree
+     */
+    private boolean containsInstrumented(T data) {
+        long start = System.nanoTime();
+        long key = keyOf(data);
+        int visited = 0;
+        BinaryTreeNode<T> current = this.root;
+        while (current != null) {
+            visited++;
+            int cmp = compare(data, key, current);
+            if (cmp == 0) break;
+            current = cmp < 0 ? current.childLeft() : current.childRight();
+        }
+        this.metrics.recordLookup(visited, current != null, System.nanoTime() - start);
+        return current != null;
+    }
+
+    /**
+     * Starts recording insert() and contains() calls and rotations into a
+     * new TreeMetrics. Until this is called, the instrumentation costs a
+     * single null check per operation.
+     * @return the metrics the tree now records into
+     */
+    public TreeMetrics enableMetrics() {
+        this.metrics = new TreeMetrics(this);
+        return this.metrics;
+    }
+
+    /**
+     * Stops recording metrics. Metrics returned by enableMetrics() keep the
+     * values recorded so far.
+     */
+    public void disableMetrics() {
+        this.metrics = null;
+    }
+
+    /**
+     * Records an insert that ended at depth in the tree's metrics, which must
+     * be enabled. Inserting a new node compares data with every node above
+     * it; counting a duplicate in an existing node also compares with that
+     * node.
+     * @param depth the depth of the node holding the inserted value
+     * @param created true if a new node was created for the value
+     * @param start the System.nanoTime() at which the insert started
+     */
+    protected void recordInsert(int depth, boolean created, long start) {
+        this.metrics.recordInsert(created ? depth - 1 : depth, depth, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the depth of node, the root being at depth 1
+     */
+    protected static int depthOf(BinaryTreeNode<?> node) {
+        int depth = 0;
+        for (; node != null; node = node.parent()) {
+            depth++;
+        }
+        return depth;
+    }
+
     /**
      * Counts the number of values in the collection, with each duplicate value
      * being counted separately within the value returned.
@@ -113,16 +732,110 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
      */
     @Override
     public int size() {
-        return sizeHelper(this.root);
+        return this.size;
     }
     /**
-     * Private helper for size method
-     * @param node
-     * @return
+     * Counts the values in the tree that are strictly less than data. Runs in
+     * time proportional to the height of the tree.
+     * @param data the value to rank
+     * @return the number of values less than data, which is also the index
+     * data has (or would have) in sorted order
+     * @throws NullPointerException if data is null
+     * @throws UnsupportedOperationException if this tree does not track
+     * subtree sizes
+     */
+    public int rank(T data) throws NullPointerException, UnsupportedOperationException {
+        if (data == null) {
+            throw new NullPointerException("Cannot rank null");
+        }
+        requireSubtreeSizes();
+        long key = keyOf(data);
+        int rank = 0;
+        BinaryTreeNode<T> current = this.root;
+        while (current != null) {
+            if (compare(data, key, current) <= 0) {
+                current = current.childLeft();
+            } else {
+                rank += subtreeSize(current.childLeft()) + current.count();
+                current = current.childRight();
+            }
+        }
+        return rank;
+    }
+    /**
+     * Finds the value at position index in sorted order, counting duplicates
+     * separately. Runs in time proportional to the height of the tree.
+     * @param index the zero-based position of the value to return
+     * @return the value that has exactly index values before it
+     * @throws IndexOutOfBoundsException if index is negative or not less
+     * than size()
+     * @throws UnsupportedOperationException if this tree does not track
+     * subtree sizes
+     */
+    public T select(int index) throws IndexOutOfBoundsException, UnsupportedOperationException {
+        requireSubtreeSizes();
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + this.size);
+        }
+        BinaryTreeNode<T> current = this.root;
+        while (true) {
+            int leftSize = subtreeSize(current.childLeft());
+            if (index < leftSize) {
+                current = current.childLeft();
+            } else if (index < leftSize + current.count()) {
+                return current.getData();
+            } else {
+                index -= leftSize + current.count();
+                current = current.childRight();
+            }
+        }
+    }
+    /**
+     * Private helper that rejects order-statistic queries on trees that do
+     * not track subtree sizes
+     */
+    private void requireSubtreeSizes() {
+        if (!this.trackSubtreeSizes) {
+            throw new UnsupportedOperationException("This tree does not track subtree sizes");
+        }
+    }
+    /**
+     * Recomputes the subtree sizes of node and all of its ancestors, after a
+     * change below node. Does nothing on trees that do not track sizes.
+     * @param node the lowest node whose subtree changed, may be null
      */
-    private int sizeHelper(BinaryTreeNode<T> node) {
-        if (node == null) return 0;
-        return (1 + sizeHelper(node.childLeft()) + sizeHelper(node.childRight()));
+    protected void updateSubtreeSizesFrom(BinaryTreeNode<T> node) {
+        if (!this.trackSubtreeSizes) return;
+        for (; node != null; node = node.parent()) {
+            node.updateSubtreeSize();
+        }
+    }
+    /**
+     * @return the subtree size of node, or 0 when node is null
+     */
+    protected static int subtreeSize(BinaryTreeNode<?> node) {
+        return node == null ? 0 : node.subtreeSize();
+    }
+    /**
+     * Computes the height of the tree: the number of nodes on the longest
+     * path from the root down to a leaf. Walks the tree level by level so
+     * that degenerate trees do not overflow the stack.
+     * @return the height of the tree, 0 for an empty tree
+     */
+    public int height() {
+        if (this.root == null) return 0;
+        Queue<BinaryTreeNode<T>> level = new ArrayDeque<>();
+        level.add(this.root);
+        int height = 0;
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                BinaryTreeNode<T> node = level.poll();
+                if (node.childLeft() != null) level.add(node.childLeft());
+                if (node.childRight() != null) level.add(node.childRight());
+            }
+        }
+        return height;
     }
     /**
      * Checks if the collection is empty.
@@ -133,11 +846,461 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         return this.root == null;
     }
     /**
-     * Removes all values and duplicates from the collection.
+     * Removes all values and duplicates from the collection. With the node
+     * pool enabled, the whole tree goes to the pool in O(1) time.
      */
     @Override
     public void clear() {
+        if (this.root != null) recycle(this.root);
         this.root = null;
+        this.size = 0;
+        this.modCount++;
+    }
+    /**
+     * Removes one occurrence of data from the tree. In a tree compressing
+     * duplicates this only decrements the count of the node holding data,
+     * until the last copy is removed.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not in the tree
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        BinaryTreeNode<T> node = findNode(data);
+        if (node == null) return false;
+        this.size--;
+        this.modCount++;
+        if (node.count() > 1) {
+            node.count--;
+            updateSubtreeSizesFrom(node);
+        } else {
+            removeNode(node);
+        }
+        return true;
+    }
+    /**
+     * Takes node out of the tree. A node with two children takes the value
+     * (and count) of its in-order successor, and the successor is removed in
+     * its place, so the node that is physically unlinked always has at most
+     * one child. Subclasses that rebalance override this method.
+     * @param node the node whose value is being removed
+     * @return the parent of the node that was physically unlinked, or null
+     * if that node was the root
+     */
+    protected BinaryTreeNode<T> removeNode(BinaryTreeNode<T> node) {
+        if (node.childLeft() != null && node.childRight() != null) {
+            BinaryTreeNode<T> successor = node.childRight();
+            while (successor.childLeft() != null) {
+                successor = successor.childLeft();
+            }
+            node.setData(successor.getData());
+            node.key = successor.key;
+            node.setCount(successor.count());
+            node = successor;
+        }
+        BinaryTreeNode<T> parent = node.parent();
+        replaceInParent(node, node.childLeft() != null ? node.childLeft() : node.childRight());
+        recycle(node);
+        updateSubtreeSizesFrom(parent);
+        return parent;
+    }
+    /**
+     * Replaces node with replacement in node's parent (or as the root), and
+     * detaches node from the tree.
+     * @param node the node being removed from its position
+     * @param replacement the node taking its place, may be null
+     */
+    protected void replaceInParent(BinaryTreeNode<T> node, BinaryTreeNode<T> replacement) {
+        BinaryTreeNode<T> parent = node.parent();
+        if (parent == null) {
+            this.root = replacement;
+        } else if (parent.childLeft() == node) {
+            parent.setChildLeft(replacement);
+        } else {
+            parent.setChildRight(replacement);
+        }
+        if (replacement != null) {
+            replacement.setParent(parent);
+        }
+        node.setParent(null);
+        node.setChildLeft(null);
+        node.setChildRight(null);
+    }
+    /**
+     * Finds a node holding data.
+     * @param data the value to search for
+     * @return a node whose value is equal to data, or null if there is none
+     */
+    protected BinaryTreeNode<T> findNode(T data) {
+        long key = keyOf(data);
+        BinaryTreeNode<T> current = this.root;
+        while (current != null) {
+            int cmp = compare(data, key, current);
+            if (cmp == 0) return current;
+            current = cmp < 0 ? current.childLeft() : current.childRight();
+        }
+        return null;
+    }
+    /**
+     * @return the smallest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public T min() {
+        return this.root == null ? null : leftmost(this.root).getData();
+    }
+    /**
+     * @return the largest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public T max() {
+        if (this.root == null) return null;
+        BinaryTreeNode<T> current = this.root;
+        while (current.childRight() != null) {
+            current = current.childRight();
+        }
+        return current.getData();
+    }
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return dataOf(floorNode(data, true));
+    }
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return dataOf(ceilingNode(data, true));
+    }
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return dataOf(floorNode(data, false));
+    }
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return dataOf(ceilingNode(data, false));
+    }
+    /**
+     * Finds the last node in sorted order whose value is below data (or equal
+     * to it, when inclusive).
+     * @param data the value to search for
+     * @param inclusive true to accept a node equal to data
+     * @return the matching node, or null if there is none
+     */
+    protected BinaryTreeNode<T> floorNode(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        long key = keyOf(data);
+        BinaryTreeNode<T> best = null;
+        BinaryTreeNode<T> current = this.root;
+        while (current != null) {
+            int cmp = compare(data, key, current);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                best = current;
+                current = current.childRight();
+            } else {
+                current = current.childLeft();
+            }
+        }
+        return best;
+    }
+    /**
+     * Finds the first node in sorted order whose value is above data (or
+     * equal to it, when inclusive).
+     * @param data the value to search for
+     * @param inclusive true to accept a node equal to data
+     * @return the matching node, or null if there is none
+     */
+    protected BinaryTreeNode<T> ceilingNode(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        long key = keyOf(data);
+        BinaryTreeNode<T> best = null;
+        BinaryTreeNode<T> current = this.root;
+        while (current != null) {
+            int cmp = compare(data, key, current);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                best = current;
+                current = current.childLeft();
+            } else {
+                current = current.childRight();
+            }
+        }
+        return best;
+    }
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. Each iteration starts with a
+     * single descent to the first value >= lo and then follows parent links
+     * to successive nodes, so it visits O(log n + k) nodes for k values.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (compare(lo, hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new InOrderIterator(ceilingNode(lo, true), hi);
+    }
+    /**
+     * Returns an iterator over the values in the tree in sorted order,
+     * duplicates included. The iterator follows parent links from node to
+     * node, so it uses O(1) extra memory.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator(this.root == null ? null : leftmost(this.root), null);
+    }
+    /**
+     * Returns a spliterator over the values in the tree in sorted order. It
+     * splits by handing off a subtree at a time, so parallel streams can
+     * traverse different parts of the tree on different cores.
+     * @return a sorted, ordered spliterator over all values
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new TreeSpliterator(this.root == null ? null : leftmost(this.root), null, 0, this.size);
+    }
+    /**
+     * @return a sequential stream of the values in sorted order; call
+     * parallel() on it to split the traversal across cores
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+    /**
+     * @return the leftmost (smallest) node in the subtree rooted at node
+     */
+    protected static <T> BinaryTreeNode<T> leftmost(BinaryTreeNode<T> node) {
+        while (node.childLeft() != null) {
+            node = node.childLeft();
+        }
+        return node;
+    }
+    /**
+     * Finds the node that follows node in sorted order, using parent links.
+     * @param node the node to start from
+     * @return the in-order successor of node, or null if node is the last
+     */
+    protected static <T> BinaryTreeNode<T> successor(BinaryTreeNode<T> node) {
+        if (node.childRight() != null) {
+            return leftmost(node.childRight());
+        }
+        while (node.isRightChild()) {
+            node = node.parent();
+        }
+        return node.parent();
+    }
+    /**
+     * @return the value of node, or null if node is null
+     */
+    private static <T> T dataOf(BinaryTreeNode<T> node) {
+        return node == null ? null : node.getData();
+    }
+
+    /**
+     * Iterates over the tree in sorted order by following parent links from
+     * node to node, using O(1) extra memory. A node whose count is above one
+     * produces its value that many times.
+     */
+    protected class InOrderIterator implements Iterator<T> {
+
+        // the node holding the next value, or null when done
+        private BinaryTreeNode<T> next;
+        // how many more times the value of next is produced
+        private int remaining;
+        // the largest value to produce, or null for no limit
+        private final T last;
+        // modCount of the tree when this iterator was created
+        private final int expectedModCount = BinarySearchTree.this.modCount;
+
+        /**
+         * @param first the node to start at, or null for an empty iteration
+         * @param last the largest value to produce, or null for no limit
+         */
+        protected InOrderIterator(BinaryTreeNode<T> first, T last) {
+            this.last = last;
+            this.next = inBounds(first) ? first : null;
+            this.remaining = this.next == null ? 0 : this.next.count();
+        }
+
+        private boolean inBounds(BinaryTreeNode<T> node) {
+            return node != null && (this.last == null || compare(node.getData(), this.last) <= 0);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != null;
+        }
+
+        @Override
+        public T next() {
+            if (this.next == null) {
+                throw new NoSuchElementException();
+            }
+            if (BinarySearchTree.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            T data = this.next.getData();
+            if (--this.remaining == 0) {
+                BinaryTreeNode<T> following = successor(this.next);
+                this.next = inBounds(following) ? following : null;
+                this.remaining = this.next == null ? 0 : this.next.count();
+            }
+            return data;
+        }
+    }
+
+    /**
+     * Spliterator over a stretch of the tree in sorted order, from the node
+     * current up to (but not including) the node fence. Splitting works the
+     * same way as in java.util.TreeMap: the first split hands off everything
+     * left of the root, and later splits hand off the part before the right
+     * child of the current node or the left child of the fence, so each half
+     * is a run of whole subtrees.
+     */
+    protected class TreeSpliterator implements Spliterator<T> {
+
+        // the node holding the next value, or null when done
+        private BinaryTreeNode<T> current;
+        // the first node not covered by this spliterator, or null for the end
+        private final BinaryTreeNode<T> fence;
+        // 0 before any split, -1 for a left half, 1 for a right half
+        private int side;
+        // estimated number of values left, exact while side is 0
+        private int estimate;
+        // how many more times the value of current is produced
+        private int remaining;
+        // modCount of the tree when this spliterator was created
+        private final int expectedModCount = BinarySearchTree.this.modCount;
+
+        /**
+         * @param current the first node covered, or null when empty
+         * @param fence the first node not covered, or null for the end
+         * @param side 0 for an unsplit spliterator, -1 or 1 for split halves
+         * @param estimate the estimated number of values covered
+         */
+        protected TreeSpliterator(BinaryTreeNode<T> current, BinaryTreeNode<T> fence, int side, int estimate) {
+            this.current = current;
+            this.fence = fence;
+            this.side = side;
+            this.estimate = estimate;
+            this.remaining = current == null ? 0 : current.count();
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            BinaryTreeNode<T> first = this.current;
+            // only split at node boundaries, not partway through a node's count
+            if (first == null || first == this.fence || this.remaining != first.count()) {
+                return null;
+            }
+            BinaryTreeNode<T> split =
+                this.side == 0 ? BinarySearchTree.this.root
+                : this.side > 0 ? first.childRight()
+                : this.fence != null ? this.fence.childLeft()
+                : null;
+            if (split == null || split == first || split == this.fence
+                || compare(first.getData(), first.key, split) >= 0) {
+                return null;
+            }
+            this.side = 1;
+            this.estimate >>>= 1;
+            this.current = split;
+            this.remaining = split.count();
+            return new TreeSpliterator(first, split, -1, this.estimate);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            if (this.current == null || this.current == this.fence) {
+                return false;
+            }
+            if (BinarySearchTree.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            T data = this.current.getData();
+            if (--this.remaining == 0) {
+                this.current = successor(this.current);
+                this.remaining = this.current == null ? 0 : this.current.count();
+            }
+            action.accept(data);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (action == null) {
+                throw new NullPointerException();
+            }
+            BinaryTreeNode<T> node = this.current;
+            int copies = this.remaining;
+            this.current = this.fence;
+            while (node != null && node != this.fence) {
+                T data = node.getData();
+                for (; copies > 0; copies--) {
+                    action.accept(data);
+                }
+                node = successor(node);
+                copies = node == null ? 0 : node.count();
+            }
+            if (BinarySearchTree.this.modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return (this.side == 0 ? Spliterator.SIZED : 0)
+                | Spliterator.ORDERED | Spliterator.SORTED | Spliterator.NONNULL;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            // null means the values are sorted in their natural order
+            return comparator();
+        }
     }
 
 
@@ -252,7 +1415,320 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 
         return true;
     }
-  
+
+    /**
+     * Test6 tests that size() is kept up to date and that rank() and select()
+     * work on a tree that tracks subtree sizes, including duplicates
+     * @return true if size(), rank(), and select() work
+     */
+    public boolean test6() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>(true);
+        int[] values = {50, 30, 70, 20, 40, 60, 80, 30, 30, 70};
+        for (int value : values) {
+            bst.insert(value);
+        }
+        if (bst.size() != values.length) return false;
+        if (bst.root.subtreeSize() != values.length) return false;
+
+        // sorted: 20 30 30 30 40 50 60 70 70 80
+        int[] sorted = {20, 30, 30, 30, 40, 50, 60, 70, 70, 80};
+        for (int i = 0; i < sorted.length; i++) {
+            if (bst.select(i) != sorted[i]) return false;
+        }
+        if (bst.rank(20) != 0 || bst.rank(30) != 1 || bst.rank(40) != 4) return false;
+        if (bst.rank(75) != 9 || bst.rank(100) != 10 || bst.rank(0) != 0) return false;
+
+        try {
+            bst.select(10);
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+
+        }
+
+        // rank() and select() are only available when sizes are tracked
+        BinarySearchTree<Integer> untracked = new BinarySearchTree<>();
+        untracked.insert(1);
+        try {
+            untracked.rank(1);
+            return false;
+        } catch (UnsupportedOperationException e) {
+
+        }
+        return untracked.size() == 1;
+    }
+
+    /**
+     * Test7 tests that a tree compressing duplicates counts them in a single
+     * node, while contains(), size(), rank(), and select() are unaffected
+     * @return true if duplicates are compressed correctly
+     */
+    public boolean test7() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>(true, true);
+        bst.insert(2);
+        bst.insert(1);
+        bst.insert(3);
+        bst.insert(3);
+        bst.insert(3);
+        bst.insert(1);
+
+        if (bst.size() != 6) return false; // duplicates are still counted
+        if (bst.root.childRight().count() != 3 || bst.root.childLeft().count() != 2) return false;
+        if (bst.root.childRight().childLeft() != null) return false; // no extra node for the duplicates
+        if (!bst.contains(1) || !bst.contains(3) || bst.contains(4)) return false;
+
+        // sorted: 1 1 2 3 3 3
+        if (bst.select(1) != 1 || bst.select(2) != 2 || bst.select(3) != 3 || bst.select(5) != 3) return false;
+        if (bst.rank(2) != 2 || bst.rank(3) != 3 || bst.rank(4) != 6) return false;
+        return true;
+    }
+
+    /**
+     * Test8 tests remove() on leaves, nodes with one child, nodes with two
+     * children, the root, duplicates, and missing values
+     * @return true if remove() works correctly
+     */
+    public boolean test8() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>(true);
+        int[] values = {50, 30, 70, 20, 40, 60, 80, 65};
+        for (int value : values) {
+            bst.insert(value);
+        }
+
+        if (!bst.remove(20)) return false; // leaf
+        if (bst.root.childLeft().childLeft() != null) return false;
+        if (!bst.remove(60)) return false; // one child: 65 moves up
+        if (bst.root.childRight().childLeft().getData() != 65) return false;
+        if (bst.root.childRight().childLeft().parent() != bst.root.childRight()) return false;
+        if (!bst.remove(50)) return false; // root with two children: successor 65 takes its place
+        if (bst.root.getData() != 65 || bst.root.childRight().childLeft() != null) return false;
+        if (bst.remove(50) || bst.contains(50)) return false; // already gone
+
+        if (bst.size() != 5 || bst.root.subtreeSize() != 5) return false;
+        if (!bst.root.toInOrderString().equals("[ 30, 40, 65, 70, 80 ]")) return false;
+
+        bst.insert(40);
+        if (!bst.remove(40) || !bst.contains(40) || !bst.remove(40) || bst.contains(40)) return false;
+        try {
+            bst.remove(null);
+            return false;
+        } catch (NullPointerException e) {
+
+        }
+        return bst.size() == 4;
+    }
+
+    /**
+     * Test9 tests min(), max(), floor(), ceiling(), lower(), higher(), and
+     * the lazy range() view
+     * @return true if the navigation queries return the correct values
+     */
+    public boolean test9() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        if (bst.min() != null || bst.max() != null || bst.floor(5) != null) return false;
+        int[] values = {50, 30, 70, 20, 40, 60, 80, 40};
+        for (int value : values) {
+            bst.insert(value);
+        }
+        if (bst.min() != 20 || bst.max() != 80) return false;
+        if (bst.floor(45) != 40 || bst.floor(40) != 40 || bst.floor(19) != null) return false;
+        if (bst.ceiling(45) != 50 || bst.ceiling(50) != 50 || bst.ceiling(81) != null) return false;
+        if (bst.lower(40) != 30 || bst.lower(20) != null) return false;
+        if (bst.higher(40) != 50 || bst.higher(80) != null) return false;
+
+        // the range view includes both ends and duplicates
+        StringBuilder sb = new StringBuilder();
+        for (int value : bst.range(35, 60)) {
+            sb.append(value).append(' ');
+        }
+        if (!sb.toString().equals("40 40 50 60 ")) return false;
+
+        // the view is lazy, so it sees values inserted after it was created
+        Iterable<Integer> view = bst.range(55, 65);
+        bst.insert(57);
+        Iterator<Integer> iterator = view.iterator();
+        if (iterator.next() != 57 || iterator.next() != 60 || iterator.hasNext()) return false;
+
+        if (bst.range(81, 90).iterator().hasNext()) return false;
+        try {
+            bst.range(60, 50);
+            return false;
+        } catch (IllegalArgumentException e) {
+
+        }
+        return true;
+    }
+
+    /**
+     * Test10 tests iterating over the tree in sorted order, both with a
+     * for-each loop and with sequential and parallel streams
+     * @return true if iteration produces every value in order
+     */
+    public boolean test10() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        if (bst.iterator().hasNext() || bst.stream().count() != 0) return false;
+
+        Random random = new Random(1);
+        long expectedSum = 0;
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt(50000);
+            bst.insert(value);
+            expectedSum += value;
+        }
+        int count = 0;
+        Integer previous = null;
+        for (int value : bst) {
+            if (previous != null && previous > value) return false;
+            previous = value;
+            count++;
+        }
+        if (count != bst.size()) return false;
+
+        if (bst.stream().mapToLong(Integer::longValue).sum() != expectedSum) return false;
+        if (bst.stream().parallel().mapToLong(Integer::longValue).sum() != expectedSum) return false;
+        if (bst.stream().parallel().count() != bst.size()) return false;
+        if (!bst.stream().parallel().sorted().collect(Collectors.toList())
+            .equals(bst.stream().collect(Collectors.toList()))) return false;
+
+        // the spliterator splits into non-empty halves that cover every value
+        Spliterator<Integer> right = bst.spliterator();
+        Spliterator<Integer> left = right.trySplit();
+        if (left == null) return false;
+        long[] counts = new long[2];
+        left.forEachRemaining(v -> counts[0]++);
+        right.forEachRemaining(v -> counts[1]++);
+        if (counts[0] == 0 || counts[1] == 0 || counts[0] + counts[1] != bst.size()) return false;
+
+        // changing the tree while iterating is detected
+        Iterator<Integer> iterator = bst.iterator();
+        iterator.next();
+        bst.insert(7);
+        try {
+            iterator.next();
+            return false;
+        } catch (ConcurrentModificationException e) {
+
+        }
+        return true;
+    }
+
+    /**
+     * Test11 tests building a tree from sorted values with fromSorted() and
+     * merging an unsorted batch into it with insertAll()
+     * @return true if the bulk operations build minimum-height trees
+     */
+    public boolean test11() {
+        Integer[] sorted = {1, 2, 3, 4, 5, 6, 7};
+        BinarySearchTree<Integer> bst = BinarySearchTree.fromSorted(sorted);
+        if (bst.root.getData() != 4 || bst.height() != 3 || bst.size() != 7) return false;
+        if (bst.root.childLeft().getData() != 2 || bst.root.childLeft().parent() != bst.root) return false;
+        if (bst.root.childRight().childRight().getData() != 7) return false;
+
+        bst.insertAll(Arrays.asList(10, 0, 8, 9, 4, 11, 12, 13));
+        if (bst.size() != 15 || bst.height() != 4) return false;
+        if (!bst.root.toInOrderString().equals("[ 0, 1, 2, 3, 4, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 ]")) return false;
+        if (bst.root.getData() != 6) return false;
+
+        // invalid input leaves the tree untouched
+        try {
+            bst.loadSorted(Arrays.asList(1, 2).iterator(), 3);
+            return false;
+        } catch (IllegalArgumentException e) {
+
+        }
+        return bst.size() == 15 && bst.contains(13);
+    }
+
+    /**
+     * Test12 compares lookupBatch() with one contains() call per probe, on an
+     * unbalanced tree and on a red-black tree whose rotations can move equal
+     * values to either side of each other
+     * @return true if every bit matches the corresponding contains() result
+     */
+    public boolean test12() {
+        Random random = new Random(16);
+        List<BinarySearchTree<Integer>> trees = List.of(new BinarySearchTree<>(), new RedBlackTree<>());
+        for (BinarySearchTree<Integer> tree : trees) {
+            if (!tree.lookupBatch(new Integer[] {1, 2}).isEmpty()) return false;
+            for (int i = 0; i < 3000; i++) {
+                tree.insert(random.nextInt(2000));
+            }
+            for (int batch = 0; batch < 50; batch++) {
+                Integer[] probes = new Integer[random.nextInt(500)];
+                for (int i = 0; i < probes.length; i++) {
+                    probes[i] = random.nextInt(2200) - 100;
+                }
+                if (batch % 2 == 0) Arrays.sort(probes);
+                BitSet found = tree.lookupBatch(probes);
+                for (int i = 0; i < probes.length; i++) {
+                    if (found.get(i) != tree.contains(probes[i])) return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Test13 fills and clears pooled trees of every kind over and over,
+     * removing some values in between, and checks that each fill reuses the
+     * nodes of the last one and still produces a valid tree
+     * @return true if pooled trees hold the same values as unpooled ones
+     */
+    public boolean test13() {
+        Random random = new Random(13);
+        List<BinarySearchTree<Integer>> trees = List.of(new BinarySearchTree<>(true, false),
+            new RedBlackTree<>(true, false), new AVLTree<>(true, true), new SplayTree<>());
+        for (BinarySearchTree<Integer> tree : trees) {
+            tree.enableNodePool();
+            Set<BinaryTreeNode<Integer>> firstNodes = null;
+            for (int round = 0; round < 5; round++) {
+                List<Integer> expected = new ArrayList<>();
+                for (int i = 0; i < 2000; i++) {
+                    int value = random.nextInt(1000);
+                    tree.insert(value);
+                    expected.add(value);
+                }
+                for (int i = 0; i < 500; i++) {
+                    Integer value = expected.get(random.nextInt(expected.size()));
+                    if (!tree.remove(value)) return false;
+                    expected.remove(value);
+                }
+                // the removed nodes are reused right away
+                for (int i = 0; i < 500; i++) {
+                    tree.insert(i);
+                    expected.add(i);
+                }
+                if (tree instanceof RedBlackTree) ((RedBlackTree<Integer>) tree).validate();
+                if (tree instanceof AVLTree) ((AVLTree<Integer>) tree).validate();
+                expected.sort(null);
+                List<Integer> actual = new ArrayList<>();
+                tree.forEach(actual::add);
+                if (!actual.equals(expected)) return false;
+                if (tree.trackSubtreeSizes && (!tree.select(0).equals(expected.get(0))
+                    || tree.rank(expected.get(1000)) != expected.indexOf(expected.get(1000)))) return false;
+                Set<BinaryTreeNode<Integer>> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+                collectNodes(tree.root, nodes);
+                // after the first round, no node is new
+                if (firstNodes == null) {
+                    firstNodes = nodes;
+                } else if (!firstNodes.containsAll(nodes)) {
+                    return false;
+                }
+                tree.clear();
+            }
+            tree.disableNodePool();
+            tree.insert(1);
+            if (firstNodes.contains(tree.root) || tree.size() != 1) return false;
+        }
+        return true;
+    }
+
+    private static <T> void collectNodes(BinaryTreeNode<T> node, Set<BinaryTreeNode<T>> nodes) {
+        if (node == null) return;
+        nodes.add(node);
+        collectNodes(node.childLeft(), nodes);
+        collectNodes(node.childRight(), nodes);
+    }
+
   public static void main(String[] args) {
     BinarySearchTree<Integer> faceOfTheOperation = new BinarySearchTree<>();
     
@@ -261,12 +1737,28 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
     boolean check3 = faceOfTheOperation.test3();
     boolean check4 = faceOfTheOperation.test4();
     boolean check5 = faceOfTheOperation.test5();
+    boolean check6 = faceOfTheOperation.test6();
+    boolean check7 = faceOfTheOperation.test7();
+    boolean check8 = faceOfTheOperation.test8();
+    boolean check9 = faceOfTheOperation.test9();
+    boolean check10 = faceOfTheOperation.test10();
+    boolean check11 = faceOfTheOperation.test11();
+    boolean check12 = faceOfTheOperation.test12();
+    boolean check13 = faceOfTheOperation.test13();
 
     System.out.println("Check1 " + (check1 ? "Passed" : "FAILED"));
     System.out.println("Check2 " + (check2 ? "Passed" : "FAILED"));
     System.out.println("Check3 " + (check3 ? "Passed" : "FAILED"));
     System.out.println("Check4 " + (check4 ? "Passed" : "FAILED"));
     System.out.println("Check5 " + (check5 ? "Passed" : "FAILED"));
+    System.out.println("Check6 " + (check6 ? "Passed" : "FAILED"));
+    System.out.println("Check7 " + (check7 ? "Passed" : "FAILED"));
+    System.out.println("Check8 " + (check8 ? "Passed" : "FAILED"));
+    System.out.println("Check9 " + (check9 ? "Passed" : "FAILED"));
+    System.out.println("Check10 " + (check10 ? "Passed" : "FAILED"));
+    System.out.println("Check11 " + (check11 ? "Passed" : "FAILED"));
+    System.out.println("Check12 " + (check12 ? "Passed" : "FAILED"));
+    System.out.println("Check13 " + (check13 ? "Passed" : "FAILED"));
   }
 
   
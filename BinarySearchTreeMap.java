@@ -0,0 +1,1031 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A sorted map stored in a red-black tree whose nodes carry the value of
+ * their key, so finding a key also finds its value, without a second lookup
+ * in a separate map. put(), remove(), putIfAbsent(), compute(),
+ * computeIfAbsent(), computeIfPresent() and merge() all walk down the tree
+ * once, and then update, attach or unlink the entry where that walk ended.
+ *
+ * The keys are ordered by their natural order, a Comparator, or a long key
+ * extracted from them, as in the trees of the SortedCollection family. Null
+ * keys are not allowed, null values are.
+ *
+ * headMap(), tailMap() and subMap() return live views of a range of keys.
+ * A view holds no entries of its own: it checks each key against its bounds
+ * and searches the map itself, so changes made through a view show up in
+ * the map and the other way around. Iterating over a view starts with a
+ * single descent to its first entry and then follows parent links, so it
+ * costs O(log n + k) for k entries. Like those of java.util.TreeMap, the
+ * iterators fail fast when the map is changed other than through them.
+ */
+public class BinarySearchTreeMap<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+
+    /**
+     * A node of the map's tree: a red-black tree node holding a key, which
+     * also holds the value mapped to that key.
+     */
+    protected static final class EntryNode<K, V> extends RedBlackTree.RBTNode<K> implements Map.Entry<K, V> {
+
+        // the value mapped to the key of this entry
+        protected V value;
+
+        /**
+         * Creates a new red entry mapping key to null.
+         * @param key the key of the new entry
+         */
+        public EntryNode(K key) { super(key); }
+
+        @Override
+        protected void reset(K key) {
+            super.reset(key);
+            this.value = null;
+        }
+
+        @Override
+        public K getKey() { return getData(); }
+
+        @Override
+        public V getValue() { return this.value; }
+
+        @Override
+        public V setValue(V value) {
+            V old = this.value;
+            this.value = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return Objects.equals(getKey(), entry.getKey()) && Objects.equals(this.value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(getKey()) ^ Objects.hashCode(this.value);
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + this.value;
+        }
+    }
+
+    /**
+     * The red-black tree holding the entries. Each distinct key is stored in
+     * a single entry.
+     */
+    protected static final class EntryTree<K, V> extends RedBlackTree<K> {
+
+        protected EntryTree(Comparator<? super K> comparator) {
+            super(false, false, comparator);
+        }
+
+        protected EntryTree(ToLongFunction<? super K> keyExtractor) {
+            super(false, false, keyExtractor);
+        }
+
+        /**
+         * Creates a new entry holding key, mapped to null.
+         * @param key the key of the new entry
+         * @return a new EntryNode holding key
+         */
+        @Override
+        protected BinaryTreeNode<K> newNode(K key) {
+            return new EntryNode<K, V>(key);
+        }
+
+        /**
+         * Unlinks node as RedBlackTree does. When node has two children it
+         * takes over the key of its successor, and so it has to take over
+         * the successor's value as well.
+         * @param node the entry being removed
+         * @return the parent of the node that was physically unlinked, or
+         * null if that node was the root
+         */
+        @Override
+        protected BinaryTreeNode<K> removeNode(BinaryTreeNode<K> node) {
+            if (node.childLeft() != null && node.childRight() != null) {
+                EntryNode<K, V> successor = entry(leftmost(node.childRight()));
+                BinarySearchTreeMap.<K, V>entry(node).value = successor.value;
+            }
+            return super.removeNode(node);
+        }
+
+        /**
+         * Walks down from the root towards key, which has the extracted key
+         * keyOf(key).
+         * @return the entry holding key, or else the entry below which an
+         * entry for key belongs, or null if the tree is empty
+         */
+        protected EntryNode<K, V> search(K key, long extracted) {
+            BinaryTreeNode<K> last = null;
+            BinaryTreeNode<K> current = this.root;
+            while (current != null) {
+                last = current;
+                int cmp = compare(key, extracted, current);
+                if (cmp == 0) break;
+                current = cmp < 0 ? current.childLeft() : current.childRight();
+            }
+            return entry(last);
+        }
+
+        /**
+         * @return the entry holding key, or null if there is none
+         * @throws NullPointerException if key is null
+         * @throws ClassCastException if key cannot be compared with the keys
+         * in the tree
+         */
+        @SuppressWarnings("unchecked")
+        protected EntryNode<K, V> getEntry(Object key) throws NullPointerException, ClassCastException {
+            if (key == null) {
+                throw new NullPointerException("Map keys cannot be null");
+            }
+            return entry(findNode((K) key));
+        }
+
+        /**
+         * Attaches a new entry mapping key to value below parent, which is
+         * where search() for key ended, and rebalances the tree.
+         * @param cmp the result of comparing key with parent's key
+         * @return the new entry
+         */
+        protected EntryNode<K, V> attach(K key, V value, EntryNode<K, V> parent, int cmp) {
+            EntryNode<K, V> entry = entry(createNode(key));
+            entry.value = value;
+            if (parent == null) {
+                this.root = entry;
+            } else if (cmp < 0) {
+                parent.setChildLeft(entry);
+            } else {
+                parent.setChildRight(entry);
+            }
+            entry.setParent(parent);
+            enforceRBTreePropertiesAfterInsert(entry);
+            this.size++;
+            this.modCount++;
+            return entry;
+        }
+
+        /**
+         * Removes entry from the tree.
+         * @param entry an entry of this tree
+         */
+        protected void delete(EntryNode<K, V> entry) {
+            this.size--;
+            this.modCount++;
+            removeNode(entry);
+        }
+
+        /**
+         * @return the entry with the smallest key, or null if the tree is empty
+         */
+        protected EntryNode<K, V> first() {
+            return this.root == null ? null : entry(leftmost(this.root));
+        }
+
+        /**
+         * @return the entry with the largest key, or null if the tree is empty
+         */
+        protected EntryNode<K, V> last() {
+            BinaryTreeNode<K> current = this.root;
+            while (current != null && current.childRight() != null) {
+                current = current.childRight();
+            }
+            return entry(current);
+        }
+    }
+
+    // the entries of the map, ordered by key
+    protected final EntryTree<K, V> tree;
+
+    // the view of the whole map, through which it is iterated
+    private final SubMap all;
+
+    /**
+     * Creates an empty map ordered by the natural order of its keys.
+     */
+    public BinarySearchTreeMap() {
+        this((Comparator<? super K>) null);
+    }
+
+    /**
+     * Creates an empty map ordered by comparator.
+     * @param comparator the order of the keys, or null for natural order
+     */
+    public BinarySearchTreeMap(Comparator<? super K> comparator) {
+        this.tree = new EntryTree<>(comparator);
+        this.all = new SubMap(true, null, true, null);
+    }
+
+    /**
+     * Creates an empty map ordered by the long key keyExtractor extracts
+     * from its keys, which every entry caches. Keys with equal extracted
+     * keys are the same key of the map.
+     * @param keyExtractor extracts the long the keys are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public BinarySearchTreeMap(ToLongFunction<? super K> keyExtractor) throws NullPointerException {
+        this.tree = new EntryTree<>(keyExtractor);
+        this.all = new SubMap(true, null, true, null);
+    }
+
+    /**
+     * Creates a map holding the mappings of map, ordered by the natural
+     * order of its keys.
+     * @param map the mappings to copy
+     * @throws NullPointerException if map or any of its keys is null
+     */
+    public BinarySearchTreeMap(Map<? extends K, ? extends V> map) throws NullPointerException {
+        this();
+        putAll(map);
+    }
+
+    /**
+     * Creates a map holding the mappings of map, in the same order.
+     * @param map the mappings to copy
+     * @throws NullPointerException if map is null
+     */
+    public BinarySearchTreeMap(SortedMap<K, ? extends V> map) throws NullPointerException {
+        this(map.comparator());
+        putAll(map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> EntryNode<K, V> entry(BinaryTreeNode<K> node) {
+        return (EntryNode<K, V>) node;
+    }
+
+    private static void requireKey(Object key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException("Map keys cannot be null");
+        }
+    }
+
+    /**
+     * Fails when a function passed to compute() or merge() changed the map.
+     */
+    private void checkModCount(int expected) throws ConcurrentModificationException {
+        if (this.tree.modCount != expected) {
+            throw new ConcurrentModificationException("The map was changed by the remapping function");
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.tree.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.tree.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        this.tree.clear();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return this.tree.getEntry(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        EntryNode<K, V> entry = this.tree.getEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Maps key to value, replacing the value key was mapped to before.
+     * @param key the key to map
+     * @param value the new value of key, may be null
+     * @return the previous value of key, or null if it had none
+     * @throws NullPointerException if key is null
+     */
+    @Override
+    public V put(K key, V value) throws NullPointerException {
+        requireKey(key);
+        long extracted = this.tree.keyOf(key);
+        EntryNode<K, V> entry = this.tree.search(key, extracted);
+        int cmp = entry == null ? -1 : this.tree.compare(key, extracted, entry);
+        if (cmp == 0) {
+            return entry.setValue(value);
+        }
+        this.tree.attach(key, value, entry, cmp);
+        return null;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) throws NullPointerException {
+        requireKey(key);
+        long extracted = this.tree.keyOf(key);
+        EntryNode<K, V> entry = this.tree.search(key, extracted);
+        int cmp = entry == null ? -1 : this.tree.compare(key, extracted, entry);
+        if (cmp != 0) {
+            this.tree.attach(key, value, entry, cmp);
+            return null;
+        }
+        if (entry.value == null) {
+            entry.value = value;
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        EntryNode<K, V> entry = this.tree.getEntry(key);
+        if (entry == null) return null;
+        V old = entry.value;
+        this.tree.delete(entry);
+        return old;
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping)
+        throws NullPointerException, ConcurrentModificationException {
+        requireKey(key);
+        if (remapping == null) {
+            throw new NullPointerException("Remapping function cannot be null");
+        }
+        long extracted = this.tree.keyOf(key);
+        EntryNode<K, V> entry = this.tree.search(key, extracted);
+        int cmp = entry == null ? -1 : this.tree.compare(key, extracted, entry);
+        int modCount = this.tree.modCount;
+        V value = remapping.apply(key, cmp == 0 ? entry.value : null);
+        checkModCount(modCount);
+        if (cmp == 0) {
+            if (value == null) {
+                this.tree.delete(entry);
+            } else {
+                entry.value = value;
+            }
+        } else if (value != null) {
+            this.tree.attach(key, value, entry, cmp);
+        }
+        return value;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping)
+        throws NullPointerException, ConcurrentModificationException {
+        requireKey(key);
+        if (mapping == null) {
+            throw new NullPointerException("Mapping function cannot be null");
+        }
+        long extracted = this.tree.keyOf(key);
+        EntryNode<K, V> entry = this.tree.search(key, extracted);
+        int cmp = entry == null ? -1 : this.tree.compare(key, extracted, entry);
+        if (cmp == 0 && entry.value != null) {
+            return entry.value;
+        }
+        int modCount = this.tree.modCount;
+        V value = mapping.apply(key);
+        checkModCount(modCount);
+        if (value != null) {
+            if (cmp == 0) {
+                entry.value = value;
+            } else {
+                this.tree.attach(key, value, entry, cmp);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping)
+        throws NullPointerException, ConcurrentModificationException {
+        if (remapping == null) {
+            throw new NullPointerException("Remapping function cannot be null");
+        }
+        EntryNode<K, V> entry = this.tree.getEntry(key);
+        if (entry == null || entry.value == null) {
+            return null;
+        }
+        int modCount = this.tree.modCount;
+        V value = remapping.apply(key, entry.value);
+        checkModCount(modCount);
+        if (value == null) {
+            this.tree.delete(entry);
+        } else {
+            entry.value = value;
+        }
+        return value;
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping)
+        throws NullPointerException, ConcurrentModificationException {
+        requireKey(key);
+        if (value == null || remapping == null) {
+            throw new NullPointerException("Value and remapping function cannot be null");
+        }
+        long extracted = this.tree.keyOf(key);
+        EntryNode<K, V> entry = this.tree.search(key, extracted);
+        int cmp = entry == null ? -1 : this.tree.compare(key, extracted, entry);
+        if (cmp != 0) {
+            this.tree.attach(key, value, entry, cmp);
+            return value;
+        }
+        if (entry.value != null) {
+            int modCount = this.tree.modCount;
+            value = remapping.apply(entry.value, value);
+            checkModCount(modCount);
+        }
+        if (value == null) {
+            this.tree.delete(entry);
+        } else {
+            entry.value = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return the order of the keys, or null if they are in their natural
+     * order
+     */
+    @Override
+    public Comparator<? super K> comparator() {
+        return this.tree.comparator();
+    }
+
+    @Override
+    public K firstKey() throws NoSuchElementException {
+        return this.all.firstKey();
+    }
+
+    @Override
+    public K lastKey() throws NoSuchElementException {
+        return this.all.lastKey();
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey) throws NullPointerException {
+        return this.all.headMap(toKey);
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey) throws NullPointerException {
+        return this.all.tailMap(fromKey);
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey) throws NullPointerException, IllegalArgumentException {
+        return this.all.subMap(fromKey, toKey);
+    }
+
+    /**
+     * @return a live view of the mappings in order of their keys; its
+     * entries are the map's own, and setValue() on them changes the map
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return this.all.entrySet();
+    }
+
+    /**
+     * A live view of the keys from fromKey (inclusive) to toKey (exclusive),
+     * where either end may be open.
+     */
+    private class SubMap extends AbstractMap<K, V> implements SortedMap<K, V> {
+
+        // true when the view has no lower bound
+        private final boolean fromStart;
+        // the smallest key in the view, unless fromStart
+        private final K fromKey;
+        // true when the view has no upper bound
+        private final boolean toEnd;
+        // the first key above the view, unless toEnd
+        private final K toKey;
+        // the extracted key of toKey, which iterators compare entries with
+        private final long toExtracted;
+        // the entry set, created when first asked for
+        private Set<Map.Entry<K, V>> entrySet;
+
+        SubMap(boolean fromStart, K fromKey, boolean toEnd, K toKey)
+            throws NullPointerException, IllegalArgumentException {
+            if ((!fromStart && fromKey == null) || (!toEnd && toKey == null)) {
+                throw new NullPointerException("Range bounds cannot be null");
+            }
+            if (!fromStart && !toEnd && tree.compare(fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("Range start " + fromKey + " is after range end " + toKey);
+            }
+            this.fromStart = fromStart;
+            this.fromKey = fromKey;
+            this.toEnd = toEnd;
+            this.toKey = toKey;
+            this.toExtracted = toEnd ? 0 : tree.keyOf(toKey);
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean tooLow(Object key) {
+            return !this.fromStart && tree.compare((K) key, this.fromKey) < 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean tooHigh(Object key) {
+            return !this.toEnd && tree.compare((K) key, this.toKey) >= 0;
+        }
+
+        private boolean inRange(Object key) {
+            requireKey(key);
+            return !tooLow(key) && !tooHigh(key);
+        }
+
+        /**
+         * @return whether key may bound a view of this view: it must be in
+         * range, or equal to toKey
+         */
+        private boolean inClosedRange(K key) {
+            requireKey(key);
+            return !tooLow(key) && (this.toEnd || tree.compare(key, this.toKey) <= 0);
+        }
+
+        /**
+         * @return whether entry is below toKey, not checking the lower bound
+         */
+        private boolean belowEnd(EntryNode<K, V> entry) {
+            return entry != null && (this.toEnd || tree.compare(this.toKey, this.toExtracted, entry) > 0);
+        }
+
+        /**
+         * @return the first entry in the view, or null if it is empty
+         */
+        private EntryNode<K, V> first() {
+            EntryNode<K, V> entry = this.fromStart ? tree.first() : entry(tree.ceilingNode(this.fromKey, true));
+            return belowEnd(entry) ? entry : null;
+        }
+
+        /**
+         * @return the last entry in the view, or null if it is empty
+         */
+        private EntryNode<K, V> last() {
+            EntryNode<K, V> entry = this.toEnd ? tree.last() : entry(tree.floorNode(this.toKey, false));
+            return entry == null || tooLow(entry.getKey()) ? null : entry;
+        }
+
+        private void checkRange(K key) throws IllegalArgumentException {
+            if (!inRange(key)) {
+                throw new IllegalArgumentException("Key " + key + " is out of the range of the view");
+            }
+        }
+
+        @Override
+        public int size() {
+            if (this.fromStart && this.toEnd) return tree.size();
+            int size = 0;
+            for (EntryNode<K, V> entry = first(); belowEnd(entry); entry = entry(BinarySearchTree.successor(entry))) {
+                size++;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return first() == null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return inRange(key) && BinarySearchTreeMap.this.containsKey(key);
+        }
+
+        @Override
+        public V get(Object key) {
+            return inRange(key) ? BinarySearchTreeMap.this.get(key) : null;
+        }
+
+        @Override
+        public V put(K key, V value) throws NullPointerException, IllegalArgumentException {
+            checkRange(key);
+            return BinarySearchTreeMap.this.put(key, value);
+        }
+
+        @Override
+        public V putIfAbsent(K key, V value) throws NullPointerException, IllegalArgumentException {
+            checkRange(key);
+            return BinarySearchTreeMap.this.putIfAbsent(key, value);
+        }
+
+        @Override
+        public V remove(Object key) {
+            return inRange(key) ? BinarySearchTreeMap.this.remove(key) : null;
+        }
+
+        @Override
+        public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping)
+            throws NullPointerException, IllegalArgumentException {
+            checkRange(key);
+            return BinarySearchTreeMap.this.compute(key, remapping);
+        }
+
+        @Override
+        public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping)
+            throws NullPointerException, IllegalArgumentException {
+            checkRange(key);
+            return BinarySearchTreeMap.this.computeIfAbsent(key, mapping);
+        }
+
+        @Override
+        public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+            return inRange(key) ? BinarySearchTreeMap.this.computeIfPresent(key, remapping) : null;
+        }
+
+        @Override
+        public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remapping)
+            throws NullPointerException, IllegalArgumentException {
+            checkRange(key);
+            return BinarySearchTreeMap.this.merge(key, value, remapping);
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return BinarySearchTreeMap.this.comparator();
+        }
+
+        @Override
+        public K firstKey() throws NoSuchElementException {
+            EntryNode<K, V> entry = first();
+            if (entry == null) {
+                throw new NoSuchElementException("The map is empty");
+            }
+            return entry.getKey();
+        }
+
+        @Override
+        public K lastKey() throws NoSuchElementException {
+            EntryNode<K, V> entry = last();
+            if (entry == null) {
+                throw new NoSuchElementException("The map is empty");
+            }
+            return entry.getKey();
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) throws NullPointerException, IllegalArgumentException {
+            if (!inClosedRange(toKey)) {
+                throw new IllegalArgumentException("Key " + toKey + " is out of the range of the view");
+            }
+            return new SubMap(this.fromStart, this.fromKey, false, toKey);
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) throws NullPointerException, IllegalArgumentException {
+            if (!inClosedRange(fromKey)) {
+                throw new IllegalArgumentException("Key " + fromKey + " is out of the range of the view");
+            }
+            return new SubMap(false, fromKey, this.toEnd, this.toKey);
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) throws NullPointerException, IllegalArgumentException {
+            if (!inClosedRange(fromKey) || !inClosedRange(toKey)) {
+                throw new IllegalArgumentException("Range " + fromKey + " to " + toKey + " is out of the range of the view");
+            }
+            return new SubMap(false, fromKey, false, toKey);
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            if (this.entrySet == null) {
+                this.entrySet = new EntrySet();
+            }
+            return this.entrySet;
+        }
+
+        /**
+         * The mappings of the view, backed by the tree.
+         */
+        private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator(first());
+            }
+
+            @Override
+            public int size() {
+                return SubMap.this.size();
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return SubMap.this.isEmpty();
+            }
+
+            /**
+             * @return the entry of the map equal to o, or null if there is none
+             */
+            private EntryNode<K, V> find(Object o) {
+                if (!(o instanceof Map.Entry)) return null;
+                Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+                if (other.getKey() == null || !inRange(other.getKey())) return null;
+                EntryNode<K, V> entry = tree.getEntry(other.getKey());
+                return entry != null && Objects.equals(entry.value, other.getValue()) ? entry : null;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return find(o) != null;
+            }
+
+            @Override
+            public boolean remove(Object o) {
+                EntryNode<K, V> entry = find(o);
+                if (entry == null) return false;
+                tree.delete(entry);
+                return true;
+            }
+
+            @Override
+            public void clear() {
+                if (SubMap.this.fromStart && SubMap.this.toEnd) {
+                    tree.clear();
+                } else {
+                    super.clear();
+                }
+            }
+        }
+
+        /**
+         * Iterates over the entries of the view in order, following parent
+         * links from each entry to its successor.
+         */
+        private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+            // the entry to return next, or null when done
+            private EntryNode<K, V> next;
+            // the entry returned last, or null if it was removed
+            private EntryNode<K, V> lastReturned;
+            // modCount of the tree when this iterator last changed it
+            private int expectedModCount = tree.modCount;
+
+            EntryIterator(EntryNode<K, V> first) {
+                this.next = first;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return this.next != null;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() throws NoSuchElementException, ConcurrentModificationException {
+                if (this.next == null) {
+                    throw new NoSuchElementException();
+                }
+                if (tree.modCount != this.expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                this.lastReturned = this.next;
+                EntryNode<K, V> following = entry(BinarySearchTree.successor(this.next));
+                this.next = belowEnd(following) ? following : null;
+                return this.lastReturned;
+            }
+
+            @Override
+            public void remove() throws IllegalStateException, ConcurrentModificationException {
+                if (this.lastReturned == null) {
+                    throw new IllegalStateException();
+                }
+                if (tree.modCount != this.expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                // an entry with two children takes over its successor's
+                // mapping, so that successor is now found in its place
+                if (this.next != null && this.lastReturned.childLeft() != null
+                    && this.lastReturned.childRight() != null) {
+                    this.next = this.lastReturned;
+                }
+                tree.delete(this.lastReturned);
+                this.expectedModCount = tree.modCount;
+                this.lastReturned = null;
+            }
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 applies a random mix of map operations to a BinarySearchTreeMap
+     * and a TreeMap, and compares their results and contents
+     * @return true if both maps agree after every operation
+     */
+    public boolean test1() {
+        BinarySearchTreeMap<Integer, Integer> map = new BinarySearchTreeMap<>();
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            Integer key = random.nextInt(500);
+            Integer value = random.nextInt(10);
+            Integer nullIfZero = value == 0 ? null : value;
+            Object result;
+            Object expectedResult;
+            switch (random.nextInt(9)) {
+                case 0:
+                    result = map.put(key, value);
+                    expectedResult = expected.put(key, value);
+                    break;
+                case 1:
+                    result = map.remove(key);
+                    expectedResult = expected.remove(key);
+                    break;
+                case 2:
+                    result = map.get(key);
+                    expectedResult = expected.get(key);
+                    break;
+                case 3:
+                    result = map.compute(key, (k, v) -> v == null ? nullIfZero : v + value == 5 ? null : v + value);
+                    expectedResult = expected.compute(key, (k, v) -> v == null ? nullIfZero : v + value == 5 ? null : v + value);
+                    break;
+                case 4:
+                    result = map.computeIfAbsent(key, k -> nullIfZero);
+                    expectedResult = expected.computeIfAbsent(key, k -> nullIfZero);
+                    break;
+                case 5:
+                    result = map.computeIfPresent(key, (k, v) -> v > 5 ? null : v + value);
+                    expectedResult = expected.computeIfPresent(key, (k, v) -> v > 5 ? null : v + value);
+                    break;
+                case 6:
+                    result = map.merge(key, value, (a, b) -> a + b > 12 ? null : a + b);
+                    expectedResult = expected.merge(key, value, (a, b) -> a + b > 12 ? null : a + b);
+                    break;
+                case 7:
+                    result = map.putIfAbsent(key, value);
+                    expectedResult = expected.putIfAbsent(key, value);
+                    break;
+                default:
+                    result = map.containsKey(key);
+                    expectedResult = expected.containsKey(key);
+            }
+            if (!Objects.equals(result, expectedResult)) return false;
+            if (i % 1000 == 0) {
+                map.tree.validate();
+                if (!map.equals(expected) || !expected.equals(map)) return false;
+            }
+        }
+        map.tree.validate();
+        if (!map.equals(expected) || map.hashCode() != expected.hashCode()) return false;
+        if (!map.firstKey().equals(expected.firstKey()) || !map.lastKey().equals(expected.lastKey())) return false;
+        if (!map.toString().equals(expected.toString())) return false;
+        // a remapping function may not change the map
+        try {
+            map.computeIfAbsent(-1, k -> map.put(-2, 0));
+            return false;
+        } catch (ConcurrentModificationException e) {
+
+        }
+        map.clear();
+        try {
+            map.firstKey();
+            return false;
+        } catch (NoSuchElementException e) {
+
+        }
+        try {
+            map.put(null, 1);
+            return false;
+        } catch (NullPointerException e) {
+
+        }
+        return map.isEmpty() && map.get(3) == null;
+    }
+
+    /**
+     * Test2 checks that headMap(), tailMap() and subMap() stay in step with
+     * the map as either of them changes, and removes entries through
+     * iterators of the map and of a view
+     * @return true if the views behave like those of a TreeMap
+     */
+    public boolean test2() {
+        BinarySearchTreeMap<Integer, String> map = new BinarySearchTreeMap<>();
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i += 2) {
+            map.put(i, "v" + i);
+            expected.put(i, "v" + i);
+        }
+        SortedMap<Integer, String> head = map.headMap(300);
+        SortedMap<Integer, String> tail = map.tailMap(701);
+        SortedMap<Integer, String> middle = map.subMap(100, 900).subMap(400, 600);
+        // changes to the map show up in the views
+        map.put(299, "new");
+        expected.put(299, "new");
+        map.remove(702);
+        expected.remove(702);
+        if (!head.equals(expected.headMap(300)) || !tail.equals(expected.tailMap(701))
+            || !middle.equals(expected.subMap(400, 600))) return false;
+        if (head.size() != 151 || head.lastKey() != 299 || tail.firstKey() != 704 || middle.lastKey() != 598) return false;
+        // changes through the views show up in the map
+        middle.put(401, "view");
+        middle.merge(402, "!", String::concat);
+        tail.remove(704);
+        head.entrySet().iterator().next().setValue("zero");
+        expected.put(401, "view");
+        expected.merge(402, "!", String::concat);
+        expected.remove(704);
+        expected.put(0, "zero");
+        if (!map.equals(expected) || middle.get(200) != null || middle.containsKey(600)) return false;
+        try {
+            middle.put(600, "out of range");
+            return false;
+        } catch (IllegalArgumentException e) {
+
+        }
+        try {
+            middle.headMap(601);
+            return false;
+        } catch (IllegalArgumentException e) {
+
+        }
+        // remove every third entry of a view and every other entry of the
+        // map through their iterators
+        int position = 0;
+        for (Iterator<Map.Entry<Integer, String>> it = middle.entrySet().iterator(); it.hasNext(); position++) {
+            it.next();
+            if (position % 3 == 0) it.remove();
+        }
+        position = 0;
+        for (Iterator<Map.Entry<Integer, String>> it = expected.subMap(400, 600).entrySet().iterator(); it.hasNext(); position++) {
+            it.next();
+            if (position % 3 == 0) it.remove();
+        }
+        position = 0;
+        for (Iterator<Integer> it = map.keySet().iterator(); it.hasNext(); position++) {
+            it.next();
+            if (position % 2 == 1) it.remove();
+        }
+        position = 0;
+        for (Iterator<Integer> it = expected.keySet().iterator(); it.hasNext(); position++) {
+            it.next();
+            if (position % 2 == 1) it.remove();
+        }
+        map.tree.validate();
+        if (!map.equals(expected) || !tail.keySet().equals(expected.tailMap(701).keySet())) return false;
+        head.clear();
+        expected.headMap(300).clear();
+        if (!map.equals(expected) || !head.isEmpty() || !map.firstKey().equals(expected.firstKey())) return false;
+        Iterator<String> values = map.values().iterator();
+        map.put(-1, "changed");
+        try {
+            values.next();
+            return false;
+        } catch (ConcurrentModificationException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Test3 orders keys by a comparator and by an extracted long key
+     * @return true if both maps keep their keys in the order they were given
+     */
+    public boolean test3() {
+        BinarySearchTreeMap<String, Integer> byLength =
+            new BinarySearchTreeMap<>(Comparator.comparing(String::length).thenComparing(Comparator.reverseOrder()));
+        for (String word : "the quick brown fox jumps over the lazy dog".split(" ")) {
+            byLength.merge(word, 1, Integer::sum);
+        }
+        if (!byLength.keySet().toString().equals("[the, fox, dog, over, lazy, quick, jumps, brown]")) return false;
+        if (byLength.get("the") != 2 || !byLength.headMap("over").keySet().toString().equals("[the, fox, dog]")) return false;
+
+        BinarySearchTreeMap<int[], String> byFirst = new BinarySearchTreeMap<>(pair -> pair[0]);
+        for (int i = 0; i < 1000; i++) {
+            int first = (i * 7919) % 1000;
+            byFirst.put(new int[] {first, i}, "pair" + first);
+        }
+        byFirst.tree.validate();
+        // a key is found by its extracted key alone
+        if (!byFirst.get(new int[] {123, -1}).equals("pair123") || byFirst.firstKey()[0] != 0) return false;
+        if (byFirst.tailMap(new int[] {990}).size() != 10 || byFirst.comparator() == null) return false;
+        BinarySearchTreeMap<String, Integer> copy = new BinarySearchTreeMap<>(byLength);
+        return copy.equals(byLength) && copy.comparator() == byLength.comparator()
+            && new BinarySearchTreeMap<>(Map.of("b", 2, "a", 1)).firstKey().equals("a");
+    }
+
+    public static void main(String[] args) {
+        BinarySearchTreeMap<Integer, Integer> faceOfTheOperations = new BinarySearchTreeMap<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+    }
+}
@@ -1,6 +1,5 @@
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Stack;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 /**
  * This class represents a node for a Binary Search Tree that holds a single 
@@ -18,6 +17,15 @@ public class BinaryTreeNode<T> {
     protected BinaryTreeNode<T> left = null;
     // reference to the node's right child
     protected BinaryTreeNode<T> right = null;
+    // number of times data is stored in this node, only ever above 1 in
+    // trees that compress duplicates
+    protected int count = 1;
+    // number of values (counting duplicates) in the subtree rooted at this
+    // node, only kept up to date by trees that track subtree sizes
+    protected int subtreeSize = 1;
+    // the key of data in trees that order their values by an extracted long
+    // key, cached so that searches compare it without calling the extractor
+    protected long key;
 
     /**
      * Constructor that creates a new node with the value data. Both parent 
@@ -83,6 +91,48 @@ public class BinaryTreeNode<T> {
         return this.parent() != null && this.parent().childRight() == this;
     }
 
+    /**
+     * @return the number of times the value of this node is stored in it
+     */
+    public int count() { return this.count; }
+
+    /**
+     * Changes the number of times the value of this node is stored in it.
+     * @param newCount the new multiplicity of this node's value
+     */
+    public void setCount(int newCount) { this.count = newCount; }
+
+    /**
+     * Makes this node, taken from a tree's node pool, look newly created:
+     * it holds data once and has no parent or children. Subclasses that
+     * keep more state override this to reset it as well.
+     * @param newData the value the node stores from now on
+     */
+    protected void reset(T newData) {
+        this.data = newData;
+        this.up = null;
+        this.left = null;
+        this.right = null;
+        this.count = 1;
+        this.subtreeSize = 1;
+        this.key = 0;
+    }
+
+    /**
+     * @return the number of values in the subtree rooted at this node, when
+     * the tree holding this node tracks subtree sizes
+     */
+    public int subtreeSize() { return this.subtreeSize; }
+
+    /**
+     * Recomputes the subtree size of this node from its count and the sizes
+     * of its children, which must already be correct.
+     */
+    public void updateSubtreeSize() {
+        this.subtreeSize = this.count + (this.left == null ? 0 : this.left.subtreeSize)
+            + (this.right == null ? 0 : this.right.subtreeSize);
+    }
+
     /**
      * Returns a string representation for this node.
      * @return a string representation of the node's value
@@ -94,83 +144,37 @@ public class BinaryTreeNode<T> {
     
     /**
      * Performs an level-order traversal of the subtree rooted at this node
-     * and generates a string represeation of those nodes' contents.
+     * and generates a string represeation of those nodes' contents. Large
+     * trees should be written out with TraversalWriter instead, which does
+     * not need to hold the whole string in memory.
      * @return a string of node values in level-order
      */
     public String toLevelOrderString() {
-        // create a linked list that we'll use as a queue to store inprocessed nodes
-        Queue<BinaryTreeNode<T>> nodeList = new LinkedList<>();
-        // add this node to the queue first
-        nodeList.add(this);
-        // create the buffer to assemble the string efficiently
-        StringBuffer sb = new StringBuffer();
-        // add the bracket preceding the list of nodes to the buffer first
-        sb.append("[ ");
-        // keep processing nodes as long as we have any left on the queue
-        while (!nodeList.isEmpty()) {
-            // if it exists, add the left child of the head of the queue to the queue
-            if (nodeList.peek().childLeft() != null) {
-                nodeList.add(nodeList.peek().childLeft());
-            }
-            // if it exists, add the right child of the head of the queue to the queue
-            if (nodeList.peek().childRight() != null) {
-                nodeList.add(nodeList.peek().childRight());
-            }
-            // add the head of the queue to the string buffer and remove from queue
-            sb.append(nodeList.poll().toString());
-            // add a comma to separate values to the buffer, or close the bracket if
-            // we've just added the last node to it
-            if (nodeList.isEmpty()) {
-                sb.append(" ]");
-            } else {
-                sb.append(", ");
-            }
+        StringBuilder sb = new StringBuilder();
+        try {
+            new TraversalWriter<T>(sb).writeLevelOrder(this);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
-        // return the string built with the string buffer
         return sb.toString();
     }
 
     /**
      * Performs an in-order traversal of the subtree rooted at this node
-     * and generates a string representation of those nodes' contents.
+     * and generates a string representation of those nodes' contents. Large
+     * trees should be written out with TraversalWriter instead, which does
+     * not need to hold the whole string in memory.
      * @return a string of node value in in-order
      */
     public String toInOrderString() {
-        // create a stack to keep track of unvisited nodes
-        Stack<BinaryTreeNode<T>> stack = new Stack<>();
-        // add root (this node) to the stack first
-        stack.push(this);
-        // follow the left child references and add all nodes on the path from this node
-        // to its left-most descendant to the stack
-        while (stack.peek().childLeft() != null) {
-            stack.push(stack.peek().childLeft());
-        }
-        // create a buffer to assemble the string efficiently
-        StringBuffer sb = new StringBuffer();
-        // add the bracket preceding the list of nodes to the buffer first
-        sb.append("[ ");
-        // keep processing nodes as long as the stack is not empty
-        while (!stack.isEmpty()) {
-            // pop the top node from the stack
-            BinaryTreeNode<T> current = stack.pop();
-            // add popped node to the string
-            sb.append(current.toString());
-            // handle the right subtree of the popped node
-            if (current.childRight() != null) {
-                stack.push(current.childRight());
-                while (stack.peek().childLeft() != null) {
-                    stack.push(stack.peek().childLeft());
-                }
-            }
-            // add a comma to separate values to the buffer, or close the bracket if
-            // we've just added the last node to it
-            if (!stack.isEmpty()) {
-                sb.append(", ");
-            } else {
-                sb.append(" ]");
-            }
+        StringBuilder sb = new StringBuilder();
+        try {
+            new TraversalWriter<T>(sb).writeInOrder(this);
+        } catch (IOException e) {
+            // a StringBuilder never throws
+            throw new UncheckedIOException(e);
         }
-        // return the string built with the string buffer
         return sb.toString();
     }
 
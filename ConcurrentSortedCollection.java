@@ -0,0 +1,360 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe SortedCollection. Each distinct value is a key in a
+ * ConcurrentSkipListMap, mapped to the number of times it is stored, so
+ * inserts and removes of different values proceed in parallel through
+ * lock-free compare-and-set updates, and contains(), the navigation queries
+ * and iteration never block, even while writers are active.
+ *
+ * Iterators and range views are weakly consistent: they never throw
+ * ConcurrentModificationException and see every value that was stored for
+ * the whole iteration, but may or may not see concurrent changes. size() is
+ * exact when no writer is active, and otherwise a recent estimate.
+ */
+public class ConcurrentSortedCollection<T extends Comparable<T>> implements SortedCollection<T> {
+
+    // every distinct value, mapped to the number of times it is stored
+    protected final ConcurrentSkipListMap<T, Integer> counts = new ConcurrentSkipListMap<>();
+    // number of values stored, including duplicates; a LongAdder so that
+    // writers on different cores do not contend on a single counter
+    protected final LongAdder size = new LongAdder();
+
+    /**
+     * Inserts a new data value into the sorted collection.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        this.counts.merge(data, 1, Integer::sum);
+        this.size.increment();
+    }
+
+    /**
+     * Check whether data is stored in the collection. Never blocks.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     */
+    @Override
+    public boolean contains(T data) {
+        return this.counts.containsKey(data);
+    }
+
+    /**
+     * Removes one occurrence of data from the collection.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not stored in
+     * the collection
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        while (true) {
+            Integer count = this.counts.get(data);
+            if (count == null) return false;
+            boolean removed = count == 1
+                ? this.counts.remove(data, count)
+                : this.counts.replace(data, count, count - 1);
+            if (removed) {
+                this.size.decrement();
+                return true;
+            }
+            // another writer changed the count first, so try again
+        }
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return (int) Math.max(0, this.size.sum());
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.counts.isEmpty();
+    }
+
+    /**
+     * Removes all values and duplicates from the collection. Values inserted
+     * concurrently with clear() may or may not survive it.
+     */
+    @Override
+    public void clear() {
+        // remove entries one at a time, so the size stays in step with them
+        for (Map.Entry<T, Integer> entry = this.counts.pollFirstEntry(); entry != null;
+            entry = this.counts.pollFirstEntry()) {
+            this.size.add(-entry.getValue());
+        }
+    }
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T min() {
+        return keyOf(this.counts.firstEntry());
+    }
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T max() {
+        return keyOf(this.counts.lastEntry());
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return this.counts.floorKey(data);
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return this.counts.ceilingKey(data);
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return this.counts.lowerKey(data);
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return this.counts.higherKey(data);
+    }
+
+    /**
+     * Returns a lazy, weakly consistent view of the values between lo and hi
+     * (both inclusive) in sorted order, duplicates included.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        ConcurrentNavigableMap<T, Integer> view = this.counts.subMap(lo, true, hi, true);
+        return () -> new ExpandingIterator<>(view.entrySet().iterator());
+    }
+
+    /**
+     * Returns a weakly consistent iterator over the values in sorted order,
+     * duplicates included. It never blocks and never throws
+     * ConcurrentModificationException.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new ExpandingIterator<>(this.counts.entrySet().iterator());
+    }
+
+    /**
+     * @return the key of entry, or null if entry is null
+     */
+    private static <T> T keyOf(Map.Entry<T, Integer> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * Turns an iterator over (value, count) entries into an iterator that
+     * produces each value count times.
+     */
+    private static class ExpandingIterator<T> implements Iterator<T> {
+
+        // the entries still to be expanded
+        private final Iterator<Map.Entry<T, Integer>> entries;
+        // the value currently being repeated
+        private T current;
+        // how many more times current is produced
+        private int remaining = 0;
+
+        private ExpandingIterator(Iterator<Map.Entry<T, Integer>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.remaining > 0 || this.entries.hasNext();
+        }
+
+        @Override
+        public T next() {
+            if (this.remaining == 0) {
+                if (!this.entries.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<T, Integer> entry = this.entries.next();
+                this.current = entry.getKey();
+                this.remaining = entry.getValue();
+            }
+            this.remaining--;
+            return this.current;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 tests the single-threaded behavior: duplicates, remove(), size(),
+     * navigation, and iteration order
+     * @return true if the collection behaves like the other SortedCollections
+     */
+    public boolean test1() {
+        ConcurrentSortedCollection<Integer> collection = new ConcurrentSortedCollection<>();
+        if (!collection.isEmpty() || collection.min() != null) return false;
+        int[] values = {5, 3, 8, 3, 1, 8, 8};
+        for (int value : values) {
+            collection.insert(value);
+        }
+        if (collection.size() != 7 || !collection.contains(8) || collection.contains(4)) return false;
+        if (collection.floor(4) != 3 || collection.ceiling(4) != 5 || collection.lower(3) != 1 || collection.higher(8) != null) return false;
+        StringBuilder sb = new StringBuilder();
+        for (int value : collection) {
+            sb.append(value).append(' ');
+        }
+        if (!sb.toString().equals("1 3 3 5 8 8 8 ")) return false;
+
+        if (!collection.remove(8) || !collection.remove(8) || !collection.contains(8)) return false;
+        if (!collection.remove(8) || collection.contains(8) || collection.remove(8)) return false;
+        int sum = 0;
+        for (int value : collection.range(2, 6)) {
+            sum += value;
+        }
+        if (sum != 3 + 3 + 5 || collection.size() != 4) return false;
+        collection.clear();
+        return collection.isEmpty() && collection.size() == 0;
+    }
+
+    /**
+     * Test2 runs writers and readers on many threads at once. Writers insert
+     * and remove values they own; readers keep iterating and checking that
+     * values come out sorted. Afterwards every writer's values must be
+     * present exactly as many times as it left them.
+     * @return true if the collection stays consistent under concurrency
+     */
+    public boolean test2() {
+        ConcurrentSortedCollection<Integer> collection = new ConcurrentSortedCollection<>();
+        int writers = 8;
+        int readers = 4;
+        int perWriter = 20000;
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writersDone = new CountDownLatch(writers);
+        AtomicBoolean failed = new AtomicBoolean(false);
+        Thread[] threads = new Thread[writers + readers];
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads[w] = new Thread(() -> {
+                try {
+                    start.await();
+                    // values congruent to writer mod writers belong to this writer;
+                    // each is inserted twice and removed once
+                    for (int i = 0; i < perWriter; i++) {
+                        int value = i * writers + writer;
+                        collection.insert(value);
+                        collection.insert(value);
+                        if (!collection.remove(value)) failed.set(true);
+                    }
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                } finally {
+                    writersDone.countDown();
+                }
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            threads[writers + r] = new Thread(() -> {
+                try {
+                    start.await();
+                    while (writersDone.getCount() > 0) {
+                        Integer previous = null;
+                        for (int value : collection) {
+                            if (previous != null && previous > value) failed.set(true);
+                            previous = value;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    failed.set(true);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            return false;
+        }
+        if (failed.get()) return false;
+        if (collection.size() != writers * perWriter) return false;
+        int expected = 0;
+        for (int value : collection) {
+            if (value != expected++) return false;
+        }
+        return expected == writers * perWriter;
+    }
+
+    public static void main(String[] args) {
+        ConcurrentSortedCollection<Integer> faceOfTheOperations = new ConcurrentSortedCollection<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,939 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Makes an in-memory SortedCollection survive crashes. Every insert(),
+ * remove() and clear() is first appended to a write-ahead log in a
+ * directory and then applied to the collection; open() rebuilds the
+ * collection from that directory.
+ *
+ * Log records are written through a buffer and forced to disk in groups:
+ * with a sync interval of n, the log is forced after every n-th change, so a
+ * crash loses at most the last n - 1 changes. An interval of 1 makes every
+ * change durable before the call returns, and sync() forces the changes made
+ * so far at any time.
+ *
+ * Each record holds the operation, the encoded value and a CRC32 of both. A
+ * crash can leave a partly written record at the end of the log, which is
+ * detected by its length or checksum and cut off when the log is replayed.
+ *
+ * Once the log holds more records than the compaction threshold, the
+ * collection is saved as a snapshot in the format of MappedSortedCollection
+ * and a new, empty log is started, so replay never has to read more than one
+ * snapshot and about threshold records. Files are numbered by generation:
+ * snapshot-g.tree holds the values from before the first change in
+ * log-g.wal, and open() loads the newest snapshot and replays the logs of
+ * that generation and later ones, in order.
+ *
+ * A failed write or force leaves the log in an unknown state, so the first
+ * IOException closes the log: the collection can still be read, but every
+ * later change throws IllegalStateException, and reopening the directory
+ * restores what actually reached the disk.
+ *
+ * Like the collections it wraps, this class is not thread-safe.
+ */
+public class DurableSortedCollection<T extends Comparable<T>> implements SortedCollection<T>, Closeable {
+
+    // identifies a log file: the bytes "BSTL"
+    public static final int LOG_MAGIC = 0x4253544C;
+    // version of the log format
+    public static final int LOG_VERSION = 1;
+    // the log is forced after every change unless told otherwise
+    public static final int DEFAULT_SYNC_INTERVAL = 1;
+    // number of log records after which the collection is compacted
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 1 << 20;
+
+    // magic, version, key width and generation
+    private static final int LOG_HEADER_SIZE = 20;
+    // size of the buffer that records are collected in between writes
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte CLEAR = 3;
+
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("snapshot-(\\d+)\\.tree");
+    private static final Pattern LOG_NAME = Pattern.compile("log-(\\d+)\\.wal");
+
+    // the directory holding the snapshot and log files
+    private final Path directory;
+    // the in-memory collection all reads are answered from
+    private final SortedCollection<T> collection;
+    // converts values to and from their bytes
+    private final KeyCodec<T> codec;
+    // number of bytes per record: operation, value and checksum
+    private final int recordSize;
+    // number of changes per forced write
+    private final int syncInterval;
+    // number of log records that triggers compaction
+    private final int compactionThreshold;
+    // records not yet written to the log
+    private final ByteBuffer buffer;
+    private final CRC32 checksum = new CRC32();
+
+    // the log being appended to, or null once closed or failed
+    private FileChannel log;
+    // the error that closed the log, or null if it was closed normally
+    private IOException failure;
+    // the generation of the current log
+    private long generation;
+    // number of records in the current log, and how many are not yet forced
+    private int logRecords;
+    private int unsynced = 0;
+
+    private DurableSortedCollection(Path directory, SortedCollection<T> collection, KeyCodec<T> codec,
+        int syncInterval, int compactionThreshold) {
+        this.directory = directory;
+        this.collection = collection;
+        this.codec = codec;
+        this.recordSize = 1 + codec.width() + Integer.BYTES;
+        this.syncInterval = syncInterval;
+        this.compactionThreshold = compactionThreshold;
+        this.buffer = ByteBuffer.allocate(Math.max(1, BUFFER_SIZE / this.recordSize) * this.recordSize);
+    }
+
+    /**
+     * Opens a directory with the default sync interval and compaction
+     * threshold. See the other open() for details.
+     */
+    public static <T extends Comparable<T>> DurableSortedCollection<T> open(Path directory,
+        SortedCollection<T> collection, KeyCodec<T> codec) throws IOException, IllegalArgumentException {
+        return open(directory, collection, codec, DEFAULT_SYNC_INTERVAL, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens a directory, creating it if needed, and restores the values
+     * saved in it into collection. The snapshot is inserted in sorted order,
+     * so collection should be a balanced tree such as a RedBlackTree.
+     * @param directory where the snapshot and log files are kept
+     * @param collection an empty collection to hold the values
+     * @param codec converts the values to bytes; it must have the same width
+     * as the codec the directory was written with
+     * @param syncInterval the number of changes after which the log is
+     * forced to disk
+     * @param compactionThreshold the number of log records after which a
+     * snapshot is taken and the log restarted
+     * @return a durable collection backed by collection
+     * @throws IOException if the files cannot be read or written, or a log
+     * other than the newest one is damaged
+     * @throws IllegalArgumentException if collection is not empty or either
+     * count is not positive
+     */
+    public static <T extends Comparable<T>> DurableSortedCollection<T> open(Path directory,
+        SortedCollection<T> collection, KeyCodec<T> codec, int syncInterval, int compactionThreshold)
+        throws IOException, IllegalArgumentException {
+        if (!collection.isEmpty()) {
+            throw new IllegalArgumentException("The collection to restore into must be empty");
+        }
+        if (syncInterval < 1 || compactionThreshold < 1) {
+            throw new IllegalArgumentException("Sync interval and compaction threshold must be positive");
+        }
+        Files.createDirectories(directory);
+        DurableSortedCollection<T> durable = new DurableSortedCollection<>(directory, collection, codec,
+            syncInterval, compactionThreshold);
+        durable.recover();
+        return durable;
+    }
+
+    /**
+     * Loads the newest snapshot, replays the logs written after it and
+     * opens the newest log for appending.
+     */
+    private void recover() throws IOException {
+        long snapshot = -1;
+        List<Long> logs = new ArrayList<>();
+        List<Path> stale = new ArrayList<>();
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher matcher;
+                if ((matcher = SNAPSHOT_NAME.matcher(name)).matches()) {
+                    snapshot = Math.max(snapshot, Long.parseLong(matcher.group(1)));
+                } else if ((matcher = LOG_NAME.matcher(name)).matches()) {
+                    logs.add(Long.parseLong(matcher.group(1)));
+                } else if (name.endsWith(".tmp")) {
+                    // left behind by a crash while a file was being created
+                    stale.add(file);
+                }
+            }
+        }
+        if (snapshot >= 0) {
+            for (T value : MappedSortedCollection.open(snapshotFile(snapshot), this.codec)) {
+                this.collection.insert(value);
+            }
+        }
+        Collections.sort(logs);
+        this.generation = Math.max(snapshot, 0);
+        this.logRecords = 0;
+        for (int i = 0; i < logs.size(); i++) {
+            long generation = logs.get(i);
+            if (generation < snapshot) {
+                // already contained in the snapshot
+                stale.add(logFile(generation));
+                continue;
+            }
+            this.generation = generation;
+            this.logRecords = replay(logFile(generation), generation, i == logs.size() - 1);
+        }
+        for (Path file : stale) {
+            Files.deleteIfExists(file);
+        }
+        deleteSnapshotsBefore(snapshot);
+        Path current = logFile(this.generation);
+        if (!Files.exists(current)) {
+            createLog(this.generation);
+        }
+        this.log = FileChannel.open(current, StandardOpenOption.WRITE);
+        this.log.position(this.log.size());
+    }
+
+    /**
+     * Applies the records of a log to the collection.
+     * @param last whether this is the newest log, the only one that may end
+     * in a partly written record; if it does, that record is cut off
+     * @return the number of records applied
+     */
+    private int replay(Path file, long generation, boolean last) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete or the file ends
+            }
+            if (header.hasRemaining() || header.getInt(0) != LOG_MAGIC || header.getInt(4) != LOG_VERSION
+                || header.getInt(8) != this.codec.width() || header.getLong(12) != generation) {
+                throw new IOException(file + " is not a log of generation " + generation + " for "
+                    + this.codec.width() + " byte keys");
+            }
+            // the buffer holds a whole number of records, and is filled
+            // completely except at the end of the file
+            ByteBuffer records = ByteBuffer.allocate(this.buffer.capacity());
+            long valid = LOG_HEADER_SIZE;
+            int applied = 0;
+            boolean damaged = false;
+            while (!damaged) {
+                records.clear();
+                while (records.hasRemaining() && channel.read(records) >= 0) {
+                    // keep reading until the buffer is full or the file ends
+                }
+                records.flip();
+                while (records.remaining() >= this.recordSize) {
+                    int start = records.position();
+                    if (!checksumMatches(records, start)) {
+                        damaged = true;
+                        break;
+                    }
+                    apply(records.get(start), records, start + 1);
+                    records.position(start + this.recordSize);
+                    valid += this.recordSize;
+                    applied++;
+                }
+                if (records.limit() < records.capacity()) break;
+            }
+            if (valid < channel.size()) {
+                if (!last) {
+                    throw new IOException(file + " is damaged at byte " + valid);
+                }
+                channel.truncate(valid);
+                channel.force(true);
+            }
+            return applied;
+        }
+    }
+
+    /**
+     * @return whether the checksum stored at the end of the record at start
+     * matches its operation and value
+     */
+    private boolean checksumMatches(ByteBuffer records, int start) {
+        this.checksum.reset();
+        this.checksum.update(records.slice(start, 1 + this.codec.width()));
+        return records.getInt(start + 1 + this.codec.width()) == (int) this.checksum.getValue();
+    }
+
+    /**
+     * Applies a replayed operation whose value is encoded at offset.
+     */
+    private void apply(byte operation, ByteBuffer records, int offset) throws IOException {
+        switch (operation) {
+            case INSERT:
+                this.collection.insert(this.codec.decode(records, offset));
+                break;
+            case REMOVE:
+                this.collection.remove(this.codec.decode(records, offset));
+                break;
+            case CLEAR:
+                this.collection.clear();
+                break;
+            default:
+                throw new IOException("Unknown log operation " + operation);
+        }
+    }
+
+    /**
+     * Inserts data into the collection after logging the insert.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     * @throws UncheckedIOException if the log cannot be written, in which
+     * case data is not inserted, or if the compaction that follows fails,
+     * in which case it is; either way the log is closed
+     * @throws IllegalStateException if the collection has been closed
+     */
+    @Override
+    public void insert(T data) throws NullPointerException, UncheckedIOException, IllegalStateException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        append(INSERT, data);
+        this.collection.insert(data);
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes one occurrence of data, logging the remove if a value is
+     * actually removed.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not stored in
+     * the collection
+     * @throws NullPointerException if data argument is null
+     * @throws UncheckedIOException if the log cannot be written, in which
+     * case data is not removed, or if the compaction that follows fails,
+     * in which case it is; either way the log is closed
+     * @throws IllegalStateException if the collection has been closed
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException, UncheckedIOException, IllegalStateException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        if (!this.collection.contains(data)) return false;
+        append(REMOVE, data);
+        this.collection.remove(data);
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Removes all values from the collection after logging the clear.
+     * @throws UncheckedIOException if the log cannot be written, in which
+     * case the values are kept, or if the compaction that follows fails,
+     * in which case they are removed; either way the log is closed
+     * @throws IllegalStateException if the collection has been closed
+     */
+    @Override
+    public void clear() throws UncheckedIOException, IllegalStateException {
+        append(CLEAR, null);
+        this.collection.clear();
+        compactIfNeeded();
+    }
+
+    /**
+     * Adds a record to the log buffer, and forces the log if the sync
+     * interval has been reached. If that fails, the log is cut back to
+     * where the record starts, so that the change the caller is told failed
+     * is not replayed later, and then closed.
+     */
+    private void append(byte operation, T data) {
+        checkOpen();
+        long offset = -1;
+        try {
+            offset = this.log.position() + this.buffer.position();
+            if (this.buffer.remaining() < this.recordSize) {
+                writeBuffer();
+            }
+            int start = this.buffer.position();
+            int width = this.codec.width();
+            this.buffer.put(start, operation);
+            if (data != null) {
+                this.codec.encode(data, this.buffer, start + 1);
+            } else {
+                for (int i = 1; i <= width; i++) {
+                    this.buffer.put(start + i, (byte) 0);
+                }
+            }
+            this.checksum.reset();
+            this.checksum.update(this.buffer.slice(start, 1 + width));
+            this.buffer.putInt(start + 1 + width, (int) this.checksum.getValue());
+            this.buffer.position(start + this.recordSize);
+            this.logRecords++;
+            if (++this.unsynced >= this.syncInterval) {
+                force();
+            }
+        } catch (IOException e) {
+            fail(e, offset);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the log after a failed write. Changes that were not yet forced
+     * may or may not have reached the disk; records from offset on are cut
+     * off if the log still allows it.
+     * @param offset the length to cut the log back to, or -1 to leave it
+     */
+    private void fail(IOException cause, long offset) {
+        this.failure = cause;
+        this.buffer.clear();
+        try {
+            if (offset >= 0) {
+                this.log.truncate(offset);
+                this.log.force(false);
+            }
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        try {
+            this.log.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+        this.log = null;
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (this.log == null) {
+            throw this.failure == null
+                ? new IllegalStateException("The collection has been closed")
+                : new IllegalStateException("The log could not be written", this.failure);
+        }
+    }
+
+    /**
+     * Writes the buffered records to the log without forcing them to disk.
+     * The buffer is emptied even if the write fails, since the log is closed
+     * then anyway.
+     */
+    private void writeBuffer() throws IOException {
+        this.buffer.flip();
+        try {
+            while (this.buffer.hasRemaining()) {
+                this.log.write(this.buffer);
+            }
+        } finally {
+            this.buffer.clear();
+        }
+    }
+
+    private void force() throws IOException {
+        writeBuffer();
+        this.log.force(false);
+        this.unsynced = 0;
+    }
+
+    /**
+     * Writes every change made so far to the log and forces it to disk.
+     * @throws IOException if the log cannot be written, in which case it is
+     * closed
+     * @throws IllegalStateException if the collection has been closed
+     */
+    public void sync() throws IOException, IllegalStateException {
+        checkOpen();
+        try {
+            force();
+        } catch (IOException e) {
+            fail(e, -1);
+            throw e;
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (this.logRecords >= this.compactionThreshold) {
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Saves the collection as a snapshot and starts a new, empty log. The
+     * new log is created before the snapshot is written, and the files of
+     * the old generation are deleted only after it, so a crash at any point
+     * leaves a snapshot and logs that replay to the current values.
+     * @throws IOException if the files cannot be written, in which case the
+     * log is closed
+     * @throws IllegalStateException if the collection has been closed
+     */
+    public void compact() throws IOException, IllegalStateException {
+        sync();
+        try {
+            long next = this.generation + 1;
+            createLog(next);
+            FileChannel nextLog = FileChannel.open(logFile(next), StandardOpenOption.WRITE);
+            nextLog.position(nextLog.size());
+            this.log.close();
+            this.log = nextLog;
+            long previous = this.generation;
+            this.generation = next;
+            this.logRecords = 0;
+
+            MappedSortedCollection.write(this.collection, this.codec, snapshotFile(next));
+            syncDirectory();
+            Files.deleteIfExists(logFile(previous));
+            deleteSnapshotsBefore(next);
+        } catch (IOException e) {
+            fail(e, -1);
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an empty log with its header, under a temporary name that is
+     * moved into place once the header is on disk.
+     */
+    private void createLog(long generation) throws IOException {
+        Path file = logFile(generation);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC).putInt(LOG_VERSION).putInt(this.codec.width()).putLong(generation);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    /**
+     * Deletes the snapshots older than generation.
+     */
+    private void deleteSnapshotsBefore(long generation) throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = SNAPSHOT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(1)) < generation) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the directory entries to disk, so that created and renamed
+     * files survive a crash. Not every platform can open a directory, in
+     * which case the entries are left to the file system.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    private Path snapshotFile(long generation) {
+        return this.directory.resolve("snapshot-" + generation + ".tree");
+    }
+
+    private Path logFile(long generation) {
+        return this.directory.resolve("log-" + generation + ".wal");
+    }
+
+    /**
+     * Forces every change to disk and closes the log. The collection can
+     * still be read afterwards, but not changed. Closing a collection whose
+     * log has already been closed, normally or by a failure, does nothing.
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.log == null) return;
+        sync();
+        try {
+            this.log.close();
+        } finally {
+            this.log = null;
+        }
+    }
+
+    @Override
+    public boolean contains(T data) {
+        return this.collection.contains(data);
+    }
+
+    @Override
+    public int size() {
+        return this.collection.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.collection.isEmpty();
+    }
+
+    @Override
+    public T min() {
+        return this.collection.min();
+    }
+
+    @Override
+    public T max() {
+        return this.collection.max();
+    }
+
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return this.collection.floor(data);
+    }
+
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return this.collection.ceiling(data);
+    }
+
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return this.collection.lower(data);
+    }
+
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return this.collection.higher(data);
+    }
+
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        return this.collection.range(lo, hi);
+    }
+
+    /**
+     * Iterates over the wrapped collection. Removing through the iterator
+     * is not supported, since it would bypass the log.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> iterator = this.collection.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 makes random changes with compaction happening along the way,
+     * reopens the directory and compares the restored values with a
+     * RedBlackTree that received the same changes
+     * @return true if every change survives closing and reopening
+     */
+    public boolean test1() {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("durable");
+            Random random = new Random(21);
+            RedBlackTree<Integer> reference = new RedBlackTree<>();
+            DurableSortedCollection<Integer> durable = DurableSortedCollection.open(directory,
+                new RedBlackTree<Integer>(), KeyCodec.INTEGER, 16, 1000);
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(500);
+                if (i == 2500) {
+                    durable.clear();
+                    reference.clear();
+                } else if (random.nextInt(3) == 0) {
+                    if (durable.remove(value) != reference.remove(value)) return false;
+                } else {
+                    durable.insert(value);
+                    reference.insert(value);
+                }
+            }
+            durable.close();
+            // compaction leaves only the newest snapshot and log behind
+            try (Stream<Path> files = Files.list(directory)) {
+                if (files.count() != 2) return false;
+            }
+            DurableSortedCollection<Integer> reopened = DurableSortedCollection.open(directory,
+                new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            if (reopened.size() != reference.size()) return false;
+            Iterator<Integer> expected = reference.iterator();
+            for (int value : reopened) {
+                if (!expected.hasNext() || value != expected.next()) return false;
+            }
+            reopened.close();
+            return !expected.hasNext();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            deleteQuietly(directory);
+        }
+    }
+
+    /**
+     * Test2 simulates crashes that leave a torn record, a record with a bad
+     * checksum, and unsynced changes behind, and checks that replay keeps
+     * exactly the records that were completely written
+     * @return true if recovery restores the durable changes
+     */
+    public boolean test2() {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("durable");
+            DurableSortedCollection<Integer> durable = DurableSortedCollection.open(directory,
+                new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            for (int i = 1; i <= 10; i++) {
+                durable.insert(i);
+            }
+            durable.remove(5);
+            durable.close();
+            Path log = directory.resolve("log-0.wal");
+            long length = Files.size(log);
+            if (length != LOG_HEADER_SIZE + 11 * 9) return false;
+            // a crash in the middle of appending the next record
+            Files.write(log, new byte[] {INSERT, 0, 0}, StandardOpenOption.APPEND);
+            durable = DurableSortedCollection.open(directory, new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            if (durable.size() != 9 || durable.contains(5) || Files.size(log) != length) return false;
+            durable.insert(42);
+            durable.close();
+            // damage the value of the last record, so its checksum no longer matches
+            try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[] {7}), length + 2);
+            }
+            durable = DurableSortedCollection.open(directory, new RedBlackTree<Integer>(), KeyCodec.INTEGER, 100, 1000);
+            if (durable.size() != 9 || durable.contains(42) || Files.size(log) != length) return false;
+            // changes that were never synced are lost, synced ones are not
+            durable.insert(100);
+            durable.sync();
+            durable.insert(200);
+            durable.log.close();
+            durable = DurableSortedCollection.open(directory, new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            boolean recovered = durable.contains(100) && !durable.contains(200) && durable.size() == 10;
+            durable.close();
+            return recovered;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            deleteQuietly(directory);
+        }
+    }
+
+    /**
+     * Test3 makes the log fail while forcing a record and while writing
+     * one, and checks that the failed change is neither applied nor
+     * replayed, that later changes are refused, and that reopening restores
+     * only changes the caller was told succeeded
+     * @return true if a failed log write stops the collection consistently
+     */
+    public boolean test3() {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("durable");
+            DurableSortedCollection<Integer> durable = DurableSortedCollection.open(directory,
+                new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            for (int i = 1; i <= 5; i++) {
+                durable.insert(i);
+            }
+            // the record reaches the file, but forcing it fails
+            durable.log = new FailingChannel(durable.log, false);
+            try {
+                durable.insert(6);
+                return false;
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            if (durable.contains(6) || durable.size() != 5) return false;
+            try {
+                durable.insert(7);
+                return false;
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            durable.close();
+            durable = DurableSortedCollection.open(directory, new RedBlackTree<Integer>(), KeyCodec.INTEGER, 4, 1000);
+            if (durable.size() != 5 || durable.contains(6)) return false;
+            // half of the buffered records are written before the write fails
+            durable.insert(10);
+            durable.insert(11);
+            durable.insert(12);
+            durable.log = new FailingChannel(durable.log, true);
+            try {
+                durable.remove(1);
+                return false;
+            } catch (UncheckedIOException e) {
+                // expected
+            }
+            if (!durable.contains(1)) return false;
+            try {
+                durable.sync();
+                return false;
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            durable = DurableSortedCollection.open(directory, new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+            // unsynced inserts may be lost, but the failed remove never replays
+            boolean consistent = durable.contains(1) && durable.contains(5) && !durable.contains(6);
+            for (int value : durable) {
+                consistent &= value <= 5 || value >= 10 && value <= 12;
+            }
+            durable.close();
+            return consistent;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            deleteQuietly(directory);
+        }
+    }
+
+    /**
+     * A log channel that fails either when forced, after the data has been
+     * written, or in the middle of a write, after half of the bytes.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel channel;
+        private final boolean failWrites;
+
+        FailingChannel(FileChannel channel, boolean failWrites) {
+            this.channel = channel;
+            this.failWrites = failWrites;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            if (!this.failWrites) return this.channel.write(source);
+            ByteBuffer half = source.duplicate();
+            half.limit(half.position() + half.remaining() / 2);
+            source.position(source.position() + this.channel.write(half));
+            throw new IOException("No space left on device");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (!this.failWrites) throw new IOException("Input/output error");
+            this.channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return this.channel.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException {
+            return this.channel.read(destinations, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long position() throws IOException {
+            return this.channel.position();
+        }
+
+        @Override
+        public FileChannel position(long position) throws IOException {
+            this.channel.position(position);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return this.channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            this.channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return this.channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException {
+            return this.channel.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return this.channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return this.channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return this.channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Deletes a test directory and the files in it, ignoring errors.
+     */
+    private static void deleteQuietly(Path directory) {
+        if (directory == null) return;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        } catch (IOException e) {
+            // best effort
+        }
+    }
+
+    public static void main(String[] args) {
+        DurableSortedCollection<Integer> faceOfTheOperations = new DurableSortedCollection<>(null,
+            new RedBlackTree<Integer>(), KeyCodec.INTEGER, DEFAULT_SYNC_INTERVAL, DEFAULT_COMPACTION_THRESHOLD);
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+    }
+}
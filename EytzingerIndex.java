@@ -0,0 +1,492 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A read-only SortedCollection that stores its values in a single array in
+ * Eytzinger (breadth-first) order: the root at index 1 and the children of
+ * index k at 2k and 2k + 1, so the tree needs no nodes and no child
+ * pointers. freeze() builds one from any SortedCollection.
+ *
+ * A search walks down from index 1 to the end of the array, never stopping
+ * early, so its loop has the same shape for every probe. The first levels
+ * of the tree sit together at the start of the array and stay in cache, and
+ * a search only reads the array and the values, never node objects.
+ *
+ * Each step is a plain branch rather than a conditional move. The values
+ * are objects, so every level needs a load of the value the array points
+ * to; a conditional move would make each of these loads wait for the
+ * previous comparison, while a predicted branch lets the processor start
+ * loading the next level early. Java offers no prefetch instruction, so
+ * this speculation is what hides the memory latency here.
+ *
+ * In-order neighbours are found by moving through the implicit tree, so
+ * floor(), range() and iteration need no extra memory beyond the array.
+ */
+public class EytzingerIndex<T> implements SortedCollection<T> {
+
+    // the values in Eytzinger order, duplicates included; index 0 is unused
+    private final Object[] keys;
+    // number of values stored, including duplicates
+    private final int size;
+    // the order of the values, or null for their natural order
+    private final Comparator<? super T> comparator;
+
+    private EytzingerIndex(Object[] keys, int size, Comparator<? super T> comparator) {
+        this.keys = keys;
+        this.size = size;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Copies the values of collection into a new index, which keeps the
+     * order given by the collection's comparator(). The collection is
+     * iterated once and left as it is.
+     * @param collection the values to index
+     * @return an immutable index holding the same values, duplicates included
+     * @throws IllegalArgumentException if the collection does not iterate in
+     * sorted order
+     */
+    public static <T> EytzingerIndex<T> freeze(SortedCollection<T> collection)
+        throws IllegalArgumentException {
+        EytzingerIndex<T> order = new EytzingerIndex<>(null, 0, collection.comparator());
+        List<T> sorted = new ArrayList<>(collection.size());
+        T previous = null;
+        for (T value : collection) {
+            if (previous != null && order.compare(previous, value) > 0) {
+                throw new IllegalArgumentException("Collection is not sorted: " + value + " after " + previous);
+            }
+            sorted.add(value);
+            previous = value;
+        }
+        int size = sorted.size();
+        Object[] keys = new Object[size + 1];
+        fill(keys, sorted, 1, 0);
+        return new EytzingerIndex<>(keys, size, order.comparator);
+    }
+
+    /**
+     * Places the sorted values in the subtree rooted at index, by visiting
+     * it in order.
+     * @param next the position in sorted of the first value to place
+     * @return the position in sorted after the last value placed
+     */
+    private static int fill(Object[] keys, List<?> sorted, int index, int next) {
+        if (index >= keys.length) return next;
+        next = fill(keys, sorted, 2 * index, next);
+        keys[index] = sorted.get(next++);
+        return fill(keys, sorted, 2 * index + 1, next);
+    }
+
+    /**
+     * @return the order of the values in this index, or null if they are in
+     * their natural order
+     */
+    @Override
+    public Comparator<? super T> comparator() {
+        return this.comparator;
+    }
+
+    /**
+     * Compares two values in the order of this index.
+     * @return a negative number, zero or a positive number as a is below,
+     * equal to or above b
+     */
+    @SuppressWarnings("unchecked")
+    private int compare(T a, T b) {
+        if (this.comparator != null) return this.comparator.compare(a, b);
+        return ((Comparable<? super T>) a).compareTo(b);
+    }
+
+    /**
+     * @return this index, which is already frozen
+     */
+    @Override
+    public EytzingerIndex<T> freeze() {
+        return this;
+    }
+
+    /**
+     * Not supported: the index is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void insert(T data) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("An EytzingerIndex is read-only");
+    }
+
+    /**
+     * Not supported: the index is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(T data) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("An EytzingerIndex is read-only");
+    }
+
+    /**
+     * Not supported: the index is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void clear() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("An EytzingerIndex is read-only");
+    }
+
+    /**
+     * Check whether data is stored in the index.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean contains(T data) throws NullPointerException {
+        int index = lowerBound(data);
+        return index != 0 && compare(data, keyAt(index)) == 0;
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T min() {
+        return valueAt(first());
+    }
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T max() {
+        return valueAt(last());
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return valueAt(predecessor(upperBound(data)));
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return valueAt(lowerBound(data));
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return valueAt(predecessor(lowerBound(data)));
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return valueAt(upperBound(data));
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. Iteration starts from a search
+     * for lo and moves to each in-order successor in amortized O(1) time.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (compare(lo, hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new IndexIterator(lowerBound(lo), upperBound(hi));
+    }
+
+    /**
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new IndexIterator(first(), 0);
+    }
+
+    /**
+     * Finds the first value >= data. Each step goes to the left child, 2k,
+     * or the right child, 2k + 1, until it leaves the tree. When the search
+     * falls off the tree, the index of the last node where it went left,
+     * which is the answer, is recovered by shifting off the trailing right
+     * turns and that left turn.
+     * @return the index of the first value >= data, or 0 if there is none
+     */
+    private int lowerBound(T data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        Object[] keys = this.keys;
+        int n = this.size;
+        int index = 1;
+        while (index <= n) {
+            index = compare(data, keyAt(keys, index)) > 0 ? 2 * index + 1 : 2 * index;
+        }
+        return index >>> (Integer.numberOfTrailingZeros(~index) + 1);
+    }
+
+    /**
+     * Finds the first value > data, in the same way as lowerBound().
+     * @return the index of the first value > data, or 0 if there is none
+     */
+    private int upperBound(T data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        Object[] keys = this.keys;
+        int n = this.size;
+        int index = 1;
+        while (index <= n) {
+            index = compare(data, keyAt(keys, index)) >= 0 ? 2 * index + 1 : 2 * index;
+        }
+        return index >>> (Integer.numberOfTrailingZeros(~index) + 1);
+    }
+
+    /**
+     * @return the index of the smallest value, or 0 if the index is empty
+     */
+    private int first() {
+        if (this.size == 0) return 0;
+        int index = 1;
+        while (2 * index <= this.size) {
+            index = 2 * index;
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the largest value, or 0 if the index is empty
+     */
+    private int last() {
+        if (this.size == 0) return 0;
+        int index = 1;
+        while (2 * index + 1 <= this.size) {
+            index = 2 * index + 1;
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the value after the one at index, or 0 if it is
+     * the largest
+     */
+    private int successor(int index) {
+        if (2 * index + 1 <= this.size) {
+            // the leftmost node of the right subtree
+            index = 2 * index + 1;
+            while (2 * index <= this.size) {
+                index = 2 * index;
+            }
+            return index;
+        }
+        // climb past the ancestors whose right subtree we are in
+        while ((index & 1) == 1) {
+            index >>>= 1;
+        }
+        return index >>> 1;
+    }
+
+    /**
+     * @return the index of the value before the one at index, the largest
+     * value if index is 0, or 0 if it is the smallest
+     */
+    private int predecessor(int index) {
+        if (index == 0) return last();
+        if (2 * index <= this.size) {
+            // the rightmost node of the left subtree
+            index = 2 * index;
+            while (2 * index + 1 <= this.size) {
+                index = 2 * index + 1;
+            }
+            return index;
+        }
+        // climb past the ancestors whose left subtree we are in
+        while (index != 0 && (index & 1) == 0) {
+            index >>>= 1;
+        }
+        return index >>> 1;
+    }
+
+    /**
+     * @return the value at index, which must be between 1 and size
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T keyAt(Object[] keys, int index) {
+        return (T) keys[index];
+    }
+
+    private T keyAt(int index) {
+        return keyAt(this.keys, index);
+    }
+
+    /**
+     * @return the value at index, or null for index 0
+     */
+    private T valueAt(int index) {
+        return index == 0 ? null : keyAt(index);
+    }
+
+    /**
+     * Iterates over the values from the one at index start up to, but not
+     * including, the one at index end, where 0 stands for the end of the
+     * collection.
+     */
+    private class IndexIterator implements Iterator<T> {
+
+        // index of the next value, or 0 when done
+        private int next;
+        // index of the first value not to produce
+        private final int end;
+
+        private IndexIterator(int start, int end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != this.end && this.next != 0;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T value = keyAt(this.next);
+            this.next = successor(this.next);
+            return value;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 freezes trees of every size up to 70, so that every shape of the
+     * last level is covered, and checks each query against the tree
+     * @return true if the index always gives the tree's answer
+     */
+    public boolean test1() {
+        Random random = new Random(19);
+        for (int n = 0; n <= 70; n++) {
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int i = 0; i < n; i++) {
+                tree.insert(2 * random.nextInt(40));
+            }
+            EytzingerIndex<Integer> index = EytzingerIndex.freeze(tree);
+            if (index.size() != n || index.isEmpty() != (n == 0)) return false;
+            if (!Objects.equals(index.min(), tree.min()) || !Objects.equals(index.max(), tree.max())) return false;
+            for (int value = -1; value <= 81; value++) {
+                if (index.contains(value) != tree.contains(value)) return false;
+                if (!Objects.equals(index.floor(value), tree.floor(value))) return false;
+                if (!Objects.equals(index.lower(value), tree.lower(value))) return false;
+                if (!Objects.equals(index.ceiling(value), tree.ceiling(value))) return false;
+                if (!Objects.equals(index.higher(value), tree.higher(value))) return false;
+            }
+            Iterator<Integer> expected = tree.iterator();
+            for (int value : index) {
+                if (!expected.hasNext() || value != expected.next()) return false;
+            }
+            if (expected.hasNext()) return false;
+            expected = tree.range(10, 30).iterator();
+            for (int value : index.range(10, 30)) {
+                if (!expected.hasNext() || value != expected.next()) return false;
+            }
+            if (expected.hasNext()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test2 checks that freeze() works from other collections, that the
+     * index is independent of its source and that it cannot be changed
+     * @return true if the index is a read-only copy
+     */
+    public boolean test2() {
+        BinarySearchTree<String> tree = new BinarySearchTree<>();
+        for (String word : new String[] {"pear", "apple", "fig", "apple", "kiwi"}) {
+            tree.insert(word);
+        }
+        EytzingerIndex<String> index = tree.freeze();
+        tree.clear();
+        if (index.size() != 5 || !index.contains("fig") || index.contains("plum")) return false;
+        if (!index.ceiling("b").equals("fig") || !index.floor("b").equals("apple") || index.lower("apple") != null) return false;
+        StringBuilder sb = new StringBuilder();
+        for (String word : index.range("apple", "kiwi")) {
+            sb.append(word).append(' ');
+        }
+        if (!sb.toString().equals("apple apple fig kiwi ")) return false;
+        if (index.freeze() != index || index.range("z", "zz").iterator().hasNext()) return false;
+        try {
+            index.insert("plum");
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return index.size() == 5;
+        }
+    }
+
+    public static void main(String[] args) {
+        EytzingerIndex<Integer> faceOfTheOperations = EytzingerIndex.freeze(new RedBlackTree<Integer>());
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
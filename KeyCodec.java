@@ -0,0 +1,81 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Converts values to and from a fixed number of bytes, so that collections
+ * can keep them outside the Java heap, in memory-mapped files or direct
+ * buffers, and compare them where they are stored.
+ */
+public interface KeyCodec<T extends Comparable<T>> {
+
+    /**
+     * Stores integers as 4 big-endian bytes.
+     */
+    public static final KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        @Override
+        public int width() { return Integer.BYTES; }
+
+        @Override
+        public void encode(Integer value, ByteBuffer buffer, int offset) { buffer.putInt(offset, value); }
+
+        @Override
+        public Integer decode(ByteBuffer buffer, int offset) { return buffer.getInt(offset); }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, Integer value) {
+            return Integer.compare(buffer.getInt(offset), value);
+        }
+    };
+
+    /**
+     * Stores longs as 8 big-endian bytes.
+     */
+    public static final KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public int width() { return Long.BYTES; }
+
+        @Override
+        public void encode(Long value, ByteBuffer buffer, int offset) { buffer.putLong(offset, value); }
+
+        @Override
+        public Long decode(ByteBuffer buffer, int offset) { return buffer.getLong(offset); }
+
+        @Override
+        public int compare(ByteBuffer buffer, int offset, Long value) {
+            return Long.compare(buffer.getLong(offset), value);
+        }
+    };
+
+    /**
+     * @return the number of bytes every encoded value takes
+     */
+    public int width();
+
+    /**
+     * Writes value into buffer at offset, without moving its position.
+     * @param value the value to store
+     * @param buffer the buffer to write to
+     * @param offset the index of the first byte to write
+     */
+    public void encode(T value, ByteBuffer buffer, int offset);
+
+    /**
+     * Reads the value stored in buffer at offset, without moving its position.
+     * @param buffer the buffer to read from
+     * @param offset the index of the first byte to read
+     * @return the decoded value
+     */
+    public T decode(ByteBuffer buffer, int offset);
+
+    /**
+     * Compares the value stored in buffer at offset with value. Codecs
+     * should override this to compare without creating an object.
+     * @param buffer the buffer holding the stored value
+     * @param offset the index of the stored value's first byte
+     * @param value the value to compare with
+     * @return a negative number, zero, or a positive number as the stored
+     * value is less than, equal to, or greater than value
+     */
+    public default int compare(ByteBuffer buffer, int offset, T value) {
+        return decode(buffer, offset).compareTo(value);
+    }
+}
@@ -0,0 +1,593 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+/**
+ * A binary search tree of long values that stores its nodes in parallel arrays
+ * instead of BinaryTreeNode objects: node i holds keys[i] and the indices of
+ * its left child, right child and parent. Values are never boxed on the
+ * insert, contains and remove paths, and each node costs one long and three
+ * int indices instead of a node object plus a boxed Long.
+ *
+ * The tree behaves exactly like BinarySearchTree: it is not balanced, and a
+ * duplicate of a value already stored is spliced in as that node's left
+ * child. Slots of removed nodes are kept on a free list and reused.
+ */
+public class LongBinarySearchTree implements SortedCollection<Long> {
+
+    // index used for a missing child or parent
+    private static final int NIL = -1;
+    // number of node slots allocated by the default constructor
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // key stored in each node slot
+    protected long[] keys;
+    // index of each node's left child, or NIL; links the free list for free slots
+    protected int[] left;
+    // index of each node's right child, or NIL
+    protected int[] right;
+    // index of each node's parent, or NIL
+    protected int[] parent;
+
+    // index of the root node, or NIL for an empty tree
+    protected int root = NIL;
+    // number of values stored in the tree, including duplicates
+    protected int size = 0;
+    // number of slots that have ever been used, slots above this are untouched
+    protected int used = 0;
+    // first slot on the free list of removed nodes, or NIL
+    protected int freeHead = NIL;
+    // number of structural changes, used by iterators to detect changes
+    protected int modCount = 0;
+
+    /**
+     * Creates an empty tree.
+     */
+    public LongBinarySearchTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty tree with room for capacity nodes before its arrays
+     * need to grow.
+     * @param capacity the number of nodes to allocate room for
+     * @throws IllegalArgumentException if capacity is negative
+     */
+    public LongBinarySearchTree(int capacity) throws IllegalArgumentException {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+        }
+        this.keys = new long[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.parent = new int[capacity];
+    }
+
+    /**
+     * Inserts a new value into the tree without boxing it.
+     * @param data the new value being inserted
+     */
+    public void insert(long data) {
+        int node = allocate(data);
+        this.size++;
+        this.modCount++;
+        if (this.root == NIL) {
+            this.root = node;
+            return;
+        }
+        int current = this.root;
+        while (true) {
+            long key = this.keys[current];
+            if (data == key) {
+                // duplicate: becomes the left child, adopting the old left subtree
+                int oldLeft = this.left[current];
+                this.left[node] = oldLeft;
+                if (oldLeft != NIL) this.parent[oldLeft] = node;
+                this.left[current] = node;
+                this.parent[node] = current;
+                return;
+            }
+            int next = data < key ? this.left[current] : this.right[current];
+            if (next == NIL) {
+                if (data < key) {
+                    this.left[current] = node;
+                } else {
+                    this.right[current] = node;
+                }
+                this.parent[node] = current;
+                return;
+            }
+            current = next;
+        }
+    }
+
+    /**
+     * Inserts a new data value into the sorted collection.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public void insert(Long data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        insert(data.longValue());
+    }
+
+    /**
+     * Check whether data is stored in the tree, without boxing it.
+     * @param data the value to check for in the collection
+     * @return true if the tree contains data one or more times
+     */
+    public boolean contains(long data) {
+        return findNode(data) != NIL;
+    }
+
+    /**
+     * Check whether data is stored in the tree.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     */
+    @Override
+    public boolean contains(Long data) {
+        return contains(data.longValue());
+    }
+
+    /**
+     * Removes one occurrence of data from the tree, without boxing it.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not in the tree
+     */
+    public boolean remove(long data) {
+        int node = findNode(data);
+        if (node == NIL) return false;
+        this.size--;
+        this.modCount++;
+        if (this.left[node] != NIL && this.right[node] != NIL) {
+            // take the successor's key and remove the successor instead
+            int successor = leftmost(this.right[node]);
+            this.keys[node] = this.keys[successor];
+            node = successor;
+        }
+        int child = this.left[node] != NIL ? this.left[node] : this.right[node];
+        int up = this.parent[node];
+        if (up == NIL) {
+            this.root = child;
+        } else if (this.left[up] == node) {
+            this.left[up] = child;
+        } else {
+            this.right[up] = child;
+        }
+        if (child != NIL) this.parent[child] = up;
+        release(node);
+        return true;
+    }
+
+    /**
+     * Removes one occurrence of data from the collection.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not stored in
+     * the collection
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(Long data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        return remove(data.longValue());
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.root == NIL;
+    }
+
+    /**
+     * Removes all values and duplicates from the collection. The arrays are
+     * kept, so the tree can be refilled without allocating.
+     */
+    @Override
+    public void clear() {
+        this.root = NIL;
+        this.size = 0;
+        this.used = 0;
+        this.freeHead = NIL;
+        this.modCount++;
+    }
+
+    /**
+     * @return the smallest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public Long min() {
+        return this.root == NIL ? null : this.keys[leftmost(this.root)];
+    }
+
+    /**
+     * @return the largest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public Long max() {
+        if (this.root == NIL) return null;
+        int current = this.root;
+        while (this.right[current] != NIL) {
+            current = this.right[current];
+        }
+        return this.keys[current];
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public Long floor(Long data) throws NullPointerException {
+        return keyOf(floorNode(data.longValue(), true));
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public Long ceiling(Long data) throws NullPointerException {
+        return keyOf(ceilingNode(data.longValue(), true));
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public Long lower(Long data) throws NullPointerException {
+        return keyOf(floorNode(data.longValue(), false));
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public Long higher(Long data) throws NullPointerException {
+        return keyOf(ceilingNode(data.longValue(), false));
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<Long> range(Long lo, Long hi) throws NullPointerException, IllegalArgumentException {
+        long first = lo.longValue();
+        long last = hi.longValue();
+        if (first > last) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new InOrderIterator(ceilingNode(first, true), last);
+    }
+
+    /**
+     * Returns an iterator over the values in sorted order. The returned
+     * iterator also offers nextLong() to read values without boxing.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new InOrderIterator(this.root == NIL ? NIL : leftmost(this.root), Long.MAX_VALUE);
+    }
+
+    /**
+     * Passes every value in the tree to action, in sorted order, without
+     * boxing them.
+     * @param action the action to perform on each value
+     */
+    public void forEachLong(LongConsumer action) {
+        PrimitiveIterator.OfLong values = iterator();
+        while (values.hasNext()) {
+            action.accept(values.nextLong());
+        }
+    }
+
+    /**
+     * @return the approximate number of bytes used by the arrays of this tree
+     */
+    public long footprintBytes() {
+        return (long) this.keys.length * (Long.BYTES + 3 * Integer.BYTES);
+    }
+
+    /**
+     * Finds a node holding data.
+     * @return the index of a node whose key is data, or NIL if there is none
+     */
+    private int findNode(long data) {
+        int current = this.root;
+        while (current != NIL) {
+            long key = this.keys[current];
+            if (data == key) return current;
+            current = data < key ? this.left[current] : this.right[current];
+        }
+        return NIL;
+    }
+
+    /**
+     * Finds the last node in sorted order whose key is below data (or equal
+     * to it, when inclusive).
+     * @return the index of the matching node, or NIL if there is none
+     */
+    private int floorNode(long data, boolean inclusive) {
+        int best = NIL;
+        int current = this.root;
+        while (current != NIL) {
+            long key = this.keys[current];
+            if (data > key || (inclusive && data == key)) {
+                best = current;
+                current = this.right[current];
+            } else {
+                current = this.left[current];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the first node in sorted order whose key is above data (or equal
+     * to it, when inclusive).
+     * @return the index of the matching node, or NIL if there is none
+     */
+    private int ceilingNode(long data, boolean inclusive) {
+        int best = NIL;
+        int current = this.root;
+        while (current != NIL) {
+            long key = this.keys[current];
+            if (data < key || (inclusive && data == key)) {
+                best = current;
+                current = this.left[current];
+            } else {
+                current = this.right[current];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the index of the leftmost node in the subtree rooted at node
+     */
+    private int leftmost(int node) {
+        while (this.left[node] != NIL) {
+            node = this.left[node];
+        }
+        return node;
+    }
+
+    /**
+     * @return the index of the node following node in sorted order, or NIL
+     */
+    private int successor(int node) {
+        if (this.right[node] != NIL) {
+            return leftmost(this.right[node]);
+        }
+        int up = this.parent[node];
+        while (up != NIL && this.right[up] == node) {
+            node = up;
+            up = this.parent[node];
+        }
+        return up;
+    }
+
+    /**
+     * @return the key of node boxed, or null if node is NIL
+     */
+    private Long keyOf(int node) {
+        return node == NIL ? null : this.keys[node];
+    }
+
+    /**
+     * Takes a slot for a new leaf holding data, reusing a removed node's
+     * slot when there is one and growing the arrays when they are full.
+     * @return the index of the new node
+     */
+    private int allocate(long data) {
+        int node;
+        if (this.freeHead != NIL) {
+            node = this.freeHead;
+            this.freeHead = this.left[node];
+        } else {
+            if (this.used == this.keys.length) {
+                int capacity = Math.max(DEFAULT_CAPACITY, this.keys.length + (this.keys.length >> 1));
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.left = Arrays.copyOf(this.left, capacity);
+                this.right = Arrays.copyOf(this.right, capacity);
+                this.parent = Arrays.copyOf(this.parent, capacity);
+            }
+            node = this.used++;
+        }
+        this.keys[node] = data;
+        this.left[node] = NIL;
+        this.right[node] = NIL;
+        this.parent[node] = NIL;
+        return node;
+    }
+
+    /**
+     * Puts the slot of a removed node on the free list.
+     */
+    private void release(int node) {
+        this.left[node] = this.freeHead;
+        this.freeHead = node;
+    }
+
+    /**
+     * Iterates over the tree in sorted order by following parent links.
+     */
+    private class InOrderIterator implements PrimitiveIterator.OfLong {
+
+        // index of the node holding the next value, or NIL when done
+        private int next;
+        // the largest value to produce
+        private final long last;
+        // modCount of the tree when this iterator was created
+        private final int expectedModCount = LongBinarySearchTree.this.modCount;
+
+        private InOrderIterator(int first, long last) {
+            this.last = last;
+            this.next = first != NIL && keys[first] <= last ? first : NIL;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != NIL;
+        }
+
+        @Override
+        public long nextLong() {
+            if (this.next == NIL) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            long data = keys[this.next];
+            int following = successor(this.next);
+            this.next = following != NIL && keys[following] <= this.last ? following : NIL;
+            return data;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 tests insert(), contains(), and size(), including duplicates
+     * @return true if the basic operations work
+     */
+    public boolean test1() {
+        LongBinarySearchTree tree = new LongBinarySearchTree(2);
+        if (!tree.isEmpty() || tree.size() != 0 || tree.contains((long) 4)) return false;
+        long[] values = {4, 2, 6, 1, 7, 5, 6, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            tree.insert(value);
+        }
+        if (tree.size() != values.length) return false;
+        for (long value : values) {
+            if (!tree.contains(value)) return false;
+        }
+        if (tree.contains((long) 3) || tree.contains((long) 8)) return false;
+        // the duplicate 6 is spliced in as the left child of the first 6
+        int six = tree.right[tree.root];
+        if (tree.keys[six] != 6 || tree.keys[tree.left[six]] != 6 || tree.keys[tree.left[tree.left[six]]] != 5) return false;
+        if (!tree.contains((Long) (long) 7) || tree.contains((Long) (long) 9)) return false;
+        return true;
+    }
+
+    /**
+     * Test2 tests remove() and that removed slots are reused
+     * @return true if remove() works and keeps the tree ordered
+     */
+    public boolean test2() {
+        LongBinarySearchTree tree = new LongBinarySearchTree();
+        long[] values = {50, 30, 70, 20, 40, 60, 80, 65, 40};
+        for (long value : values) {
+            tree.insert(value);
+        }
+        if (!tree.remove((long) 50) || !tree.remove((long) 20) || !tree.remove((long) 60)) return false;
+        if (tree.remove((long) 50) || tree.size() != 6) return false;
+        if (!tree.remove((long) 40) || !tree.contains((long) 40)) return false;
+        int used = tree.used;
+        tree.insert((long) 10);
+        tree.insert((long) 90);
+        if (tree.used != used) return false; // both went into freed slots
+        StringBuilder sb = new StringBuilder();
+        tree.forEachLong(value -> sb.append(value).append(' '));
+        return sb.toString().equals("10 30 40 65 70 80 90 ");
+    }
+
+    /**
+     * Test3 tests the navigation queries and the range view
+     * @return true if they return the expected values
+     */
+    public boolean test3() {
+        LongBinarySearchTree tree = new LongBinarySearchTree();
+        if (tree.min() != null || tree.floor((Long) (long) 1) != null) return false;
+        for (long value = 0; value < 100; value += 10) {
+            tree.insert(value);
+        }
+        if (tree.min() != 0 || tree.max() != 90) return false;
+        if (tree.floor((Long) (long) 45) != 40 || tree.ceiling((Long) (long) 45) != 50) return false;
+        if (tree.lower((Long) (long) 40) != 30 || tree.higher((Long) (long) 40) != 50) return false;
+        if (tree.higher((Long) (long) 90) != null || tree.lower((Long) (long) 0) != null) return false;
+        long sum = 0;
+        for (Long value : tree.range((Long) (long) 15, (Long) (long) 50)) {
+            sum += value;
+        }
+        return sum == 20 + 30 + 40 + 50;
+    }
+
+    /**
+     * Test4 compares the tree against BinarySearchTree on random operations
+     * @return true if both trees always agree
+     */
+    public boolean test4() {
+        Random random = new Random(11);
+        LongBinarySearchTree tree = new LongBinarySearchTree();
+        BinarySearchTree<Long> reference = new BinarySearchTree<>();
+        for (int i = 0; i < 20000; i++) {
+            long value = random.nextInt(1000);
+            if (random.nextInt(3) == 0) {
+                if (tree.remove(value) != reference.remove(value)) return false;
+            } else {
+                tree.insert(value);
+                reference.insert(value);
+            }
+        }
+        if (tree.size() != reference.size()) return false;
+        Iterator<Long> expected = reference.iterator();
+        PrimitiveIterator.OfLong actual = tree.iterator();
+        while (expected.hasNext()) {
+            if (!actual.hasNext() || actual.nextLong() != expected.next()) return false;
+        }
+        return !actual.hasNext();
+    }
+
+    public static void main(String[] args) {
+        LongBinarySearchTree faceOfTheOperations = new LongBinarySearchTree();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+        System.out.println("Test 4 " + (faceOfTheOperations.test4() ? "passes" : "fails"));
+    }
+}
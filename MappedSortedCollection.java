@@ -0,0 +1,493 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A read-only SortedCollection stored in a file. write() saves the values of
+ * any SortedCollection as a compact sorted array of fixed-width keys, and
+ * open() maps that file into memory with a MappedByteBuffer. Lookups and
+ * range scans binary search and read the mapped pages directly, so opening
+ * a file of any size takes constant time and nothing is deserialized until
+ * a value is returned.
+ *
+ * File layout: one header page holding the magic number, format version,
+ * key width and value count, followed by the keys in sorted order,
+ * duplicates included, starting at the first page boundary.
+ */
+public class MappedSortedCollection<T extends Comparable<T>> implements SortedCollection<T> {
+
+    // identifies the file format: the bytes "BSTM"
+    public static final int MAGIC = 0x4253544D;
+    // version of the file format written by write()
+    public static final int VERSION = 1;
+    // size of a page; the keys start one page into the file
+    public static final int PAGE_SIZE = 4096;
+
+    // the mapped file
+    private final ByteBuffer buffer;
+    // converts keys to and from their bytes
+    private final KeyCodec<T> codec;
+    // number of bytes per key
+    private final int width;
+    // number of values stored, including duplicates
+    private final int size;
+
+    private MappedSortedCollection(ByteBuffer buffer, KeyCodec<T> codec, int size) {
+        this.buffer = buffer;
+        this.codec = codec;
+        this.width = codec.width();
+        this.size = size;
+    }
+
+    /**
+     * Saves the values of collection to file, replacing any existing file.
+     * The file is written under a temporary name and then moved into place,
+     * so a crash never leaves a partly written file behind.
+     * @param collection the values to save
+     * @param codec converts the values to bytes
+     * @param file where to save the values
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the values do not fit in a file
+     * that can be mapped, or the collection does not iterate in sorted order
+     */
+    public static <T extends Comparable<T>> void write(SortedCollection<T> collection, KeyCodec<T> codec, Path file)
+        throws IOException, IllegalArgumentException {
+        int width = codec.width();
+        int size = collection.size();
+        if ((long) size * width > Integer.MAX_VALUE - PAGE_SIZE) {
+            throw new IllegalArgumentException(size + " values of " + width + " bytes are too many to map");
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer page = ByteBuffer.allocate(PAGE_SIZE);
+            page.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(size);
+            page.clear();
+            writeFully(channel, page);
+
+            // keys are staged in a buffer that holds a whole number of keys
+            ByteBuffer chunk = ByteBuffer.allocate(Math.max(1, 65536 / width) * width);
+            T previous = null;
+            int written = 0;
+            for (T value : collection) {
+                if (previous != null && previous.compareTo(value) > 0) {
+                    throw new IllegalArgumentException("Collection is not sorted: " + value + " after " + previous);
+                }
+                if (chunk.position() == chunk.capacity()) {
+                    chunk.flip();
+                    writeFully(channel, chunk);
+                    chunk.clear();
+                }
+                codec.encode(value, chunk, chunk.position());
+                chunk.position(chunk.position() + width);
+                previous = value;
+                written++;
+            }
+            if (written != size) {
+                throw new IllegalArgumentException("Collection produced " + written + " values, not " + size);
+            }
+            chunk.flip();
+            writeFully(channel, chunk);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes all remaining bytes of buffer to channel.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Maps a file saved by write() into memory.
+     * @param file the file to open
+     * @param codec converts the stored bytes back into values; it must have
+     * the same width as the codec the file was written with
+     * @return a read-only collection backed by the mapped file
+     * @throws IOException if the file cannot be read, or is not a valid file
+     * for this codec
+     */
+    public static <T extends Comparable<T>> MappedSortedCollection<T> open(Path file, KeyCodec<T> codec)
+        throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < PAGE_SIZE) {
+                throw new IOException(file + " is too short to hold a header");
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not a mapped tree file");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " has unsupported version " + buffer.getInt(4));
+            }
+            if (buffer.getInt(8) != codec.width()) {
+                throw new IOException(file + " holds " + buffer.getInt(8) + " byte keys, but the codec uses "
+                    + codec.width());
+            }
+            int size = buffer.getInt(12);
+            if (size < 0 || PAGE_SIZE + (long) size * codec.width() != length) {
+                throw new IOException(file + " has length " + length + ", which does not match its " + size + " keys");
+            }
+            return new MappedSortedCollection<>(buffer, codec, size);
+        }
+    }
+
+    /**
+     * Not supported: the collection is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void insert(T data) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("A mapped collection is read-only");
+    }
+
+    /**
+     * Not supported: the collection is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(T data) throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("A mapped collection is read-only");
+    }
+
+    /**
+     * Not supported: the collection is read-only.
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void clear() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException("A mapped collection is read-only");
+    }
+
+    /**
+     * Check whether data is stored in the collection.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean contains(T data) throws NullPointerException {
+        int index = lowerBound(data);
+        return index < this.size && compareAt(index, data) == 0;
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T min() {
+        return valueAt(0);
+    }
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T max() {
+        return valueAt(this.size - 1);
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return valueAt(upperBound(data) - 1);
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return valueAt(lowerBound(data));
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return valueAt(lowerBound(data) - 1);
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return valueAt(upperBound(data));
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. Iteration reads the mapped keys
+     * sequentially, starting from a binary search for lo.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new IndexIterator(lowerBound(lo), upperBound(hi));
+    }
+
+    /**
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new IndexIterator(0, this.size);
+    }
+
+    /**
+     * @return the first index whose key is >= data, or size if there is none
+     */
+    private int lowerBound(T data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareAt(middle, data) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first index whose key is > data, or size if there is none
+     */
+    private int upperBound(T data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareAt(middle, data) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the key at index with data, in place in the mapped file.
+     */
+    private int compareAt(int index, T data) {
+        return this.codec.compare(this.buffer, PAGE_SIZE + index * this.width, data);
+    }
+
+    /**
+     * @return the value at index, or null if index is out of range
+     */
+    private T valueAt(int index) {
+        if (index < 0 || index >= this.size) return null;
+        return this.codec.decode(this.buffer, PAGE_SIZE + index * this.width);
+    }
+
+    /**
+     * Iterates over the values at indices from up to, but not including, end.
+     */
+    private class IndexIterator implements Iterator<T> {
+
+        // index of the next value
+        private int next;
+        // index one past the last value
+        private final int end;
+
+        private IndexIterator(int start, int end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.end;
+        }
+
+        @Override
+        public T next() {
+            if (this.next >= this.end) {
+                throw new NoSuchElementException();
+            }
+            return valueAt(this.next++);
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 saves a RedBlackTree with duplicates, reopens it, and checks that
+     * every query gives the same answer as on the tree
+     * @return true if the mapped collection matches the tree it was saved from
+     */
+    public boolean test1() {
+        Path file = null;
+        try {
+            file = Files.createTempFile("mapped", ".tree");
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            Random random = new Random(12);
+            for (int i = 0; i < 5000; i++) {
+                tree.insert(random.nextInt(3000) - 1500);
+            }
+            MappedSortedCollection.write(tree, KeyCodec.INTEGER, file);
+            if (Files.size(file) != PAGE_SIZE + 5000 * 4) return false;
+            MappedSortedCollection<Integer> mapped = MappedSortedCollection.open(file, KeyCodec.INTEGER);
+            if (mapped.size() != 5000 || !mapped.min().equals(tree.min()) || !mapped.max().equals(tree.max())) return false;
+            for (int value = -1600; value <= 1600; value++) {
+                if (mapped.contains(value) != tree.contains(value)) return false;
+                if (!Objects.equals(mapped.floor(value), tree.floor(value))) return false;
+                if (!Objects.equals(mapped.lower(value), tree.lower(value))) return false;
+                if (!Objects.equals(mapped.ceiling(value), tree.ceiling(value))) return false;
+                if (!Objects.equals(mapped.higher(value), tree.higher(value))) return false;
+            }
+            Iterator<Integer> expected = tree.range(-100, 100).iterator();
+            for (int value : mapped.range(-100, 100)) {
+                if (!expected.hasNext() || value != expected.next()) return false;
+            }
+            if (expected.hasNext()) return false;
+            expected = tree.iterator();
+            for (int value : mapped) {
+                if (value != expected.next()) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Test2 checks empty collections, the read-only methods, and that open()
+     * rejects files it cannot read
+     * @return true if every problem is reported with the right exception
+     */
+    public boolean test2() {
+        Path file = null;
+        try {
+            file = Files.createTempFile("mapped", ".tree");
+            MappedSortedCollection.write(new BinarySearchTree<Long>(), KeyCodec.LONG, file);
+            MappedSortedCollection<Long> empty = MappedSortedCollection.open(file, KeyCodec.LONG);
+            if (!empty.isEmpty() || empty.min() != null || empty.floor(5L) != null || empty.iterator().hasNext()) return false;
+            try {
+                empty.insert(1L);
+                return false;
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            try {
+                MappedSortedCollection.open(file, KeyCodec.INTEGER);
+                return false;
+            } catch (IOException e) {
+                // expected: the file holds 8 byte keys
+            }
+            Files.write(file, new byte[PAGE_SIZE]);
+            try {
+                MappedSortedCollection.open(file, KeyCodec.LONG);
+                return false;
+            } catch (IOException e) {
+                // expected: no magic number
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Deletes a test file, ignoring any failure.
+     */
+    private static void deleteQuietly(Path file) {
+        try {
+            if (file != null) Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // nothing useful to do in a test
+        }
+    }
+
+    public static void main(String[] args) {
+        MappedSortedCollection<Integer> faceOfTheOperations = new MappedSortedCollection<>(
+            ByteBuffer.allocate(PAGE_SIZE), KeyCodec.INTEGER, 0);
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,612 @@
+import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * A binary search tree that keeps its nodes outside the Java heap. Every node
+ * is a fixed-size record in one direct ByteBuffer arena: the indices of its
+ * left child, right child and parent, followed by its key encoded by a
+ * KeyCodec. The garbage collector sees a single buffer object no matter how
+ * many values are stored, so a large tree adds nothing to marking time.
+ *
+ * The tree behaves exactly like BinarySearchTree: it is not balanced, and a
+ * duplicate of a value already stored is spliced in as that node's left
+ * child. Records of removed nodes are kept on a free list and reused, and
+ * clear() empties the arena at once and keeps it for the next values.
+ * release() empties the tree and also drops an arena that has grown, so its
+ * native memory can be given back.
+ */
+public class OffHeapSortedCollection<T extends Comparable<T>> implements SortedCollection<T> {
+
+    // index used for a missing child or parent
+    private static final int NIL = -1;
+    // number of node records allocated by the default constructor
+    private static final int DEFAULT_CAPACITY = 16;
+    // byte offsets of the fields within a node record
+    private static final int LEFT = 0;
+    private static final int RIGHT = 4;
+    private static final int PARENT = 8;
+    private static final int KEY = 12;
+
+    // converts keys to and from their bytes
+    private final KeyCodec<T> codec;
+    // number of bytes per node record
+    private final int stride;
+    // number of node records allocated when the tree is created or released
+    private final int initialCapacity;
+    // the node records; the left field links the free list for free records
+    protected ByteBuffer arena;
+
+    // index of the root node, or NIL for an empty tree
+    protected int root = NIL;
+    // number of values stored in the tree, including duplicates
+    protected int size = 0;
+    // number of records that have ever been used, records above this are untouched
+    protected int used = 0;
+    // first record on the free list of removed nodes, or NIL
+    protected int freeHead = NIL;
+    // number of structural changes, used by iterators to detect changes
+    protected int modCount = 0;
+
+    /**
+     * Creates an empty tree.
+     * @param codec converts the values to and from bytes
+     */
+    public OffHeapSortedCollection(KeyCodec<T> codec) {
+        this(codec, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty tree with room for capacity nodes before its arena
+     * needs to grow.
+     * @param codec converts the values to and from bytes
+     * @param capacity the number of nodes to allocate room for
+     * @throws IllegalArgumentException if capacity is negative or too large
+     * for one buffer
+     */
+    public OffHeapSortedCollection(KeyCodec<T> codec, int capacity) throws IllegalArgumentException {
+        this.codec = codec;
+        this.stride = KEY + codec.width();
+        if (capacity < 0 || capacity > Integer.MAX_VALUE / this.stride) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.initialCapacity = capacity;
+        this.arena = ByteBuffer.allocateDirect(capacity * this.stride);
+    }
+
+    /**
+     * Inserts a new data value into the sorted collection.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        int node = allocate(data);
+        this.size++;
+        this.modCount++;
+        if (this.root == NIL) {
+            this.root = node;
+            return;
+        }
+        int current = this.root;
+        while (true) {
+            int cmp = compare(current, data);
+            if (cmp == 0) {
+                // duplicate: becomes the left child, adopting the old left subtree
+                int oldLeft = left(current);
+                setLeft(node, oldLeft);
+                if (oldLeft != NIL) setParent(oldLeft, node);
+                setLeft(current, node);
+                setParent(node, current);
+                return;
+            }
+            int next = cmp > 0 ? left(current) : right(current);
+            if (next == NIL) {
+                if (cmp > 0) {
+                    setLeft(current, node);
+                } else {
+                    setRight(current, node);
+                }
+                setParent(node, current);
+                return;
+            }
+            current = next;
+        }
+    }
+
+    /**
+     * Check whether data is stored in the tree.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean contains(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        return findNode(data) != NIL;
+    }
+
+    /**
+     * Removes one occurrence of data from the tree.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not in the tree
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        int node = findNode(data);
+        if (node == NIL) return false;
+        this.size--;
+        this.modCount++;
+        if (left(node) != NIL && right(node) != NIL) {
+            // take the successor's key and remove the successor instead
+            int successor = leftmost(right(node));
+            copyKey(successor, node);
+            node = successor;
+        }
+        int child = left(node) != NIL ? left(node) : right(node);
+        int up = parent(node);
+        if (up == NIL) {
+            this.root = child;
+        } else if (left(up) == node) {
+            setLeft(up, child);
+        } else {
+            setRight(up, child);
+        }
+        if (child != NIL) setParent(child, up);
+        release(node);
+        return true;
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.root == NIL;
+    }
+
+    /**
+     * Removes all values and duplicates from the collection in O(1). The
+     * arena is kept, and new nodes are written from its start again, so a
+     * tree that is filled and cleared repeatedly only grows its arena when
+     * a fill needs more nodes than any before it. Use release() to give the
+     * memory of a grown arena back.
+     */
+    @Override
+    public void clear() {
+        this.root = NIL;
+        this.size = 0;
+        this.used = 0;
+        this.freeHead = NIL;
+        this.modCount++;
+    }
+
+    /**
+     * Removes all values like clear() and, in O(1), drops an arena that grew
+     * beyond its initial capacity in favour of a new one of that capacity.
+     * The native memory of a direct buffer is freed once the garbage
+     * collector reclaims the buffer, so it is returned at the next collection
+     * rather than immediately.
+     */
+    public void release() {
+        clear();
+        if (this.arena.capacity() > this.initialCapacity * this.stride) {
+            this.arena = ByteBuffer.allocateDirect(this.initialCapacity * this.stride);
+        }
+    }
+
+    /**
+     * @return the smallest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public T min() {
+        return this.root == NIL ? null : keyOf(leftmost(this.root));
+    }
+
+    /**
+     * @return the largest value in the tree, or null if the tree is empty
+     */
+    @Override
+    public T max() {
+        if (this.root == NIL) return null;
+        int current = this.root;
+        while (right(current) != NIL) {
+            current = right(current);
+        }
+        return keyOf(current);
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return keyOf(floorNode(data, true));
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return keyOf(ceilingNode(data, true));
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return keyOf(floorNode(data, false));
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return keyOf(ceilingNode(data, false));
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new InOrderIterator(ceilingNode(lo, true), hi);
+    }
+
+    /**
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator(this.root == NIL ? NIL : leftmost(this.root), null);
+    }
+
+    /**
+     * @return the number of bytes of native memory held by the arena
+     */
+    public long footprintBytes() {
+        return this.arena.capacity();
+    }
+
+    /**
+     * Finds a node holding data.
+     * @return the index of a node whose key is data, or NIL if there is none
+     */
+    private int findNode(T data) {
+        int current = this.root;
+        while (current != NIL) {
+            int cmp = compare(current, data);
+            if (cmp == 0) return current;
+            current = cmp > 0 ? left(current) : right(current);
+        }
+        return NIL;
+    }
+
+    /**
+     * Finds the last node in sorted order whose key is below data (or equal
+     * to it, when inclusive).
+     * @return the index of the matching node, or NIL if there is none
+     */
+    private int floorNode(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        int best = NIL;
+        int current = this.root;
+        while (current != NIL) {
+            int cmp = compare(current, data);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                best = current;
+                current = right(current);
+            } else {
+                current = left(current);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the first node in sorted order whose key is above data (or equal
+     * to it, when inclusive).
+     * @return the index of the matching node, or NIL if there is none
+     */
+    private int ceilingNode(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        int best = NIL;
+        int current = this.root;
+        while (current != NIL) {
+            int cmp = compare(current, data);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                best = current;
+                current = left(current);
+            } else {
+                current = right(current);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the index of the leftmost node in the subtree rooted at node
+     */
+    private int leftmost(int node) {
+        while (left(node) != NIL) {
+            node = left(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return the index of the node following node in sorted order, or NIL
+     */
+    private int successor(int node) {
+        if (right(node) != NIL) {
+            return leftmost(right(node));
+        }
+        int up = parent(node);
+        while (up != NIL && right(up) == node) {
+            node = up;
+            up = parent(node);
+        }
+        return up;
+    }
+
+    /**
+     * Compares the key of node with data, in place in the arena.
+     */
+    private int compare(int node, T data) {
+        return this.codec.compare(this.arena, node * this.stride + KEY, data);
+    }
+
+    /**
+     * @return the key of node, or null if node is NIL
+     */
+    private T keyOf(int node) {
+        return node == NIL ? null : this.codec.decode(this.arena, node * this.stride + KEY);
+    }
+
+    /**
+     * Copies the key bytes of node from into node to.
+     */
+    private void copyKey(int from, int to) {
+        int source = from * this.stride + KEY;
+        int target = to * this.stride + KEY;
+        for (int i = 0; i < this.codec.width(); i++) {
+            this.arena.put(target + i, this.arena.get(source + i));
+        }
+    }
+
+    private int left(int node) { return this.arena.getInt(node * this.stride + LEFT); }
+
+    private int right(int node) { return this.arena.getInt(node * this.stride + RIGHT); }
+
+    private int parent(int node) { return this.arena.getInt(node * this.stride + PARENT); }
+
+    private void setLeft(int node, int child) { this.arena.putInt(node * this.stride + LEFT, child); }
+
+    private void setRight(int node, int child) { this.arena.putInt(node * this.stride + RIGHT, child); }
+
+    private void setParent(int node, int up) { this.arena.putInt(node * this.stride + PARENT, up); }
+
+    /**
+     * Takes a record for a new leaf holding data, reusing a removed node's
+     * record when there is one and growing the arena when it is full.
+     * @return the index of the new node
+     * @throws IllegalStateException if the arena cannot grow any further
+     */
+    private int allocate(T data) throws IllegalStateException {
+        int node;
+        if (this.freeHead != NIL) {
+            node = this.freeHead;
+            this.freeHead = left(node);
+        } else {
+            int capacity = this.arena.capacity() / this.stride;
+            if (this.used == capacity) {
+                int maxCapacity = Integer.MAX_VALUE / this.stride;
+                if (capacity == maxCapacity) {
+                    throw new IllegalStateException("Arena is full at " + capacity + " nodes");
+                }
+                long grown = Math.max(DEFAULT_CAPACITY, capacity + (capacity >> 1));
+                ByteBuffer larger = ByteBuffer.allocateDirect((int) Math.min(grown, maxCapacity) * this.stride);
+                larger.put(this.arena.duplicate().clear());
+                this.arena = larger;
+            }
+            node = this.used++;
+        }
+        this.codec.encode(data, this.arena, node * this.stride + KEY);
+        setLeft(node, NIL);
+        setRight(node, NIL);
+        setParent(node, NIL);
+        return node;
+    }
+
+    /**
+     * Puts the record of a removed node on the free list.
+     */
+    private void release(int node) {
+        setLeft(node, this.freeHead);
+        this.freeHead = node;
+    }
+
+    /**
+     * Iterates over the tree in sorted order by following parent links.
+     */
+    private class InOrderIterator implements Iterator<T> {
+
+        // index of the node holding the next value, or NIL when done
+        private int next;
+        // the largest value to produce, or null for no limit
+        private final T last;
+        // modCount of the tree when this iterator was created
+        private final int expectedModCount = OffHeapSortedCollection.this.modCount;
+
+        private InOrderIterator(int first, T last) {
+            this.last = last;
+            this.next = withinLimit(first);
+        }
+
+        /**
+         * @return node, or NIL if node's key is above the limit
+         */
+        private int withinLimit(int node) {
+            return node != NIL && (this.last == null || compare(node, this.last) <= 0) ? node : NIL;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next != NIL;
+        }
+
+        @Override
+        public T next() {
+            if (this.next == NIL) {
+                throw new NoSuchElementException();
+            }
+            if (modCount != this.expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            T data = keyOf(this.next);
+            this.next = withinLimit(successor(this.next));
+            return data;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 tests insert(), contains(), remove(), and arena growth, including
+     * duplicates and reuse of freed records
+     * @return true if the basic operations work
+     */
+    public boolean test1() {
+        OffHeapSortedCollection<Long> tree = new OffHeapSortedCollection<>(KeyCodec.LONG, 2);
+        if (!tree.isEmpty() || tree.contains(4L) || tree.min() != null) return false;
+        long[] values = {50, 30, 70, 20, 40, 60, 80, 65, 40, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long value : values) {
+            tree.insert(value);
+        }
+        if (tree.size() != values.length || tree.footprintBytes() < values.length * 20L) return false;
+        for (long value : values) {
+            if (!tree.contains(value)) return false;
+        }
+        if (tree.contains(55L) || tree.min() != Long.MIN_VALUE || tree.max() != Long.MAX_VALUE) return false;
+        if (!tree.remove(50L) || !tree.remove(20L) || !tree.remove(40L) || tree.remove(50L)) return false;
+        if (!tree.contains(40L) || tree.size() != values.length - 3) return false;
+        int used = tree.used;
+        tree.insert(10L);
+        tree.insert(90L);
+        if (tree.used != used) return false; // both went into freed records
+        StringBuilder sb = new StringBuilder();
+        for (long value : tree.range(0L, 100L)) {
+            sb.append(value).append(' ');
+        }
+        return sb.toString().equals("10 30 40 60 65 70 80 90 ");
+    }
+
+    /**
+     * Test2 compares the tree against BinarySearchTree on random operations,
+     * and checks that clear() keeps the grown arena and refills it, while
+     * release() gives it back
+     * @return true if both trees always agree
+     */
+    public boolean test2() {
+        Random random = new Random(13);
+        OffHeapSortedCollection<Integer> tree = new OffHeapSortedCollection<>(KeyCodec.INTEGER);
+        BinarySearchTree<Integer> reference = new BinarySearchTree<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (tree.remove(value) != reference.remove(value)) return false;
+                    break;
+                case 1:
+                    if (!Objects.equals(tree.floor(value), reference.floor(value))) return false;
+                    if (!Objects.equals(tree.higher(value), reference.higher(value))) return false;
+                    break;
+                default:
+                    tree.insert(value);
+                    reference.insert(value);
+            }
+        }
+        if (tree.size() != reference.size()) return false;
+        Iterator<Integer> expected = reference.iterator();
+        for (int value : tree) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        ByteBuffer arena = tree.arena;
+        int count = tree.size();
+        tree.clear();
+        if (!tree.isEmpty() || tree.iterator().hasNext() || tree.arena != arena) return false;
+        for (int i = 0; i < count; i++) {
+            tree.insert(i);
+        }
+        if (tree.arena != arena || tree.size() != count || tree.min() != 0 || tree.max() != count - 1) return false;
+        tree.release();
+        if (!tree.isEmpty() || tree.footprintBytes() != DEFAULT_CAPACITY * 16) return false;
+        tree.insert(7);
+        return tree.size() == 1 && tree.contains(7);
+    }
+
+    public static void main(String[] args) {
+        OffHeapSortedCollection<Integer> faceOfTheOperations = new OffHeapSortedCollection<>(KeyCodec.INTEGER);
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,1052 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A SortedCollection built from immutable nodes. An update never changes a
+ * node: it copies the O(log n) nodes on the path from the root to the
+ * change, and the copies share every untouched subtree with the previous
+ * version. Old versions therefore stay valid forever, and snapshot() only
+ * has to remember the current root.
+ *
+ * The nodes hold no parent link, which is what makes the sharing possible:
+ * a subtree that belongs to several versions can have several parents. The
+ * tree is kept balanced with AVL rotations performed on the copies, and each
+ * distinct value is stored once, with the number of times it was inserted.
+ *
+ * insert(), remove() and clear() switch this collection to a new version and
+ * must be called from one thread at a time. snapshot() and the read methods
+ * may be called from any thread at any time: they see the version that was
+ * current when they started, and iterators never throw
+ * ConcurrentModificationException.
+ *
+ * Versions can be split at a key and joined back in O(log n) time, and the
+ * union, intersection and difference of two versions are computed by
+ * splitting one tree at the root of the other and combining both halves,
+ * which is done in parallel for large trees.
+ */
+public class PersistentSortedCollection<T extends Comparable<T>> implements SortedCollection<T> {
+
+    /**
+     * An immutable node. Besides its value and children it caches the height
+     * and the number of values of its subtree, duplicates included.
+     */
+    protected static final class Node<T> {
+        final T data;
+        // number of times data is stored
+        final int count;
+        final Node<T> left;
+        final Node<T> right;
+        // number of nodes on the longest path down to a leaf
+        final int height;
+        // number of values in this subtree, duplicates included
+        final int size;
+
+        Node(T data, int count, Node<T> left, Node<T> right) {
+            this.data = data;
+            this.count = count;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.size = count + size(left) + size(right);
+        }
+    }
+
+    // the current version of the tree; volatile so that other threads see
+    // a fully built version when they take a snapshot
+    protected volatile Node<T> root;
+
+    /**
+     * Creates an empty collection.
+     */
+    public PersistentSortedCollection() {
+        this(null);
+    }
+
+    /**
+     * Creates a collection whose current version is the tree below root.
+     */
+    protected PersistentSortedCollection(Node<T> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns an immutable view of the current version, in O(1) time. Later
+     * changes to this collection do not affect the snapshot.
+     * @return a collection holding the current values
+     */
+    public PersistentSortedCollection<T> snapshot() {
+        return new Snapshot<>(this.root);
+    }
+
+    /**
+     * Returns a new version with data added, leaving this collection as it
+     * is. Only the nodes on the path to data are copied.
+     * @param data the value to add
+     * @return a collection holding the values of this one plus data
+     * @throws NullPointerException if data argument is null
+     */
+    public PersistentSortedCollection<T> inserted(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        return new Snapshot<>(insert(this.root, data));
+    }
+
+    /**
+     * Returns a new version with one occurrence of data removed, leaving this
+     * collection as it is.
+     * @param data the value to remove
+     * @return a collection holding the values of this one minus data, or
+     * this collection's current version if data is not stored
+     * @throws NullPointerException if data argument is null
+     */
+    public PersistentSortedCollection<T> removed(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        Node<T> current = this.root;
+        return new Snapshot<>(findNode(current, data) == null ? current : remove(current, data));
+    }
+
+    /**
+     * Builds a persistent copy of source in O(n) time, from its values in
+     * sorted order.
+     * @param source the collection to copy
+     * @return a collection holding the same values, duplicates included
+     */
+    public static <T extends Comparable<T>> PersistentSortedCollection<T> copyOf(SortedCollection<T> source) {
+        List<T> values = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        for (T value : source) {
+            int last = values.size() - 1;
+            if (last >= 0 && values.get(last).compareTo(value) == 0) {
+                counts.set(last, counts.get(last) + 1);
+            } else {
+                values.add(value);
+                counts.add(1);
+            }
+        }
+        return new PersistentSortedCollection<>(build(values, counts, 0, values.size()));
+    }
+
+    /**
+     * Splits the current version around key, in O(log n) time.
+     * @param key the value to split at
+     * @return the values below key, the number of times key is stored, and
+     * the values above key
+     * @throws NullPointerException if key argument is null
+     */
+    public Split<T> split(T key) throws NullPointerException {
+        if (key == null) {
+            throw new NullPointerException("Cannot split at null");
+        }
+        Parts<T> parts = split(this.root, key);
+        return new Split<>(new Snapshot<>(parts.left), parts.match == null ? 0 : parts.match.count,
+            new Snapshot<>(parts.right));
+    }
+
+    /**
+     * Joins two collections and a key between them into a new version, in
+     * O(|height(below) - height(above)|) time.
+     * @param below the values smaller than key
+     * @param key a value stored once in the result
+     * @param above the values larger than key
+     * @return a collection holding the values of below, key and above
+     * @throws NullPointerException if any argument is null
+     * @throws IllegalArgumentException if below holds a value that is not
+     * smaller than key, or above one that is not larger
+     */
+    public static <T extends Comparable<T>> PersistentSortedCollection<T> join(PersistentSortedCollection<T> below,
+        T key, PersistentSortedCollection<T> above) throws NullPointerException, IllegalArgumentException {
+        if (key == null) {
+            throw new NullPointerException("Cannot join at null");
+        }
+        Node<T> left = below.root;
+        Node<T> right = above.root;
+        if ((left != null && rightmost(left).data.compareTo(key) >= 0) || (right != null && leftmost(right).data.compareTo(key) <= 0)) {
+            throw new IllegalArgumentException("Values must be below and above " + key);
+        }
+        return new Snapshot<>(join(left, key, 1, right));
+    }
+
+    /**
+     * Returns a new version holding the values of both collections. A value
+     * stored i times here and j times in other is stored i + j times, as if
+     * every value of other had been inserted. Large inputs are split into
+     * subtrees that are combined in parallel on the common ForkJoinPool.
+     * @param other the collection to add
+     * @return the union of the current versions of both collections
+     */
+    public PersistentSortedCollection<T> union(PersistentSortedCollection<T> other) {
+        return combine(Operation.UNION, other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a new version holding the values stored in both collections. A
+     * value stored i times here and j times in other is stored min(i, j)
+     * times. Large inputs are combined in parallel, as for union().
+     * @param other the collection to intersect with
+     * @return the intersection of the current versions of both collections
+     */
+    public PersistentSortedCollection<T> intersection(PersistentSortedCollection<T> other) {
+        return combine(Operation.INTERSECTION, other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a new version holding the values of this collection that are
+     * not in other. A value stored i times here and j times in other is
+     * stored max(i - j, 0) times, as if every value of other had been
+     * removed. Large inputs are combined in parallel, as for union().
+     * @param other the collection to subtract
+     * @return the difference of the current versions of both collections
+     */
+    public PersistentSortedCollection<T> difference(PersistentSortedCollection<T> other) {
+        return combine(Operation.DIFFERENCE, other, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Combines the current versions of this collection and other on pool.
+     */
+    PersistentSortedCollection<T> combine(Operation operation, PersistentSortedCollection<T> other, ForkJoinPool pool) {
+        return new Snapshot<>(pool.invoke(new SetOperation<>(operation, this.root, other.root)));
+    }
+
+    /**
+     * Inserts a new data value into the sorted collection, by switching to a
+     * new version that holds it.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null");
+        }
+        this.root = insert(this.root, data);
+    }
+
+    /**
+     * Removes one occurrence of data from the collection, by switching to a
+     * new version without it.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not stored in
+     * the collection
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null");
+        }
+        Node<T> current = this.root;
+        if (findNode(current, data) == null) return false;
+        this.root = remove(current, data);
+        return true;
+    }
+
+    /**
+     * Removes all values and duplicates from the collection. Snapshots taken
+     * earlier keep their values.
+     */
+    @Override
+    public void clear() {
+        this.root = null;
+    }
+
+    /**
+     * Check whether data is stored in the collection.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     */
+    @Override
+    public boolean contains(T data) {
+        return data != null && findNode(this.root, data) != null;
+    }
+
+    /**
+     * Counts the number of values in the collection, with each duplicate value
+     * being counted separately within the value returned.
+     * @return the number of values in the collection, including duplicates
+     */
+    @Override
+    public int size() {
+        return size(this.root);
+    }
+
+    /**
+     * Checks if the collection is empty.
+     * @return true if the collection contains 0 values, false otherwise
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.root == null;
+    }
+
+    /**
+     * @return the height of the current version, 0 when it is empty
+     */
+    public int height() {
+        return height(this.root);
+    }
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T min() {
+        Node<T> node = this.root;
+        return node == null ? null : leftmost(node).data;
+    }
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    @Override
+    public T max() {
+        Node<T> node = this.root;
+        return node == null ? null : rightmost(node).data;
+    }
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T floor(T data) throws NullPointerException {
+        return below(data, true);
+    }
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T ceiling(T data) throws NullPointerException {
+        return above(data, true);
+    }
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T lower(T data) throws NullPointerException {
+        return below(data, false);
+    }
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    @Override
+    public T higher(T data) throws NullPointerException {
+        return above(data, false);
+    }
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. Each iteration walks the version
+     * that is current when it starts.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    @Override
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException {
+        if (lo == null || hi == null) {
+            throw new NullPointerException("Range bounds cannot be null");
+        }
+        if (lo.compareTo(hi) > 0) {
+            throw new IllegalArgumentException("Range start " + lo + " is after range end " + hi);
+        }
+        return () -> new InOrderIterator<>(this.root, lo, hi);
+    }
+
+    /**
+     * Returns an iterator over the version that is current now. Changes made
+     * afterwards are not seen by the iterator.
+     * @return an iterator over all values in sorted order
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new InOrderIterator<>(this.root, null, null);
+    }
+
+    /**
+     * @return the height of node's subtree, 0 for null
+     */
+    protected static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /**
+     * @return the number of values in node's subtree, 0 for null
+     */
+    protected static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Finds a node holding data.
+     * @return a node whose value is equal to data, or null if there is none
+     */
+    protected static <T> Node<T> findNode(Node<T> node, Comparable<T> data) {
+        while (node != null) {
+            int cmp = data.compareTo(node.data);
+            if (cmp == 0) return node;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy of the tree below node with data added
+     */
+    protected static <T extends Comparable<T>> Node<T> insert(Node<T> node, T data) {
+        if (node == null) return new Node<>(data, 1, null, null);
+        int cmp = data.compareTo(node.data);
+        if (cmp == 0) return new Node<>(node.data, node.count + 1, node.left, node.right);
+        if (cmp < 0) return balance(node.data, node.count, insert(node.left, data), node.right);
+        return balance(node.data, node.count, node.left, insert(node.right, data));
+    }
+
+    /**
+     * @return a copy of the tree below node with one occurrence of data
+     * removed; data must be stored in it
+     */
+    protected static <T extends Comparable<T>> Node<T> remove(Node<T> node, T data) {
+        int cmp = data.compareTo(node.data);
+        if (cmp < 0) return balance(node.data, node.count, remove(node.left, data), node.right);
+        if (cmp > 0) return balance(node.data, node.count, node.left, remove(node.right, data));
+        if (node.count > 1) return new Node<>(node.data, node.count - 1, node.left, node.right);
+        if (node.left == null) return node.right;
+        if (node.right == null) return node.left;
+        // replace the value with its successor, which moves up from the right
+        Node<T> successor = leftmost(node.right);
+        return balance(successor.data, successor.count, node.left, removeMin(node.right));
+    }
+
+    /**
+     * @return a copy of the tree below node without its leftmost node
+     */
+    protected static <T> Node<T> removeMin(Node<T> node) {
+        if (node.left == null) return node.right;
+        return balance(node.data, node.count, removeMin(node.left), node.right);
+    }
+
+    /**
+     * @return a copy of the tree below node without its rightmost node
+     */
+    protected static <T> Node<T> removeMax(Node<T> node) {
+        if (node.right == null) return node.left;
+        return balance(node.data, node.count, node.left, removeMax(node.right));
+    }
+
+    /**
+     * @return the leftmost node below node, which must not be null
+     */
+    protected static <T> Node<T> leftmost(Node<T> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    /**
+     * @return the rightmost node below node, which must not be null
+     */
+    protected static <T> Node<T> rightmost(Node<T> node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Joins two trees and a value between them into one balanced tree. The
+     * taller tree is descended along its inner spine until a subtree about
+     * as tall as the other tree is found, which takes time proportional to
+     * the difference in height.
+     * @return the root of a tree holding left, data (count times) and right
+     */
+    protected static <T> Node<T> join(Node<T> left, T data, int count, Node<T> right) {
+        if (height(left) > height(right) + 1) return joinRight(left, data, count, right);
+        if (height(right) > height(left) + 1) return joinLeft(left, data, count, right);
+        return new Node<>(data, count, left, right);
+    }
+
+    /**
+     * Joins when left is the taller tree, by descending its right spine.
+     */
+    private static <T> Node<T> joinRight(Node<T> left, T data, int count, Node<T> right) {
+        if (height(left.right) <= height(right) + 1) {
+            return balance(left.data, left.count, left.left, new Node<>(data, count, left.right, right));
+        }
+        return balance(left.data, left.count, left.left, joinRight(left.right, data, count, right));
+    }
+
+    /**
+     * Joins when right is the taller tree, by descending its left spine.
+     */
+    private static <T> Node<T> joinLeft(Node<T> left, T data, int count, Node<T> right) {
+        if (height(right.left) <= height(left) + 1) {
+            return balance(right.data, right.count, new Node<>(data, count, left, right.left), right.right);
+        }
+        return balance(right.data, right.count, joinLeft(left, data, count, right.left), right.right);
+    }
+
+    /**
+     * Joins two trees where every value of left is below every value of
+     * right, by using the largest value of left as the middle value.
+     */
+    protected static <T> Node<T> join(Node<T> left, Node<T> right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        Node<T> last = rightmost(left);
+        return join(removeMax(left), last.data, last.count, right);
+    }
+
+    /**
+     * The result of splitting a tree at a key.
+     */
+    private static final class Parts<T> {
+        // the values below the key, the node holding the key or null, and
+        // the values above the key
+        final Node<T> left;
+        final Node<T> match;
+        final Node<T> right;
+
+        Parts(Node<T> left, Node<T> match, Node<T> right) {
+            this.left = left;
+            this.match = match;
+            this.right = right;
+        }
+    }
+
+    /**
+     * Splits the tree below node around key, in O(log n) time: the subtrees
+     * hanging off the search path are joined back together on either side.
+     */
+    private static <T extends Comparable<T>> Parts<T> split(Node<T> node, T key) {
+        if (node == null) return new Parts<>(null, null, null);
+        int cmp = key.compareTo(node.data);
+        if (cmp == 0) return new Parts<>(node.left, node, node.right);
+        if (cmp < 0) {
+            Parts<T> parts = split(node.left, key);
+            return new Parts<>(parts.left, parts.match, join(parts.right, node.data, node.count, node.right));
+        }
+        Parts<T> parts = split(node.right, key);
+        return new Parts<>(join(node.left, node.data, node.count, parts.left), parts.match, parts.right);
+    }
+
+    /**
+     * Builds a perfectly balanced tree from the sorted distinct values
+     * between from (inclusive) and to (exclusive).
+     */
+    private static <T> Node<T> build(List<T> values, List<Integer> counts, int from, int to) {
+        if (from >= to) return null;
+        int middle = (from + to) >>> 1;
+        return new Node<>(values.get(middle), counts.get(middle),
+            build(values, counts, from, middle), build(values, counts, middle + 1, to));
+    }
+
+    /**
+     * The set operations supported by SetOperation.
+     */
+    enum Operation {
+        UNION, INTERSECTION, DIFFERENCE
+    }
+
+    /**
+     * Combines two trees with a set operation. The root of the first tree
+     * splits the second one, the two halves are combined recursively and
+     * joined back around the root. The halves share no mutable state, since
+     * nodes never change, so above PARALLEL_THRESHOLD values the left half
+     * is forked while this thread works on the right half. Tasks are never
+     * serialized, although ForkJoinTask is Serializable.
+     */
+    @SuppressWarnings("serial")
+    private static final class SetOperation<T extends Comparable<T>> extends RecursiveTask<Node<T>> {
+
+        // below this many values in both trees together the work is done
+        // sequentially, where forking would cost more than it saves
+        private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+        private final Operation operation;
+        private final Node<T> first;
+        private final Node<T> second;
+
+        SetOperation(Operation operation, Node<T> first, Node<T> second) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected Node<T> compute() {
+            return combine(this.first, this.second, true);
+        }
+
+        /**
+         * @return the tree holding the result of the operation on a and b
+         */
+        private Node<T> combine(Node<T> a, Node<T> b, boolean parallel) {
+            if (a == null) return this.operation == Operation.UNION ? b : null;
+            if (b == null) return this.operation == Operation.INTERSECTION ? null : a;
+            Parts<T> parts = PersistentSortedCollection.split(b, a.data);
+            Node<T> left, right;
+            if (parallel && size(a) + size(b) > PARALLEL_THRESHOLD) {
+                SetOperation<T> leftTask = new SetOperation<>(this.operation, a.left, parts.left);
+                leftTask.fork();
+                right = combine(a.right, parts.right, true);
+                left = leftTask.join();
+            } else {
+                left = combine(a.left, parts.left, false);
+                right = combine(a.right, parts.right, false);
+            }
+            int other = parts.match == null ? 0 : parts.match.count;
+            int count;
+            switch (this.operation) {
+                case UNION:
+                    count = a.count + other;
+                    break;
+                case INTERSECTION:
+                    count = Math.min(a.count, other);
+                    break;
+                default:
+                    count = a.count - other;
+            }
+            return count > 0 ? PersistentSortedCollection.join(left, a.data, count, right)
+                : PersistentSortedCollection.join(left, right);
+        }
+    }
+
+    /**
+     * Creates a node from its parts, restoring the AVL property with a single
+     * or double rotation if the heights of left and right differ by two.
+     * Rotations create new nodes instead of changing the existing ones.
+     * @return the root of the balanced subtree
+     */
+    protected static <T> Node<T> balance(T data, int count, Node<T> left, Node<T> right) {
+        int difference = height(left) - height(right);
+        if (difference > 1) {
+            if (height(left.left) >= height(left.right)) {
+                // single right rotation
+                return new Node<>(left.data, left.count, left.left, new Node<>(data, count, left.right, right));
+            }
+            // left-right: the left child's right child becomes the root
+            Node<T> middle = left.right;
+            return new Node<>(middle.data, middle.count,
+                new Node<>(left.data, left.count, left.left, middle.left),
+                new Node<>(data, count, middle.right, right));
+        }
+        if (difference < -1) {
+            if (height(right.right) >= height(right.left)) {
+                // single left rotation
+                return new Node<>(right.data, right.count, new Node<>(data, count, left, right.left), right.right);
+            }
+            // right-left: the right child's left child becomes the root
+            Node<T> middle = right.left;
+            return new Node<>(middle.data, middle.count,
+                new Node<>(data, count, left, middle.left),
+                new Node<>(right.data, right.count, middle.right, right.right));
+        }
+        return new Node<>(data, count, left, right);
+    }
+
+    /**
+     * Finds the last value below data (or equal to it, when inclusive).
+     */
+    private T below(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        T best = null;
+        Node<T> node = this.root;
+        while (node != null) {
+            int cmp = data.compareTo(node.data);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                best = node.data;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the first value above data (or equal to it, when inclusive).
+     */
+    private T above(T data, boolean inclusive) {
+        if (data == null) {
+            throw new NullPointerException("Cannot search for null");
+        }
+        T best = null;
+        Node<T> node = this.root;
+        while (node != null) {
+            int cmp = data.compareTo(node.data);
+            if (cmp < 0 || (inclusive && cmp == 0)) {
+                best = node.data;
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The result of split(): the values below the key, how often the key
+     * itself is stored, and the values above it.
+     */
+    public static final class Split<T extends Comparable<T>> {
+        private final PersistentSortedCollection<T> below;
+        private final int count;
+        private final PersistentSortedCollection<T> above;
+
+        private Split(PersistentSortedCollection<T> below, int count, PersistentSortedCollection<T> above) {
+            this.below = below;
+            this.count = count;
+            this.above = above;
+        }
+
+        /**
+         * @return an immutable collection of the values below the key
+         */
+        public PersistentSortedCollection<T> below() {
+            return this.below;
+        }
+
+        /**
+         * @return the number of times the key was stored, 0 if it was not
+         */
+        public int count() {
+            return this.count;
+        }
+
+        /**
+         * @return an immutable collection of the values above the key
+         */
+        public PersistentSortedCollection<T> above() {
+            return this.above;
+        }
+    }
+
+    /**
+     * An immutable version of the tree, returned by snapshot(), inserted()
+     * and removed().
+     */
+    private static final class Snapshot<T extends Comparable<T>> extends PersistentSortedCollection<T> {
+
+        private Snapshot(Node<T> root) {
+            super(root);
+        }
+
+        /**
+         * @return this snapshot, which never changes
+         */
+        @Override
+        public PersistentSortedCollection<T> snapshot() {
+            return this;
+        }
+
+        @Override
+        public void insert(T data) throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("A snapshot is immutable, use inserted() instead");
+        }
+
+        @Override
+        public boolean remove(T data) throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("A snapshot is immutable, use removed() instead");
+        }
+
+        @Override
+        public void clear() throws UnsupportedOperationException {
+            throw new UnsupportedOperationException("A snapshot is immutable");
+        }
+    }
+
+    /**
+     * Iterates over one version of the tree in sorted order. Nodes have no
+     * parent links, so the path back up is kept on a stack.
+     */
+    private static final class InOrderIterator<T extends Comparable<T>> implements Iterator<T> {
+
+        // the nodes whose values and right subtrees are still to be visited
+        private final Deque<Node<T>> path = new ArrayDeque<>();
+        // the largest value to produce, or null for no limit
+        private final T last;
+        // the node whose value is being produced, and how often it still is
+        private Node<T> current;
+        private int remaining = 0;
+
+        private InOrderIterator(Node<T> root, T first, T last) {
+            this.last = last;
+            // push the path to the first value >= first
+            Node<T> node = root;
+            while (node != null) {
+                if (first == null || first.compareTo(node.data) <= 0) {
+                    this.path.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+            advance();
+        }
+
+        /**
+         * Moves to the next node, or to none when past the limit.
+         */
+        private void advance() {
+            this.current = null;
+            if (this.path.isEmpty()) return;
+            Node<T> node = this.path.pop();
+            if (this.last != null && node.data.compareTo(this.last) > 0) {
+                this.path.clear();
+                return;
+            }
+            this.current = node;
+            this.remaining = node.count;
+            for (Node<T> child = node.right; child != null; child = child.left) {
+                this.path.push(child);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.current != null;
+        }
+
+        @Override
+        public T next() {
+            if (this.current == null) {
+                throw new NoSuchElementException();
+            }
+            T data = this.current.data;
+            if (--this.remaining == 0) advance();
+            return data;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 compares the collection against a RedBlackTree on random
+     * operations, and checks that it stays AVL balanced
+     * @return true if both always agree
+     */
+    public boolean test1() {
+        Random random = new Random(17);
+        PersistentSortedCollection<Integer> collection = new PersistentSortedCollection<>();
+        RedBlackTree<Integer> reference = new RedBlackTree<>();
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (collection.remove(value) != reference.remove(value)) return false;
+                    break;
+                case 1:
+                    if (collection.contains(value) != reference.contains(value)) return false;
+                    if (!Objects.equals(collection.floor(value), reference.floor(value))) return false;
+                    if (!Objects.equals(collection.lower(value), reference.lower(value))) return false;
+                    if (!Objects.equals(collection.ceiling(value), reference.ceiling(value))) return false;
+                    if (!Objects.equals(collection.higher(value), reference.higher(value))) return false;
+                    break;
+                default:
+                    collection.insert(value);
+                    reference.insert(value);
+            }
+        }
+        if (collection.size() != reference.size() || !isBalanced(collection.root)) return false;
+        Iterator<Integer> expected = reference.range(200, 400).iterator();
+        for (int value : collection.range(200, 400)) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        if (expected.hasNext()) return false;
+        expected = reference.iterator();
+        for (int value : collection) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        return !expected.hasNext();
+    }
+
+    /**
+     * @return true if every node below node satisfies the AVL property and
+     * caches the right height and size
+     */
+    private static boolean isBalanced(Node<?> node) {
+        if (node == null) return true;
+        return Math.abs(height(node.left) - height(node.right)) <= 1
+            && node.height == 1 + Math.max(height(node.left), height(node.right))
+            && node.size == node.count + size(node.left) + size(node.right)
+            && isBalanced(node.left) && isBalanced(node.right);
+    }
+
+    /**
+     * Test2 checks that snapshots and old versions are unaffected by later
+     * changes, and that a new version shares the subtrees it did not touch
+     * @return true if every version keeps its own values
+     */
+    public boolean test2() {
+        PersistentSortedCollection<Integer> collection = new PersistentSortedCollection<>();
+        for (int i = 0; i < 1000; i++) {
+            collection.insert(i);
+        }
+        PersistentSortedCollection<Integer> snapshot = collection.snapshot();
+        Iterator<Integer> iterator = collection.iterator();
+        collection.remove(0);
+        collection.insert(5000);
+        collection.insert(5000);
+        if (snapshot.size() != 1000 || !snapshot.contains(0) || snapshot.contains(5000)) return false;
+        if (collection.size() != 1001 || collection.contains(0) || collection.max() != 5000) return false;
+        // the iterator still walks the version from before the changes
+        if (iterator.next() != 0) return false;
+
+        PersistentSortedCollection<Integer> larger = snapshot.inserted(2000);
+        if (snapshot.contains(2000) || !larger.contains(2000) || larger.size() != 1001) return false;
+        // 2000 goes into the right subtree, so the left one is shared
+        if (larger.root.left != snapshot.root.left || larger.height() > 1 + snapshot.height()) return false;
+        if (larger.removed(2000).size() != 1000 || larger.removed(-1).root != larger.root) return false;
+        try {
+            snapshot.insert(1);
+            return false;
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        collection.clear();
+        return collection.isEmpty() && snapshot.size() == 1000 && snapshot.snapshot() == snapshot;
+    }
+
+    /**
+     * Test3 splits a collection at every kind of key and joins the parts
+     * back together, including parts of very different heights
+     * @return true if the parts hold the right values and stay balanced
+     */
+    public boolean test3() {
+        PersistentSortedCollection<Integer> collection = new PersistentSortedCollection<>();
+        for (int i = 0; i < 1000; i += 2) {
+            collection.insert(i);
+        }
+        collection.insert(500);
+        Split<Integer> split = collection.split(500);
+        if (split.count() != 2 || split.below().size() != 250 || split.above().size() != 249) return false;
+        if (split.below().max() != 498 || split.above().min() != 502) return false;
+        if (!isBalanced(split.below().root) || !isBalanced(split.above().root)) return false;
+        split = collection.split(3);
+        if (split.count() != 0 || split.below().size() != 2 || split.above().size() != 499) return false;
+        // joining a single value with a large tree descends its spine
+        PersistentSortedCollection<Integer> joined = join(split.below(), 3, split.above());
+        if (joined.size() != 502 || !joined.contains(3) || !isBalanced(joined.root)) return false;
+        joined = join(new PersistentSortedCollection<>(), -1, joined);
+        if (joined.min() != -1 || !isBalanced(joined.root)) return false;
+        try {
+            join(split.below(), 2, split.above());
+            return false;
+        } catch (IllegalArgumentException e) {
+            // expected, 2 is already below the key
+        }
+        // the original is unchanged by all of the above
+        return collection.size() == 501 && isBalanced(collection.root);
+    }
+
+    /**
+     * Test4 compares union, intersection and difference against counting
+     * every value, on trees large enough to be combined in parallel
+     * @return true if every value is stored the expected number of times
+     */
+    public boolean test4() {
+        Random random = new Random(18);
+        int[] countsA = new int[5000];
+        int[] countsB = new int[5000];
+        RedBlackTree<Integer> source = new RedBlackTree<>();
+        PersistentSortedCollection<Integer> b = new PersistentSortedCollection<>();
+        for (int i = 0; i < 40000; i++) {
+            int value = random.nextInt(countsA.length);
+            if (random.nextBoolean()) {
+                countsA[value]++;
+                source.insert(value);
+            } else {
+                countsB[value]++;
+                b.insert(value);
+            }
+        }
+        PersistentSortedCollection<Integer> a = copyOf(source);
+        if (a.size() != source.size() || !isBalanced(a.root)) return false;
+        PersistentSortedCollection<Integer> union = a.union(b);
+        PersistentSortedCollection<Integer> intersection = a.intersection(b);
+        PersistentSortedCollection<Integer> difference = a.difference(b);
+        if (!isBalanced(union.root) || !isBalanced(intersection.root) || !isBalanced(difference.root)) return false;
+        int[] unionCounts = countValues(union, countsA.length);
+        int[] intersectionCounts = countValues(intersection, countsA.length);
+        int[] differenceCounts = countValues(difference, countsA.length);
+        for (int value = 0; value < countsA.length; value++) {
+            if (unionCounts[value] != countsA[value] + countsB[value]) return false;
+            if (intersectionCounts[value] != Math.min(countsA[value], countsB[value])) return false;
+            if (differenceCounts[value] != Math.max(countsA[value] - countsB[value], 0)) return false;
+        }
+        // a pool with one worker and the sequential path give the same result
+        List<PersistentSortedCollection<Integer>> others = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            others.add(a.combine(Operation.UNION, b, pool));
+        } finally {
+            pool.shutdown();
+        }
+        SetOperation<Integer> operation = new SetOperation<>(Operation.UNION, a.root, b.root);
+        others.add(new Snapshot<>(operation.combine(a.root, b.root, false)));
+        for (PersistentSortedCollection<Integer> other : others) {
+            Iterator<Integer> expected = union.iterator();
+            for (int value : other) {
+                if (!expected.hasNext() || value != expected.next()) return false;
+            }
+            if (expected.hasNext()) return false;
+        }
+        return a.union(new PersistentSortedCollection<>()).root == a.root;
+    }
+
+    /**
+     * @return how often each value below limit is stored in collection
+     */
+    private static int[] countValues(PersistentSortedCollection<Integer> collection, int limit) {
+        int[] counts = new int[limit];
+        for (int value : collection) {
+            counts[value]++;
+        }
+        return counts;
+    }
+
+    public static void main(String[] args) {
+        PersistentSortedCollection<Integer> faceOfTheOperations = new PersistentSortedCollection<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+        System.out.println("Test 4 " + (faceOfTheOperations.test4() ? "passes" : "fails"));
+    }
+}
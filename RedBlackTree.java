@@ -0,0 +1,669 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+/**
+ * A self-balancing red-black tree built on top of the rotations provided by
+ * BSTRotation. Every insert and remove restores the red-black properties, so
+ * the height of the tree never exceeds 2 * log2(n + 1) and insert, contains
+ * and remove all run in O(log n) time, even for sorted input.
+ *
+ * Duplicate values follow the same left-insertion rule as BinarySearchTree:
+ * a value equal to one already stored is placed in that node's left subtree.
+ */
+public class RedBlackTree<T> extends BSTRotation<T> {
+
+    /**
+     * Node type used by the red-black tree: a BinaryTreeNode that also
+     * remembers its color. New nodes are always red.
+     */
+    protected static class RBTNode<T> extends BinaryTreeNode<T> {
+
+        // true when this node is black, false when it is red
+        protected boolean isBlack = false;
+
+        /**
+         * Creates a new red node holding data.
+         * @param data the value the new node stores
+         */
+        public RBTNode(T data) { super(data); }
+
+        @Override
+        protected void reset(T newData) {
+            super.reset(newData);
+            this.isBlack = false;
+        }
+
+        @Override
+        public RBTNode<T> childLeft() { return (RBTNode<T>) this.left; }
+
+        @Override
+        public RBTNode<T> childRight() { return (RBTNode<T>) this.right; }
+
+        @Override
+        public RBTNode<T> parent() { return (RBTNode<T>) this.up; }
+    }
+
+    /**
+     * Creates an empty red-black tree that does not track subtree sizes.
+     */
+    public RedBlackTree() {
+        super();
+    }
+
+    /**
+     * Creates an empty red-black tree that optionally keeps per-node subtree
+     * sizes, so that rank() and select() run in O(log n) time.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     */
+    public RedBlackTree(boolean trackSubtreeSizes) {
+        super(trackSubtreeSizes);
+    }
+
+    /**
+     * Creates an empty red-black tree that optionally keeps per-node subtree
+     * sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     */
+    public RedBlackTree(boolean trackSubtreeSizes, boolean compressDuplicates) {
+        super(trackSubtreeSizes, compressDuplicates);
+    }
+
+    /**
+     * Creates an empty red-black tree that orders its values with comparator
+     * instead of their natural order.
+     * @param comparator the order of the values, or null for natural order
+     */
+    public RedBlackTree(Comparator<? super T> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates an empty red-black tree that orders its values by the long key
+     * keyExtractor extracts from them, which every node caches.
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public RedBlackTree(ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(keyExtractor);
+    }
+
+    /**
+     * Creates an empty red-black tree ordered by comparator that optionally keeps
+     * per-node subtree sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param comparator the order of the values, or null for natural order
+     */
+    public RedBlackTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator) {
+        super(trackSubtreeSizes, compressDuplicates, comparator);
+    }
+
+    /**
+     * Creates an empty red-black tree ordered by the long key keyExtractor extracts
+     * from the values, that optionally keeps per-node subtree sizes and
+     * optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public RedBlackTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(trackSubtreeSizes, compressDuplicates, keyExtractor);
+    }
+
+    /**
+     * Creates a tree holding the values of an array that is already sorted,
+     * in O(n) time. The resulting tree has the minimum possible height.
+     * @param sorted the values to store, in non-decreasing order
+     * @return a new red-black tree holding all of the values
+     * @throws NullPointerException if the array or any of its values is null
+     * @throws IllegalArgumentException if the values are not sorted
+     */
+    public static <T extends Comparable<T>> RedBlackTree<T> fromSorted(T[] sorted)
+        throws NullPointerException, IllegalArgumentException {
+        RedBlackTree<T> rbt = new RedBlackTree<>();
+        rbt.loadSorted(Arrays.asList(sorted).iterator(), sorted.length);
+        return rbt;
+    }
+
+    /**
+     * Creates a new red node holding data.
+     * @param data the value the new node stores
+     * @return a new RBTNode holding data
+     */
+    @Override
+    protected BinaryTreeNode<T> newNode(T data) {
+        return new RBTNode<>(data);
+    }
+
+    /**
+     * Colors the nodes of a minimum-height tree built by loadSorted(): every
+     * leaf sits on one of the last two levels, so making the nodes on the
+     * last level red and all others black gives every path the same number
+     * of black nodes.
+     * @param node the node that was just built
+     * @param depth the depth of node, the root being at depth 1
+     * @param height the height of the whole tree being built
+     */
+    @Override
+    protected void initBulkLoadedNode(BinaryTreeNode<T> node, int depth, int height) {
+        ((RBTNode<T>) node).isBlack = depth < height || depth == 1;
+    }
+
+    /**
+     * Inserts a new data value into the tree and rebalances it.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null into a RedBlackTree");
+        }
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        this.size++;
+        this.modCount++;
+        if (this.root == null) {
+            this.root = createNode(data);
+            enforceRBTreePropertiesAfterInsert((RBTNode<T>) this.root);
+            if (this.metrics != null) recordInsert(1, true, start);
+            return;
+        }
+        long key = keyOf(data);
+        // walk down to a leaf, sending duplicates to the left
+        BinaryTreeNode<T> current = this.root;
+        int depth = 1;
+        boolean goLeft;
+        while (true) {
+            if (this.trackSubtreeSizes) current.subtreeSize++;
+            int cmp = compare(data, key, current);
+            if (cmp == 0 && this.compressDuplicates) {
+                current.count++;
+                if (this.metrics != null) recordInsert(depth, false, start);
+                return;
+            }
+            goLeft = cmp <= 0;
+            BinaryTreeNode<T> next = goLeft ? current.childLeft() : current.childRight();
+            if (next == null) break;
+            current = next;
+            depth++;
+        }
+        RBTNode<T> newNode = (RBTNode<T>) createNode(data);
+        if (goLeft) {
+            current.setChildLeft(newNode);
+        } else {
+            current.setChildRight(newNode);
+        }
+        newNode.setParent(current);
+        enforceRBTreePropertiesAfterInsert(newNode);
+        if (this.metrics != null) recordInsert(depth + 1, true, start);
+    }
+
+    /**
+     * Takes node out of the tree and rebalances it. As in BinarySearchTree,
+     * a node with two children takes its successor's value and the successor
+     * is unlinked instead.
+     * @param node the node whose value is being removed
+     * @return the parent of the node that was physically unlinked, or null
+     * if that node was the root
+     */
+    @Override
+    protected BinaryTreeNode<T> removeNode(BinaryTreeNode<T> node) {
+        if (node.childLeft() != null && node.childRight() != null) {
+            BinaryTreeNode<T> successor = leftmost(node.childRight());
+            node.setData(successor.getData());
+            node.key = successor.key;
+            node.setCount(successor.count());
+            node = successor;
+        }
+
+        RBTNode<T> removed = (RBTNode<T>) node;
+        RBTNode<T> child = removed.childLeft() != null ? removed.childLeft() : removed.childRight();
+        if (child != null) {
+            // removed is black with a single red child: splice it out and
+            // recolor the child to keep the black height
+            BinaryTreeNode<T> parent = removed.parent();
+            replaceInParent(removed, child);
+            recycle(removed);
+            child.isBlack = true;
+            updateSubtreeSizesFrom(parent);
+            return parent;
+        }
+        // removed is a leaf: take it out of the subtree sizes first, so the
+        // rotations below see consistent sizes
+        removed.subtreeSize = 0;
+        updateSubtreeSizesFrom(removed.parent());
+        // removing a black leaf shortens its path, so fix that up while the
+        // leaf is still in place
+        if (removed.isBlack) {
+            enforceRBTreePropertiesAfterRemove(removed);
+        }
+        BinaryTreeNode<T> parent = removed.parent();
+        replaceInParent(removed, null);
+        recycle(removed);
+        return parent;
+    }
+
+    /**
+     * Checks the red-black tree properties after newNode was inserted as a
+     * red leaf, and resolves any red-red violations through recoloring and
+     * rotations.
+     * @param newNode the red node that was just inserted
+     */
+    protected void enforceRBTreePropertiesAfterInsert(RBTNode<T> newNode) {
+        RBTNode<T> node = newNode;
+        while (node.parent() != null && !node.parent().isBlack) {
+            RBTNode<T> parent = node.parent();
+            // the root is black, so a red parent always has a parent of its own
+            RBTNode<T> grandparent = parent.parent();
+            boolean parentIsLeft = grandparent.childLeft() == parent;
+            RBTNode<T> aunt = parentIsLeft ? grandparent.childRight() : grandparent.childLeft();
+
+            if (aunt != null && !aunt.isBlack) {
+                // red aunt: push the blackness down from the grandparent
+                parent.isBlack = true;
+                aunt.isBlack = true;
+                grandparent.isBlack = false;
+                node = grandparent;
+            } else {
+                // black aunt: first straighten a zig-zag into a line
+                if (parentIsLeft == node.isRightChild()) {
+                    rotate(node, parent);
+                    node = parent;
+                    parent = node.parent();
+                }
+                rotate(parent, grandparent);
+                parent.isBlack = true;
+                grandparent.isBlack = false;
+            }
+        }
+        ((RBTNode<T>) this.root).isBlack = true;
+    }
+
+    /**
+     * Restores the red-black tree properties before a black leaf is removed.
+     * The leaf is treated as "double black", and that extra blackness is
+     * moved up the tree or absorbed through recoloring and rotations.
+     * @param leaf the black leaf that is about to be removed
+     */
+    protected void enforceRBTreePropertiesAfterRemove(RBTNode<T> leaf) {
+        RBTNode<T> node = leaf;
+        while (node != this.root && node.isBlack) {
+            RBTNode<T> parent = node.parent();
+            boolean nodeIsLeft = parent.childLeft() == node;
+            RBTNode<T> sibling = nodeIsLeft ? parent.childRight() : parent.childLeft();
+
+            if (!sibling.isBlack) {
+                // red sibling: rotate so that the sibling is black
+                sibling.isBlack = true;
+                parent.isBlack = false;
+                rotate(sibling, parent);
+                sibling = nodeIsLeft ? parent.childRight() : parent.childLeft();
+            }
+
+            RBTNode<T> near = nodeIsLeft ? sibling.childLeft() : sibling.childRight();
+            RBTNode<T> far = nodeIsLeft ? sibling.childRight() : sibling.childLeft();
+            if (isBlack(near) && isBlack(far)) {
+                // both nephews black: recolor and move the problem up
+                sibling.isBlack = false;
+                node = parent;
+            } else {
+                if (isBlack(far)) {
+                    // only the near nephew is red: rotate it into the far position
+                    near.isBlack = true;
+                    sibling.isBlack = false;
+                    rotate(near, sibling);
+                    far = sibling;
+                    sibling = near;
+                }
+                sibling.isBlack = parent.isBlack;
+                parent.isBlack = true;
+                far.isBlack = true;
+                rotate(sibling, parent);
+                node = (RBTNode<T>) this.root;
+            }
+        }
+        node.isBlack = true;
+    }
+
+    /**
+     * Checks the structure of the tree: parent links, ordering, a black
+     * root, no red node with a red child, and the same number of black nodes
+     * on every path from the root to a leaf.
+     * @return the black height of the tree (0 for an empty tree)
+     * @throws IllegalStateException when any of these properties is violated
+     */
+    public int validate() throws IllegalStateException {
+        if (this.root == null) return 0;
+        if (this.root.parent() != null) {
+            throw new IllegalStateException("Root has a parent");
+        }
+        if (!((RBTNode<T>) this.root).isBlack) {
+            throw new IllegalStateException("Root is red");
+        }
+        return validateHelper((RBTNode<T>) this.root);
+    }
+
+    /**
+     * Private helper for validate method
+     * @param node the root of the subtree being checked
+     * @return the black height of the subtree
+     */
+    private int validateHelper(RBTNode<T> node) {
+        if (node == null) return 0;
+        RBTNode<T> left = node.childLeft();
+        RBTNode<T> right = node.childRight();
+        if (left != null && (left.parent() != node || compare(left.getData(), left.key, node) > 0)) {
+            throw new IllegalStateException("Bad left child under " + node);
+        }
+        if (right != null && (right.parent() != node || compare(right.getData(), right.key, node) < 0)) {
+            throw new IllegalStateException("Bad right child under " + node);
+        }
+        if (this.trackSubtreeSizes && node.subtreeSize() != node.count() + subtreeSize(left) + subtreeSize(right)) {
+            throw new IllegalStateException("Wrong subtree size at " + node);
+        }
+        if (!node.isBlack && (!isBlack(left) || !isBlack(right))) {
+            throw new IllegalStateException("Red node " + node + " has a red child");
+        }
+        int leftBlackHeight = validateHelper(left);
+        int rightBlackHeight = validateHelper(right);
+        if (leftBlackHeight != rightBlackHeight) {
+            throw new IllegalStateException("Unequal black heights under " + node);
+        }
+        return leftBlackHeight + (node.isBlack ? 1 : 0);
+    }
+
+    /**
+     * @return true if node is black, treating null leaves as black
+     */
+    private static boolean isBlack(RBTNode<?> node) {
+        return node == null || node.isBlack;
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 inserts sorted values, which would make a plain BinarySearchTree
+     * degenerate, and checks the tree stays valid and logarithmic in height
+     * @return true if the tree stays balanced
+     */
+    public boolean test1() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        for (int i = 0; i < 10000; i++) {
+            rbt.insert(i);
+        }
+        rbt.validate();
+        if (rbt.size() != 10000) return false;
+        // a red-black tree with n nodes has height at most 2 * log2(n + 1)
+        if (rbt.height() > 2 * (32 - Integer.numberOfLeadingZeros(10001))) return false;
+        for (int i = 0; i < 10000; i++) {
+            if (!rbt.contains(i)) return false;
+        }
+        if (rbt.contains(-1) || rbt.contains(10000)) return false;
+        return true;
+    }
+
+    /**
+     * Test2 checks the recoloring and rotation cases of insert on a small tree
+     * @return true if the nodes end up in the expected places and colors
+     */
+    public boolean test2() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        rbt.insert(10);
+        rbt.insert(5);
+        rbt.insert(2); // left-left case: single right rotation at the root
+        if (rbt.root.getData() != 5) return false;
+        if (rbt.root.childLeft().getData() != 2 || rbt.root.childRight().getData() != 10) return false;
+        if (!((RBTNode<Integer>) rbt.root).isBlack) return false;
+        if (((RBTNode<Integer>) rbt.root.childLeft()).isBlack) return false;
+
+        rbt.insert(7); // red aunt: recolor only
+        if (!((RBTNode<Integer>) rbt.root.childLeft()).isBlack) return false;
+        if (!((RBTNode<Integer>) rbt.root.childRight()).isBlack) return false;
+
+        rbt.insert(8); // left-right case: double rotation under 10
+        if (rbt.root.childRight().getData() != 8) return false;
+        if (rbt.root.childRight().childLeft().getData() != 7) return false;
+        if (rbt.root.childRight().childRight().getData() != 10) return false;
+        rbt.validate();
+        return true;
+    }
+
+    /**
+     * Test3 checks that duplicates are stored and the tree stays valid
+     * @return true if duplicates are handled
+     */
+    public boolean test3() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        for (int i = 0; i < 500; i++) {
+            rbt.insert(i % 7);
+        }
+        rbt.validate();
+        if (rbt.size() != 500) return false;
+        for (int i = 0; i < 7; i++) {
+            if (!rbt.contains(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Test4 removes values in random order and checks the tree stays valid
+     * after every removal
+     * @return true if remove() works and keeps the tree balanced
+     */
+    public boolean test4() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            values.add(i % 1500);
+        }
+        Collections.shuffle(values, new Random(42));
+        for (int value : values) {
+            rbt.insert(value);
+        }
+        Collections.shuffle(values, new Random(7));
+        int expectedSize = values.size();
+        for (int value : values) {
+            if (!rbt.remove(value)) return false;
+            expectedSize--;
+            rbt.validate();
+            if (rbt.size() != expectedSize) return false;
+        }
+        if (!rbt.isEmpty()) return false;
+        if (rbt.remove(3)) return false;
+        return true;
+    }
+
+    /**
+     * Test5 checks that null values are rejected
+     * @return true if insert() and remove() throw NullPointerException
+     */
+    public boolean test5() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        try {
+            rbt.insert(null);
+            return false;
+        } catch (NullPointerException e) {
+
+        }
+        try {
+            rbt.remove(null);
+            return false;
+        } catch (NullPointerException e) {
+
+        }
+        return true;
+    }
+
+    /**
+     * Test6 checks that subtree sizes stay correct through inserts, removes
+     * and the rotations they cause, so rank() and select() keep working
+     * @return true if the order-statistic queries match the sorted values
+     */
+    public boolean test6() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>(true);
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i / 2);
+        }
+        Collections.shuffle(values, new Random(3));
+        for (int value : values) {
+            rbt.insert(value);
+        }
+        rbt.validate();
+        for (int i = 0; i < 1000; i++) {
+            if (rbt.select(i) != i / 2) return false;
+        }
+        // remove every value below 250, then check what is left
+        for (int i = 0; i < 250; i++) {
+            rbt.remove(i);
+            rbt.remove(i);
+        }
+        rbt.validate();
+        if (rbt.size() != 500 || rbt.root.subtreeSize() != 500) return false;
+        if (rbt.select(0) != 250 || rbt.rank(300) != 100) return false;
+        return true;
+    }
+
+    /**
+     * Test7 checks that a tree compressing duplicates stores each distinct
+     * value once while size(), rank(), select() and remove() still count
+     * every duplicate
+     * @return true if duplicates are counted in their nodes
+     */
+    public boolean test7() {
+        RedBlackTree<Integer> rbt = new RedBlackTree<>(true, true);
+        for (int i = 0; i < 3000; i++) {
+            rbt.insert(i % 3);
+        }
+        rbt.validate();
+        if (rbt.size() != 3000 || rbt.height() != 2) return false;
+        if (rbt.root.count() != 1000 || rbt.root.subtreeSize() != 3000) return false;
+        if (rbt.rank(1) != 1000 || rbt.rank(2) != 2000) return false;
+        if (rbt.select(999) != 0 || rbt.select(1000) != 1 || rbt.select(2999) != 2) return false;
+
+        // removing duplicates only decrements counts until the last copy
+        for (int i = 0; i < 1000; i++) {
+            if (!rbt.remove(1)) return false;
+        }
+        rbt.validate();
+        if (rbt.contains(1) || rbt.remove(1)) return false;
+        if (rbt.size() != 2000 || rbt.select(1000) != 2) return false;
+        return true;
+    }
+
+    /**
+     * Test8 checks that bulk loading sorted values and bulk merging an
+     * unsorted batch both produce valid, minimum-height red-black trees
+     * @return true if fromSorted() and insertAll() work
+     */
+    public boolean test8() {
+        for (int n = 0; n < 70; n++) {
+            Integer[] sorted = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = i / 3;
+            }
+            RedBlackTree<Integer> rbt = RedBlackTree.fromSorted(sorted);
+            rbt.validate();
+            if (rbt.size() != n || rbt.height() != 32 - Integer.numberOfLeadingZeros(n)) return false;
+            // the loaded tree keeps working as a normal red-black tree
+            rbt.insert(n);
+            rbt.remove(0);
+            rbt.validate();
+        }
+
+        RedBlackTree<Integer> rbt = new RedBlackTree<>(true, true);
+        List<Integer> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            rbt.insert(i % 10);
+            batch.add((i * 7919) % 500);
+        }
+        rbt.insertAll(batch);
+        rbt.validate();
+        if (rbt.size() != 2000 || rbt.select(0) != 0 || rbt.select(1999) != 499) return false;
+        if (rbt.root.count() != 2 + (rbt.root.getData() < 10 ? 100 : 0)) return false;
+
+        try {
+            RedBlackTree.fromSorted(new Integer[] {1, 3, 2});
+            return false;
+        } catch (IllegalArgumentException e) {
+
+        }
+        return true;
+    }
+
+    /**
+     * A value that is not Comparable, for test9
+     */
+    private record Order(long id, String customer) { }
+
+    /**
+     * Test9 stores values that are not Comparable, once ordered by a long
+     * key extracted from them and once by a comparator, and checks that
+     * searches, removes, bulk merges and frozen copies all use that order
+     * @return true if both trees keep their values in the order they were given
+     */
+    public boolean test9() {
+        RedBlackTree<Order> byId = new RedBlackTree<>(true, false, Order::id);
+        Random random = new Random(9);
+        List<Order> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            long id = (i * 7919L) % 1000 - 500;
+            byId.insert(new Order(id, "customer" + id));
+            batch.add(new Order(random.nextInt(1000) + 1000, "late"));
+        }
+        byId.validate();
+        // values are found by their key, whatever else they hold
+        if (!byId.contains(new Order(-500, "anyone")) || byId.contains(new Order(500, "customer499"))) return false;
+        if (byId.rank(new Order(0, "")) != 500 || byId.select(999).id() != 499) return false;
+        if (byId.floor(new Order(-501, "")) != null || byId.ceiling(new Order(-501, "")).id() != -500) return false;
+        for (long id = -500; id < 500; id += 2) {
+            if (!byId.remove(new Order(id, ""))) return false;
+        }
+        byId.validate();
+        byId.insertAll(batch);
+        byId.validate();
+        long previous = Long.MIN_VALUE;
+        for (Order order : byId) {
+            if (order.id() < previous) return false;
+            previous = order.id();
+        }
+        if (byId.size() != 1500 || byId.min().id() != -499 || byId.comparator() == null) return false;
+
+        RedBlackTree<Order> byCustomer =
+            new RedBlackTree<>(Comparator.comparing(Order::customer).reversed());
+        for (String customer : new String[] {"bob", "alice", "dave", "carol"}) {
+            byCustomer.insert(new Order(customer.length(), customer));
+        }
+        byCustomer.validate();
+        if (!byCustomer.root.toInOrderString().startsWith("[ Order[id=4, customer=dave]") || !byCustomer.max().customer().equals("alice")) return false;
+        EytzingerIndex<Order> frozen = byCustomer.freeze();
+        if (!frozen.contains(new Order(0, "carol")) || !frozen.min().customer().equals("dave")) return false;
+        return byCustomer.spliterator().getComparator() == byCustomer.comparator();
+    }
+
+    public static void main(String[] args) {
+        RedBlackTree<Integer> faceOfTheOperations = new RedBlackTree<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+        System.out.println("Test 4 " + (faceOfTheOperations.test4() ? "passes" : "fails"));
+        System.out.println("Test 5 " + (faceOfTheOperations.test5() ? "passes" : "fails"));
+        System.out.println("Test 6 " + (faceOfTheOperations.test6() ? "passes" : "fails"));
+        System.out.println("Test 7 " + (faceOfTheOperations.test7() ? "passes" : "fails"));
+        System.out.println("Test 8 " + (faceOfTheOperations.test8() ? "passes" : "fails"));
+        System.out.println("Test 9 " + (faceOfTheOperations.test9() ? "passes" : "fails"));
+    }
+}
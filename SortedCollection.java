@@ -1,8 +1,13 @@
+import java.util.BitSet;
+import java.util.Comparator;
+
 /**
  * This interface defines an ADT for data structures that support storing a 
- * collection of comparable values in their natural ordering.
+ * collection of comparable values in their natural ordering, or in the order
+ * given by comparator(). Iterating over a SortedCollection produces its values
+ * in sorted order, duplicates included.
  */
-public interface SortedCollection<T extends Comparable<T>> {
+public interface SortedCollection<T> extends Iterable<T> {
 
     /**
      * Inserts a new data value into the sorted collection.
@@ -18,7 +23,15 @@ public interface SortedCollection<T extends Comparable<T>> {
      * @return true if the collection contains data one or more times, 
      * and false otherwise
      */
-    public boolean contains(Comparable<T> data);
+    public boolean contains(T data);
+
+    /**
+     * @return the order of the values in the collection, or null if they are
+     * in their natural order
+     */
+    public default Comparator<? super T> comparator() {
+        return null;
+    }
 
     /**
      * Counts the number of values in the collection, with each duplicate value
@@ -37,5 +50,101 @@ public interface SortedCollection<T extends Comparable<T>> {
      * Removes all values and duplicates from the collection.
      */
     public void clear();
+
+    /**
+     * Removes one occurrence of data from the collection.
+     * @param data the value to remove
+     * @return true if a value was removed, false if data was not stored in
+     * the collection
+     * @throws NullPointerException if data argument is null
+     */
+    public boolean remove(T data) throws NullPointerException;
+
+    /**
+     * @return the smallest value in the collection, or null if the
+     * collection is empty
+     */
+    public T min();
+
+    /**
+     * @return the largest value in the collection, or null if the
+     * collection is empty
+     */
+    public T max();
+
+    /**
+     * Finds the greatest value less than or equal to data.
+     * @param data the value to search for
+     * @return the greatest value <= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    public T floor(T data) throws NullPointerException;
+
+    /**
+     * Finds the smallest value greater than or equal to data.
+     * @param data the value to search for
+     * @return the smallest value >= data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    public T ceiling(T data) throws NullPointerException;
+
+    /**
+     * Finds the greatest value strictly less than data.
+     * @param data the value to search for
+     * @return the greatest value < data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    public T lower(T data) throws NullPointerException;
+
+    /**
+     * Finds the smallest value strictly greater than data.
+     * @param data the value to search for
+     * @return the smallest value > data, or null if there is none
+     * @throws NullPointerException if data argument is null
+     */
+    public T higher(T data) throws NullPointerException;
+
+    /**
+     * Returns a lazy view of the values between lo and hi (both inclusive)
+     * in sorted order, duplicates included. No values are copied: iterating
+     * the view walks the collection itself, so it reflects the collection's
+     * contents at the time of iteration.
+     * @param lo the smallest value to include
+     * @param hi the largest value to include
+     * @return the values v with lo <= v <= hi, in sorted order
+     * @throws NullPointerException if either argument is null
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    public Iterable<T> range(T lo, T hi) throws NullPointerException, IllegalArgumentException;
+
+    /**
+     * Checks a whole batch of values at once. Implementations may answer the
+     * batch faster than one contains() call per value, for example by
+     * visiting the probes in sorted order.
+     * @param probes the values to look up, in any order, duplicates allowed
+     * @return a BitSet in which bit i is set if probes[i] is stored in the
+     * collection
+     * @throws NullPointerException if the array or any probe is null
+     */
+    public default BitSet lookupBatch(T[] probes) throws NullPointerException {
+        BitSet found = new BitSet(probes.length);
+        for (int i = 0; i < probes.length; i++) {
+            if (probes[i] == null) {
+                throw new NullPointerException("Probe " + i + " is null");
+            }
+            if (contains(probes[i])) found.set(i);
+        }
+        return found;
+    }
+
+    /**
+     * Copies the values into an immutable EytzingerIndex, which answers
+     * the same queries from a single array. Later changes to this
+     * collection do not affect the index.
+     * @return a read-only index holding the same values, duplicates included
+     */
+    public default EytzingerIndex<T> freeze() {
+        return EytzingerIndex.freeze(this);
+    }
     
 }
\ No newline at end of file
@@ -0,0 +1,290 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+/**
+ * A self-adjusting splay tree built on top of the rotations provided by
+ * BSTRotation. Every insert and successful remove, and every contains() that
+ * has to search deep into the tree, moves the node it touched to the root
+ * through zig, zig-zig and zig-zag steps. Values that are accessed often
+ * therefore stay near the top and are found after only a few comparisons,
+ * which pays off when a small set of values receives most of the lookups.
+ *
+ * Because contains() changes the shape of the tree, a SplayTree must not be
+ * read from several threads at once, even when nobody writes to it.
+ * Rotations keep the sorted order of the nodes, so an iterator stays valid
+ * across calls to contains().
+ */
+public class SplayTree<T> extends BSTRotation<T> {
+
+    /**
+     * Creates an empty splay tree that does not track subtree sizes.
+     */
+    public SplayTree() {
+        super();
+    }
+
+    /**
+     * Creates an empty splay tree that optionally keeps per-node subtree
+     * sizes, so that rank() and select() are supported.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     */
+    public SplayTree(boolean trackSubtreeSizes) {
+        super(trackSubtreeSizes);
+    }
+
+    /**
+     * Creates an empty splay tree that optionally keeps per-node subtree
+     * sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     */
+    public SplayTree(boolean trackSubtreeSizes, boolean compressDuplicates) {
+        super(trackSubtreeSizes, compressDuplicates);
+    }
+
+    /**
+     * Creates an empty splay tree that orders its values with comparator
+     * instead of their natural order.
+     * @param comparator the order of the values, or null for natural order
+     */
+    public SplayTree(Comparator<? super T> comparator) {
+        super(comparator);
+    }
+
+    /**
+     * Creates an empty splay tree that orders its values by the long key
+     * keyExtractor extracts from them, which every node caches.
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public SplayTree(ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(keyExtractor);
+    }
+
+    /**
+     * Creates an empty splay tree ordered by comparator that optionally keeps
+     * per-node subtree sizes and optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param comparator the order of the values, or null for natural order
+     */
+    public SplayTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        Comparator<? super T> comparator) {
+        super(trackSubtreeSizes, compressDuplicates, comparator);
+    }
+
+    /**
+     * Creates an empty splay tree ordered by the long key keyExtractor extracts
+     * from the values, that optionally keeps per-node subtree sizes and
+     * optionally counts duplicates in a single node.
+     * @param trackSubtreeSizes true to maintain subtree sizes in every node
+     * @param compressDuplicates true to count duplicates in a single node
+     * @param keyExtractor extracts the key the values are ordered by
+     * @throws NullPointerException if keyExtractor is null
+     */
+    public SplayTree(boolean trackSubtreeSizes, boolean compressDuplicates,
+        ToLongFunction<? super T> keyExtractor) throws NullPointerException {
+        super(trackSubtreeSizes, compressDuplicates, keyExtractor);
+    }
+
+    /**
+     * Inserts a new data value into the tree and splays it to the root.
+     * @param data the new value being inserted
+     * @throws NullPointerException if data argument is null, we do not allow
+     * null values to be stored within a SortedCollection
+     */
+    @Override
+    public void insert(T data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert null into a SplayTree");
+        }
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        this.size++;
+        this.modCount++;
+        if (this.root == null) {
+            this.root = createNode(data);
+            if (this.metrics != null) recordInsert(1, true, start);
+            return;
+        }
+        BinaryTreeNode<T> node = insertHelper(data, this.root);
+        // a compressed duplicate was counted in an existing node instead
+        boolean created = node != null;
+        if (!created) node = findNode(data);
+        int depth = this.metrics == null ? 0 : depthOf(node);
+        splay(node);
+        if (this.metrics != null) recordInsert(depth, created, start);
+    }
+
+    /**
+     * Check whether data is stored in the tree. When the search path is
+     * longer than log2(size), the node holding data, or the last node
+     * visited when data is not in the tree, is splayed to the root. Nodes
+     * that are already about as shallow as in a balanced tree are left
+     * where they are, so repeated lookups of popular values do not keep
+     * rotating them around the top of the tree.
+     * @param data the value to check for in the collection
+     * @return true if the collection contains data one or more times,
+     * and false otherwise
+     */
+    @Override
+    public boolean contains(T data) {
+        long start = this.metrics == null ? 0 : System.nanoTime();
+        long key = keyOf(data);
+        BinaryTreeNode<T> last = null;
+        BinaryTreeNode<T> current = this.root;
+        int depth = 0;
+        while (current != null) {
+            depth++;
+            last = current;
+            int cmp = compare(data, key, current);
+            if (cmp == 0) break;
+            current = cmp < 0 ? current.childLeft() : current.childRight();
+        }
+        if (depth > 32 - Integer.numberOfLeadingZeros(this.size)) splay(last);
+        if (this.metrics != null) {
+            this.metrics.recordLookup(depth, current != null, System.nanoTime() - start);
+        }
+        return current != null;
+    }
+
+    /**
+     * Takes node out of the tree as BinarySearchTree does, then splays the
+     * parent of the node that was physically unlinked.
+     * @param node the node whose value is being removed
+     * @return the parent of the node that was physically unlinked, or null
+     * if that node was the root
+     */
+    @Override
+    protected BinaryTreeNode<T> removeNode(BinaryTreeNode<T> node) {
+        BinaryTreeNode<T> parent = super.removeNode(node);
+        if (parent != null) splay(parent);
+        return parent;
+    }
+
+    /**
+     * Moves node to the root of the tree. Each step looks at node, its
+     * parent and its grandparent: with no grandparent it is a single
+     * rotation (zig); when node and its parent are both left or both right
+     * children the parent is rotated first (zig-zig); otherwise node is
+     * rotated twice (zig-zag).
+     * @param node the node to move to the root
+     */
+    protected void splay(BinaryTreeNode<T> node) {
+        while (node.parent() != null) {
+            BinaryTreeNode<T> parent = node.parent();
+            BinaryTreeNode<T> grandparent = parent.parent();
+            if (grandparent == null) {
+                rotate(node, parent);
+            } else if ((grandparent.childLeft() == parent) == (parent.childLeft() == node)) {
+                rotate(parent, grandparent);
+                rotate(node, parent);
+            } else {
+                rotate(node, parent);
+                rotate(node, grandparent);
+            }
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 checks the shapes produced by the zig-zig and zig-zag steps, and
+     * that contains() only splays nodes it had to search deep for
+     * @return true if the accessed nodes end up at the root
+     */
+    public boolean test1() {
+        SplayTree<Integer> tree = new SplayTree<>();
+        // inserting in increasing order leaves each new value at the root,
+        // with the others along its left spine
+        for (int i = 1; i <= 7; i++) {
+            tree.insert(i);
+            if (tree.root.getData() != i) return false;
+        }
+        if (tree.height() != 7) return false;
+        // zig-zig steps from the bottom of the spine roughly halve the depth
+        if (!tree.contains(1) || tree.root.getData() != 1 || tree.height() != 5) return false;
+        if (!tree.root.toInOrderString().equals("[ 1, 2, 3, 4, 5, 6, 7 ]")) return false;
+        // a zig-zag step: 4 is a right child of 3, which is a left child of 6
+        tree.splay(tree.findNode(4));
+        if (tree.root.getData() != 4) return false;
+        if (tree.root.childLeft().getData() != 1 || tree.root.childRight().getData() != 6) return false;
+        // a shallow search leaves the tree as it is
+        if (tree.contains(0) || !tree.contains(6) || tree.root.getData() != 4) return false;
+        // a deep search for a missing value splays the last node on its path
+        for (int i = 8; i <= 15; i++) {
+            tree.insert(i);
+        }
+        if (tree.contains(0) || tree.root.getData() != 1) return false;
+        return tree.root.parent() == null && tree.root.toInOrderString().startsWith("[ 1, 2, 3, 4, 5, 6, 7, 8,");
+    }
+
+    /**
+     * Test2 compares the tree against a RedBlackTree on random operations,
+     * with subtree sizes tracked so rank() and select() are checked as well
+     * @return true if both trees always agree
+     */
+    public boolean test2() {
+        Random random = new Random(14);
+        SplayTree<Integer> tree = new SplayTree<>(true);
+        RedBlackTree<Integer> reference = new RedBlackTree<>(true);
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(1000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (tree.remove(value) != reference.remove(value)) return false;
+                    break;
+                case 1:
+                    if (tree.contains(value) != reference.contains(value)) return false;
+                    break;
+                default:
+                    tree.insert(value);
+                    reference.insert(value);
+            }
+        }
+        if (tree.size() != reference.size() || tree.root.subtreeSize() != reference.size()) return false;
+        for (int index = 0; index < tree.size(); index += 97) {
+            int value = reference.select(index);
+            if (tree.select(index) != value || tree.rank(value) != reference.rank(value)) return false;
+        }
+        Iterator<Integer> expected = reference.iterator();
+        for (int value : tree) {
+            if (!expected.hasNext() || value != expected.next()) return false;
+        }
+        return !expected.hasNext();
+    }
+
+    /**
+     * Test3 checks duplicates, with and without compression, and that an
+     * iterator keeps working while contains() restructures the tree
+     * @return true if every value is produced in order
+     */
+    public boolean test3() {
+        SplayTree<Integer> compressed = new SplayTree<>(true, true);
+        SplayTree<Integer> plain = new SplayTree<>();
+        int[] values = {5, 3, 5, 8, 3, 5, 1};
+        for (int value : values) {
+            compressed.insert(value);
+            plain.insert(value);
+        }
+        if (compressed.root.getData() != 1 || compressed.size() != 7 || compressed.root.subtreeSize() != 7) return false;
+        if (!compressed.remove(5) || !compressed.contains(5) || compressed.size() != 6) return false;
+        StringBuilder sb = new StringBuilder();
+        for (int value : plain) {
+            sb.append(value).append(' ');
+            plain.contains(8 - value);
+        }
+        return sb.toString().equals("1 3 3 5 5 5 8 ");
+    }
+
+    public static void main(String[] args) {
+        SplayTree<Integer> faceOfTheOperations = new SplayTree<>();
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+        System.out.println("Test 3 " + (faceOfTheOperations.test3() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+/**
+ * Writes the values of a subtree of BinaryTreeNodes to an Appendable as it
+ * walks them, in the "[ a, b, c ]" format of BinaryTreeNode.toInOrderString(),
+ * so a tree of any size can be written to a file, socket or channel without
+ * building the whole text in memory first.
+ *
+ * The in-order, pre-order and post-order walks follow the parent links of
+ * the nodes and need O(1) memory besides the output. The level-order walk
+ * keeps the nodes of the next level in an ArrayDeque, so it needs memory
+ * proportional to the widest level of the subtree. None of the walks
+ * allocate anything per node apart from what the formatter creates.
+ *
+ * If the Appendable is Flushable, it is flushed after each walk.
+ */
+public class TraversalWriter<T> {
+
+    // where the text is written
+    private final Appendable out;
+    // turns each value into its text
+    private final Function<? super T, ? extends CharSequence> formatter;
+
+    /**
+     * Creates a writer that formats each value with its toString() method.
+     * @param out where the text is written
+     */
+    public TraversalWriter(Appendable out) {
+        this(out, String::valueOf);
+    }
+
+    /**
+     * Creates a writer that formats each value with formatter.
+     * @param out where the text is written
+     * @param formatter turns each value into its text
+     */
+    public TraversalWriter(Appendable out, Function<? super T, ? extends CharSequence> formatter) {
+        if (out == null || formatter == null) {
+            throw new NullPointerException("Output and formatter cannot be null");
+        }
+        this.out = out;
+        this.formatter = formatter;
+    }
+
+    /**
+     * Creates a writer that encodes the text with charset and writes it to
+     * channel through a fixed-size buffer, which is flushed after each walk.
+     * @param channel where the encoded text is written
+     * @param charset how the text is encoded
+     * @param formatter turns each value into its text
+     * @return a writer for channel
+     */
+    public static <T> TraversalWriter<T> forChannel(WritableByteChannel channel, Charset charset,
+        Function<? super T, ? extends CharSequence> formatter) {
+        return new TraversalWriter<>(Channels.newWriter(channel, charset.newEncoder(), -1), formatter);
+    }
+
+    /**
+     * Writes the values of the subtree rooted at root in in-order: left
+     * subtree, node, right subtree. A null root is written as "[ ]".
+     * @param root the root of the subtree to write, or null
+     * @throws IOException if the output cannot be written
+     */
+    public void writeInOrder(BinaryTreeNode<T> root) throws IOException {
+        if (root == null) {
+            writeEmpty();
+            return;
+        }
+        BinaryTreeNode<T> node = leftmost(root);
+        this.out.append("[ ");
+        while (true) {
+            this.out.append(this.formatter.apply(node.getData()));
+            if (node.childRight() != null) {
+                node = leftmost(node.childRight());
+            } else {
+                // climb past the ancestors whose right subtree is done
+                while (node != root && node.isRightChild()) {
+                    node = node.parent();
+                }
+                if (node == root) break;
+                node = node.parent();
+            }
+            this.out.append(", ");
+        }
+        finish();
+    }
+
+    /**
+     * Writes the values of the subtree rooted at root in pre-order: node,
+     * left subtree, right subtree. A null root is written as "[ ]".
+     * @param root the root of the subtree to write, or null
+     * @throws IOException if the output cannot be written
+     */
+    public void writePreOrder(BinaryTreeNode<T> root) throws IOException {
+        if (root == null) {
+            writeEmpty();
+            return;
+        }
+        BinaryTreeNode<T> node = root;
+        this.out.append("[ ");
+        while (true) {
+            this.out.append(this.formatter.apply(node.getData()));
+            if (node.childLeft() != null) {
+                node = node.childLeft();
+            } else if (node.childRight() != null) {
+                node = node.childRight();
+            } else {
+                // climb to the nearest ancestor with a right subtree not yet visited
+                BinaryTreeNode<T> next = null;
+                while (node != root) {
+                    BinaryTreeNode<T> parent = node.parent();
+                    if (parent.childLeft() == node && parent.childRight() != null) {
+                        next = parent.childRight();
+                        break;
+                    }
+                    node = parent;
+                }
+                if (next == null) break;
+                node = next;
+            }
+            this.out.append(", ");
+        }
+        finish();
+    }
+
+    /**
+     * Writes the values of the subtree rooted at root in post-order: left
+     * subtree, right subtree, node. A null root is written as "[ ]".
+     * @param root the root of the subtree to write, or null
+     * @throws IOException if the output cannot be written
+     */
+    public void writePostOrder(BinaryTreeNode<T> root) throws IOException {
+        if (root == null) {
+            writeEmpty();
+            return;
+        }
+        BinaryTreeNode<T> node = firstPostOrder(root);
+        this.out.append("[ ");
+        while (true) {
+            this.out.append(this.formatter.apply(node.getData()));
+            if (node == root) break;
+            BinaryTreeNode<T> parent = node.parent();
+            if (parent.childLeft() == node && parent.childRight() != null) {
+                node = firstPostOrder(parent.childRight());
+            } else {
+                node = parent;
+            }
+            this.out.append(", ");
+        }
+        finish();
+    }
+
+    /**
+     * Writes the values of the subtree rooted at root in level-order, from
+     * the top level down and left to right within each level, in the format
+     * of BinaryTreeNode.toLevelOrderString(). A null root is written as "[ ]".
+     * @param root the root of the subtree to write, or null
+     * @throws IOException if the output cannot be written
+     */
+    public void writeLevelOrder(BinaryTreeNode<T> root) throws IOException {
+        if (root == null) {
+            writeEmpty();
+            return;
+        }
+        ArrayDeque<BinaryTreeNode<T>> queue = new ArrayDeque<>();
+        queue.add(root);
+        this.out.append("[ ");
+        while (true) {
+            BinaryTreeNode<T> node = queue.poll();
+            if (node.childLeft() != null) queue.add(node.childLeft());
+            if (node.childRight() != null) queue.add(node.childRight());
+            this.out.append(this.formatter.apply(node.getData()));
+            if (queue.isEmpty()) break;
+            this.out.append(", ");
+        }
+        finish();
+    }
+
+    /**
+     * @return the leftmost node of the subtree rooted at node
+     */
+    private static <T> BinaryTreeNode<T> leftmost(BinaryTreeNode<T> node) {
+        while (node.childLeft() != null) {
+            node = node.childLeft();
+        }
+        return node;
+    }
+
+    /**
+     * @return the first node of the subtree rooted at node in post-order,
+     * found by going left where possible and right otherwise
+     */
+    private static <T> BinaryTreeNode<T> firstPostOrder(BinaryTreeNode<T> node) {
+        while (true) {
+            if (node.childLeft() != null) {
+                node = node.childLeft();
+            } else if (node.childRight() != null) {
+                node = node.childRight();
+            } else {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Writes the text for an empty subtree.
+     */
+    private void writeEmpty() throws IOException {
+        this.out.append("[ ]");
+        flush();
+    }
+
+    /**
+     * Closes the bracket after the last value.
+     */
+    private void finish() throws IOException {
+        this.out.append(" ]");
+        flush();
+    }
+
+    private void flush() throws IOException {
+        if (this.out instanceof Flushable) {
+            ((Flushable) this.out).flush();
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 writes a small tree of known shape in every order, and a
+     * subtree of it, which must not include any of its ancestors
+     * @return true if every walk produces the expected text
+     */
+    public boolean test1() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        /*
+         *          50
+         *      30      70
+         *        40  60    80
+         *       35           90
+         */
+        for (int value : new int[] {50, 30, 70, 40, 60, 80, 35, 90}) {
+            bst.insert(value);
+        }
+        try {
+            StringBuilder sb = new StringBuilder();
+            TraversalWriter<Integer> writer = new TraversalWriter<>(sb);
+            writer.writeInOrder(bst.root);
+            if (!sb.toString().equals("[ 30, 35, 40, 50, 60, 70, 80, 90 ]")) return false;
+            sb.setLength(0);
+            writer.writePreOrder(bst.root);
+            if (!sb.toString().equals("[ 50, 30, 40, 35, 70, 60, 80, 90 ]")) return false;
+            sb.setLength(0);
+            writer.writePostOrder(bst.root);
+            if (!sb.toString().equals("[ 35, 40, 30, 60, 90, 80, 70, 50 ]")) return false;
+            sb.setLength(0);
+            writer.writeLevelOrder(bst.root);
+            if (!sb.toString().equals("[ 50, 30, 70, 40, 60, 80, 35, 90 ]")) return false;
+            // the subtree rooted at 30
+            BinaryTreeNode<Integer> subtree = bst.root.childLeft();
+            sb.setLength(0);
+            writer.writeInOrder(subtree);
+            writer.writePreOrder(subtree);
+            writer.writePostOrder(subtree);
+            writer.writeLevelOrder(null);
+            if (!sb.toString().equals("[ 30, 35, 40 ][ 30, 40, 35 ][ 35, 40, 30 ][ ]")) return false;
+            return bst.root.toInOrderString().equals("[ 30, 35, 40, 50, 60, 70, 80, 90 ]")
+                && bst.root.toLevelOrderString().equals("[ 50, 30, 70, 40, 60, 80, 35, 90 ]");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Test2 writes a large tree to a channel with a custom formatter, and
+     * checks the decoded bytes against the tree's own iterator
+     * @return true if the channel receives every value in order
+     */
+    public boolean test2() {
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        for (int i = 0; i < 100000; i++) {
+            tree.insert(i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TraversalWriter<Integer> writer = TraversalWriter.forChannel(Channels.newChannel(bytes),
+            StandardCharsets.UTF_8, value -> Integer.toHexString(value));
+        try {
+            writer.writeInOrder(tree.root);
+        } catch (IOException e) {
+            return false;
+        }
+        String text = bytes.toString(StandardCharsets.UTF_8);
+        if (!text.startsWith("[ 0, 1, ") || !text.endsWith(", 1869f ]")) return false;
+        String[] values = text.substring(2, text.length() - 2).split(", ");
+        int expected = 0;
+        for (int value : tree) {
+            if (Integer.parseInt(values[expected++], 16) != value) return false;
+        }
+        return expected == values.length;
+    }
+
+    public static void main(String[] args) {
+        TraversalWriter<Integer> faceOfTheOperations = new TraversalWriter<>(new StringBuilder());
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,1218 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A small self-contained benchmark harness for the tree implementations.
+ * Each workload is warmed up before it is measured, and reports the average
+ * time per operation along with the number of compareTo calls made per
+ * operation. Run it with: java TreeBenchmark, or run the full suite of
+ * operations, distributions and sizes with: java TreeBenchmark suite [maxN]
+ */
+public class TreeBenchmark {
+
+    // number of untimed rounds run before measuring, to let the JIT compile
+    private static final int WARMUP_ROUNDS = 5;
+    // number of timed rounds averaged into the result
+    private static final int MEASURED_ROUNDS = 10;
+
+    // keeps a measured structure reachable until its heap use is read
+    static volatile Object sink;
+
+    /**
+     * A key that counts every call to compareTo, so that the comparison
+     * cost of the tree algorithms can be measured directly.
+     */
+    static final class CountingKey implements Comparable<CountingKey> {
+
+        // total compareTo calls made on any CountingKey
+        static long comparisons = 0;
+
+        // the value being compared
+        final int value;
+
+        CountingKey(int value) { this.value = value; }
+
+        @Override
+        public int compareTo(CountingKey other) {
+            comparisons++;
+            return Integer.compare(this.value, other.value);
+        }
+
+        @Override
+        public String toString() { return Integer.toString(this.value); }
+    }
+
+    /**
+     * Creates the keys for one of the key distributions.
+     * @param distribution one of "random", "sorted" or "duplicates"
+     * @param n the number of keys to create
+     * @return the keys in insertion order
+     */
+    static CountingKey[] keys(String distribution, int n) {
+        Random random = new Random(42);
+        CountingKey[] keys = new CountingKey[n];
+        for (int i = 0; i < n; i++) {
+            switch (distribution) {
+                case "random": keys[i] = new CountingKey(random.nextInt()); break;
+                case "sorted": keys[i] = new CountingKey(i); break;
+                case "duplicates": keys[i] = new CountingKey(random.nextInt(16)); break;
+                default: throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Measures insert() and contains() on a BinarySearchTree for one key
+     * distribution and prints ns/op and comparisons/op for each. The JMH
+     * version, which also runs the earlier recursive implementation for
+     * comparison, is src/jmh/java/bst/InsertContainsBenchmark.
+     * @param distribution the key distribution to use
+     * @param n the number of keys inserted and then looked up
+     */
+    static void insertAndContains(String distribution, int n) {
+        CountingKey[] keys = keys(distribution, n);
+        long insertNanos = 0, containsNanos = 0;
+        long insertComparisons = 0, containsComparisons = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            BinarySearchTree<CountingKey> bst = new BinarySearchTree<>();
+
+            CountingKey.comparisons = 0;
+            long start = System.nanoTime();
+            for (CountingKey key : keys) {
+                bst.insert(key);
+            }
+            long inserted = System.nanoTime();
+            long afterInsert = CountingKey.comparisons;
+
+            int found = 0;
+            for (CountingKey key : keys) {
+                if (bst.contains(key)) found++;
+            }
+            long looked = System.nanoTime();
+            if (found != n) throw new IllegalStateException("Lost keys: " + found + " of " + n);
+
+            if (round >= WARMUP_ROUNDS) {
+                insertNanos += inserted - start;
+                containsNanos += looked - inserted;
+                insertComparisons += afterInsert;
+                containsComparisons += CountingKey.comparisons - afterInsert;
+            }
+        }
+        double ops = (double) n * MEASURED_ROUNDS;
+        System.out.printf("%-12s n=%-8d insert   %10.1f ns/op %8.2f cmp/op%n",
+            distribution, n, insertNanos / ops, insertComparisons / ops);
+        System.out.printf("%-12s n=%-8d contains %10.1f ns/op %8.2f cmp/op%n",
+            distribution, n, containsNanos / ops, containsComparisons / ops);
+    }
+
+    /**
+     * Draws keys from a Zipf distribution over the values 0 to distinct - 1,
+     * where value k is drawn with probability proportional to 1 / (k + 1)^s.
+     * @param n the number of keys to draw
+     * @param distinct the number of possible values
+     * @param s the skew of the distribution, 1.0 being classic Zipf
+     * @param seed the seed for the random number generator
+     * @return the drawn keys
+     */
+    static int[] zipfKeys(int n, int distinct, double s, long seed) {
+        double[] cdf = new double[distinct];
+        double total = 0;
+        for (int k = 0; k < distinct; k++) {
+            total += 1.0 / Math.pow(k + 1, s);
+            cdf[k] = total;
+        }
+        Random random = new Random(seed);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            keys[i] = index >= 0 ? index : -index - 1;
+        }
+        return keys;
+    }
+
+    /**
+     * @return the heap currently in use, measured after asking for a full GC
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // a few rounds, since a single System.gc() is only a hint
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Measures the heap retained by a tree holding a Zipf-distributed key
+     * stream, with and without duplicate compression.
+     * @param n the number of keys inserted
+     * @param distinct the number of possible distinct keys
+     */
+    static void duplicateCompressionMemory(int n, int distinct) {
+        int[] raw = zipfKeys(n, distinct, 1.0, 42);
+        // box the keys up front so that both trees share the same key objects
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = raw[i];
+        }
+        for (boolean compress : new boolean[] {false, true}) {
+            long before = usedHeap();
+            BinarySearchTree<Integer> bst = new BinarySearchTree<>(false, compress);
+            long start = System.nanoTime();
+            for (Integer key : keys) {
+                bst.insert(key);
+            }
+            long elapsed = System.nanoTime() - start;
+            long retained = usedHeap() - before;
+            System.out.printf("zipf         n=%-8d %-10s %8.1f MB %6.1f bytes/value %8.1f ns/insert size=%d%n",
+                n, compress ? "compressed" : "plain", retained / 1e6, (double) retained / n,
+                (double) elapsed / n, bst.size());
+        }
+    }
+
+    /**
+     * Compares loading n sorted keys with one insert() per key against
+     * RedBlackTree.fromSorted(), and merging an unsorted batch of n keys
+     * into a tree of n keys with insert() against insertAll().
+     * @param n the number of keys loaded, and the size of the merged batch
+     */
+    static void bulkLoad(int n) {
+        Integer[] sorted = new Integer[n];
+        List<Integer> batch = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+            batch.add(random.nextInt());
+        }
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            RedBlackTree<Integer> inserted = new RedBlackTree<>();
+            for (Integer key : sorted) {
+                inserted.insert(key);
+            }
+            long afterInsert = System.nanoTime();
+            RedBlackTree<Integer> loaded = RedBlackTree.fromSorted(sorted);
+            long afterLoad = System.nanoTime();
+            for (Integer key : batch) {
+                inserted.insert(key);
+            }
+            long afterBatchInsert = System.nanoTime();
+            loaded.insertAll(batch);
+            long afterMerge = System.nanoTime();
+            if (round == WARMUP_ROUNDS + MEASURED_ROUNDS - 1) {
+                System.out.printf("bulk load    n=%-8d insert() %8.1f ms  fromSorted() %8.1f ms%n",
+                    n, (afterInsert - start) / 1e6, (afterLoad - afterInsert) / 1e6);
+                System.out.printf("bulk merge   n=%-8d insert() %8.1f ms  insertAll()  %8.1f ms%n",
+                    n, (afterBatchInsert - afterLoad) / 1e6, (afterMerge - afterBatchInsert) / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Compares IntBinarySearchTree with BinarySearchTree<Integer> on n random
+     * keys: time per insert and contains, and heap retained by the tree.
+     * @param n the number of keys inserted and looked up
+     */
+    static void primitiveVsGeneric(int n) {
+        Random random = new Random(42);
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            long before = usedHeap();
+            long start = System.nanoTime();
+            BinarySearchTree<Integer> generic = new BinarySearchTree<>();
+            for (int key : keys) {
+                generic.insert(key);
+            }
+            long afterInsert = System.nanoTime();
+            int found = 0;
+            for (int key : keys) {
+                if (generic.contains(key)) found++;
+            }
+            long afterContains = System.nanoTime();
+            sink = generic;
+            long genericBytes = usedHeap() - before;
+            sink = null;
+            generic = null;
+
+            before = usedHeap();
+            long primitiveStart = System.nanoTime();
+            IntBinarySearchTree primitive = new IntBinarySearchTree();
+            for (int key : keys) {
+                primitive.insert(key);
+            }
+            long primitiveAfterInsert = System.nanoTime();
+            for (int key : keys) {
+                if (primitive.contains(key)) found++;
+            }
+            long primitiveAfterContains = System.nanoTime();
+            sink = primitive;
+            long primitiveBytes = usedHeap() - before;
+            sink = null;
+            if (found != 2 * n) throw new IllegalStateException("Lost keys");
+
+            if (round == WARMUP_ROUNDS - 1) {
+                System.out.printf("generic      n=%-8d insert %7.1f ns/op contains %7.1f ns/op %6.1f bytes/value%n",
+                    n, (double) (afterInsert - start) / n, (double) (afterContains - afterInsert) / n,
+                    (double) genericBytes / n);
+                System.out.printf("primitive    n=%-8d insert %7.1f ns/op contains %7.1f ns/op %6.1f bytes/value%n",
+                    n, (double) (primitiveAfterInsert - primitiveStart) / n,
+                    (double) (primitiveAfterContains - primitiveAfterInsert) / n, (double) primitiveBytes / n);
+            }
+        }
+    }
+
+    /**
+     * Compares BPlusTree against BinarySearchTree and RedBlackTree on n
+     * random keys: time per insert, per contains, and per value for a full
+     * in-order scan.
+     * @param n the number of keys inserted, looked up, and scanned
+     */
+    static void wideNodes(int n) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            List<SortedCollection<Integer>> trees = List.of(
+                new BinarySearchTree<>(), new RedBlackTree<>(), new BPlusTree<>());
+            for (SortedCollection<Integer> tree : trees) {
+                long start = System.nanoTime();
+                for (Integer key : keys) {
+                    tree.insert(key);
+                }
+                long afterInsert = System.nanoTime();
+                int found = 0;
+                for (Integer key : keys) {
+                    if (tree.contains(key)) found++;
+                }
+                long afterContains = System.nanoTime();
+                long sum = 0;
+                for (int key : tree) {
+                    sum += key;
+                }
+                long afterScan = System.nanoTime();
+                sink = sum;
+                if (found != n) throw new IllegalStateException("Lost keys");
+                if (round == WARMUP_ROUNDS - 1) {
+                    System.out.printf("%-16s n=%-8d insert %7.1f ns/op contains %7.1f ns/op scan %5.1f ns/value%n",
+                        tree.getClass().getSimpleName(), n, (double) (afterInsert - start) / n,
+                        (double) (afterContains - afterInsert) / n, (double) (afterScan - afterContains) / n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares rebuilding a RedBlackTree of n random keys by inserting them
+     * against reopening the same keys saved with MappedSortedCollection, and
+     * the contains() time of both.
+     * @param n the number of keys stored
+     */
+    static void mappedStartup(int n) throws IOException {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        Path file = Files.createTempFile("benchmark", ".tree");
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                // the timing of the last round is reported
+                long start = System.nanoTime();
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                for (Integer key : keys) {
+                    tree.insert(key);
+                }
+                long afterRebuild = System.nanoTime();
+                MappedSortedCollection.write(tree, KeyCodec.INTEGER, file);
+                long afterWrite = System.nanoTime();
+                MappedSortedCollection<Integer> mapped = MappedSortedCollection.open(file, KeyCodec.INTEGER);
+                long afterOpen = System.nanoTime();
+                int found = 0;
+                for (Integer key : keys) {
+                    if (tree.contains(key)) found++;
+                }
+                long afterTreeContains = System.nanoTime();
+                for (Integer key : keys) {
+                    if (mapped.contains(key)) found++;
+                }
+                long afterMappedContains = System.nanoTime();
+                if (found != 2 * n) throw new IllegalStateException("Lost keys");
+                if (round == WARMUP_ROUNDS - 1) {
+                    System.out.printf("startup      n=%-8d rebuild %8.1f ms  write %8.1f ms  open %8.3f ms%n",
+                        n, (afterRebuild - start) / 1e6, (afterWrite - afterRebuild) / 1e6, (afterOpen - afterWrite) / 1e6);
+                    System.out.printf("contains     n=%-8d tree %7.1f ns/op  mapped %7.1f ns/op%n",
+                        n, (double) (afterTreeContains - afterOpen) / n, (double) (afterMappedContains - afterTreeContains) / n);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Compares OffHeapSortedCollection with BinarySearchTree on n random
+     * keys: time per insert and contains, heap retained, and how long a full
+     * collection takes while the tree is live.
+     * @param n the number of keys inserted and looked up
+     */
+    static void offHeap(int n) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            List<SortedCollection<Integer>> trees = List.of(
+                new BinarySearchTree<>(), new OffHeapSortedCollection<>(KeyCodec.INTEGER));
+            for (SortedCollection<Integer> tree : trees) {
+                long before = usedHeap();
+                long start = System.nanoTime();
+                for (Integer key : keys) {
+                    tree.insert(key);
+                }
+                long afterInsert = System.nanoTime();
+                int found = 0;
+                for (Integer key : keys) {
+                    if (tree.contains(key)) found++;
+                }
+                long afterContains = System.nanoTime();
+                if (found != n) throw new IllegalStateException("Lost keys");
+                sink = tree;
+                long retained = usedHeap() - before;
+                long gcStart = System.nanoTime();
+                System.gc();
+                long gcNanos = System.nanoTime() - gcStart;
+                sink = null;
+                if (round == WARMUP_ROUNDS - 1) {
+                    System.out.printf("%-24s n=%-8d insert %7.1f ns/op contains %7.1f ns/op heap %6.1f bytes/value full gc %6.1f ms%n",
+                        tree.getClass().getSimpleName(), n, (double) (afterInsert - start) / n,
+                        (double) (afterContains - afterInsert) / n, (double) retained / n, gcNanos / 1e6);
+                }
+                tree.clear();
+            }
+        }
+    }
+
+    /**
+     * Compares contains() on SplayTree, BinarySearchTree and RedBlackTree for
+     * a Zipf-distributed stream of lookups. The trees hold distinct random
+     * keys, and the popular ones are spread over the whole key range.
+     * @param distinct the number of keys in each tree
+     * @param lookups the number of contains() calls measured
+     * @param skew the skew of the Zipf distribution, 1.0 being classic Zipf
+     */
+    static void skewedLookups(int distinct, int lookups, double skew) {
+        Random random = new Random(42);
+        Integer[] values = new Integer[distinct];
+        for (int i = 0; i < distinct; i++) {
+            values[i] = random.nextInt();
+        }
+        // shuffle the popularity ranks, so that how popular a key is says
+        // nothing about when it was inserted
+        List<Integer> popularity = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            popularity.add(i);
+        }
+        Collections.shuffle(popularity, random);
+        int[] ranks = zipfKeys(lookups, distinct, skew, 7);
+        Integer[] stream = new Integer[lookups];
+        for (int i = 0; i < lookups; i++) {
+            stream[i] = values[popularity.get(ranks[i])];
+        }
+        List<SortedCollection<Integer>> trees = List.of(
+            new BinarySearchTree<>(), new RedBlackTree<>(), new SplayTree<>());
+        for (SortedCollection<Integer> tree : trees) {
+            for (Integer value : values) {
+                tree.insert(value);
+            }
+            long nanos = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                int found = 0;
+                for (Integer key : stream) {
+                    if (tree.contains(key)) found++;
+                }
+                if (round >= WARMUP_ROUNDS) nanos += System.nanoTime() - start;
+                if (found != lookups) throw new IllegalStateException("Lost keys");
+            }
+            System.out.printf("zipf s=%.1f   %-16s n=%-8d contains %7.1f ns/op%n",
+                skew, tree.getClass().getSimpleName(), distinct, (double) nanos / lookups / MEASURED_ROUNDS);
+        }
+    }
+
+    /**
+     * Measures what the instrumentation costs: insert() and contains() on a
+     * RedBlackTree of n random keys with metrics disabled and enabled.
+     * @param n the number of keys inserted and looked up
+     */
+    static void metricsOverhead(int n) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            for (boolean enabled : new boolean[] {false, true}) {
+                RedBlackTree<Integer> tree = new RedBlackTree<>();
+                if (enabled) tree.enableMetrics();
+                long start = System.nanoTime();
+                for (Integer key : keys) {
+                    tree.insert(key);
+                }
+                long afterInsert = System.nanoTime();
+                int found = 0;
+                for (Integer key : keys) {
+                    if (tree.contains(key)) found++;
+                }
+                long afterContains = System.nanoTime();
+                if (found != n) throw new IllegalStateException("Lost keys");
+                if (round == WARMUP_ROUNDS - 1) {
+                    System.out.printf("metrics %-4s n=%-8d insert %7.1f ns/op contains %7.1f ns/op%n",
+                        enabled ? "on" : "off", n, (double) (afterInsert - start) / n,
+                        (double) (afterContains - afterInsert) / n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares looking up batches of random keys with lookupBatch() against
+     * one contains() call per key, on a RedBlackTree of n random keys. Half
+     * of the probes are stored in the tree.
+     * @param n the number of keys in the tree
+     * @param batchSizes the numbers of probes per batch to measure
+     */
+    static void batchLookups(int n, int... batchSizes) {
+        Random random = new Random(42);
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+            tree.insert(keys[i]);
+        }
+        for (int batchSize : batchSizes) {
+            Integer[] probes = new Integer[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                probes[i] = random.nextBoolean() ? keys[random.nextInt(n)] : random.nextInt();
+            }
+            int batches = Math.max(1, 2_000_000 / batchSize);
+            long singleNanos = 0, batchNanos = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                int single = 0;
+                for (int b = 0; b < batches; b++) {
+                    for (Integer probe : probes) {
+                        if (tree.contains(probe)) single++;
+                    }
+                }
+                long afterSingle = System.nanoTime();
+                int batched = 0;
+                for (int b = 0; b < batches; b++) {
+                    batched += tree.lookupBatch(probes).cardinality();
+                }
+                long afterBatch = System.nanoTime();
+                if (single != batched) throw new IllegalStateException("Batch results differ");
+                if (round >= WARMUP_ROUNDS) {
+                    singleNanos += afterSingle - start;
+                    batchNanos += afterBatch - afterSingle;
+                }
+            }
+            double probesMeasured = (double) batchSize * batches * MEASURED_ROUNDS;
+            System.out.printf("batch        n=%-8d k=%-8d contains() %7.1f ns/key  lookupBatch() %7.1f ns/key%n",
+                n, batchSize, singleNanos / probesMeasured, batchNanos / probesMeasured);
+        }
+    }
+
+    /**
+     * Compares taking a snapshot of a collection of n random keys before
+     * each of a number of inserts: copying a RedBlackTree with fromSorted()
+     * against PersistentSortedCollection.snapshot(), which shares the tree.
+     * @param n the number of keys in the collection
+     * @param snapshots the number of snapshot-and-insert steps measured
+     */
+    static void persistentSnapshots(int n, int snapshots) {
+        Random random = new Random(42);
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        PersistentSortedCollection<Integer> persistent = new PersistentSortedCollection<>();
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt();
+            tree.insert(key);
+            persistent.insert(key);
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            long start = System.nanoTime();
+            for (int i = 0; i < snapshots; i++) {
+                sink = RedBlackTree.fromSorted(toArray(tree));
+                tree.insert(random.nextInt());
+            }
+            long afterCopy = System.nanoTime();
+            for (int i = 0; i < snapshots; i++) {
+                sink = persistent.snapshot();
+                persistent.insert(random.nextInt());
+            }
+            long afterSnapshot = System.nanoTime();
+            sink = null;
+            if (round == WARMUP_ROUNDS - 1) {
+                System.out.printf("snapshot     n=%-8d deep copy %10.1f us/op  persistent %7.1f us/op  height %d vs %d%n",
+                    n, (afterCopy - start) / 1e3 / snapshots, (afterSnapshot - afterCopy) / 1e3 / snapshots,
+                    tree.height(), persistent.height());
+            }
+        }
+    }
+
+    /**
+     * Compares merging two collections of n random keys each: inserting
+     * every value of one RedBlackTree into another, against the join-based
+     * PersistentSortedCollection.union() on one thread and on the common
+     * ForkJoinPool. Intersection and difference are timed on the pool too.
+     * @param n the number of keys in each collection
+     */
+    static void setOperations(int n) {
+        Random random = new Random(42);
+        RedBlackTree<Integer> first = new RedBlackTree<>();
+        RedBlackTree<Integer> second = new RedBlackTree<>();
+        for (int i = 0; i < n; i++) {
+            first.insert(random.nextInt(4 * n));
+            second.insert(random.nextInt(4 * n));
+        }
+        PersistentSortedCollection<Integer> a = PersistentSortedCollection.copyOf(first);
+        PersistentSortedCollection<Integer> b = PersistentSortedCollection.copyOf(second);
+        ForkJoinPool single = new ForkJoinPool(1);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            RedBlackTree<Integer> merged = RedBlackTree.fromSorted(toArray(first));
+            long start = System.nanoTime();
+            for (Integer value : second) {
+                merged.insert(value);
+            }
+            long insertNanos = System.nanoTime() - start;
+            // each operation allocates O(n) nodes, so start them all from a
+            // collected heap to keep one from paying for the others' garbage
+            System.gc();
+            start = System.nanoTime();
+            PersistentSortedCollection<Integer> sequential = a.combine(PersistentSortedCollection.Operation.UNION, b, single);
+            long sequentialNanos = System.nanoTime() - start;
+            System.gc();
+            start = System.nanoTime();
+            PersistentSortedCollection<Integer> parallel = a.union(b);
+            long parallelNanos = System.nanoTime() - start;
+            System.gc();
+            start = System.nanoTime();
+            sink = a.intersection(b);
+            long intersectionNanos = System.nanoTime() - start;
+            System.gc();
+            start = System.nanoTime();
+            sink = a.difference(b);
+            long differenceNanos = System.nanoTime() - start;
+            if (merged.size() != 2 * n || sequential.size() != 2 * n || parallel.size() != 2 * n) {
+                throw new IllegalStateException("Lost keys");
+            }
+            if (round == WARMUP_ROUNDS - 1) {
+                System.out.printf("set ops      n=%-8d insert loop %7.1f ms  union 1 thread %7.1f ms  union %d threads %7.1f ms  intersection %7.1f ms  difference %7.1f ms%n",
+                    n, insertNanos / 1e6, sequentialNanos / 1e6, ForkJoinPool.commonPool().getParallelism(),
+                    parallelNanos / 1e6, intersectionNanos / 1e6, differenceNanos / 1e6);
+            }
+        }
+        single.shutdown();
+    }
+
+    /**
+     * @return the values of collection in sorted order
+     */
+    private static Integer[] toArray(SortedCollection<Integer> collection) {
+        Integer[] values = new Integer[collection.size()];
+        int count = 0;
+        for (Integer value : collection) {
+            values[count++] = value;
+        }
+        return values;
+    }
+
+    /**
+     * Compares contains() on a RedBlackTree of n random keys, on the
+     * EytzingerIndex frozen from it, and Arrays.binarySearch() on the same
+     * keys in a sorted array. Half of the lookups are for stored keys.
+     * @param n the number of keys
+     */
+    static void eytzinger(int n) {
+        Random random = new Random(42);
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        for (int i = 0; i < n; i++) {
+            tree.insert(random.nextInt());
+        }
+        long start = System.nanoTime();
+        EytzingerIndex<Integer> index = tree.freeze();
+        long freezeNanos = System.nanoTime() - start;
+        Integer[] sorted = toArray(tree);
+        Integer[] probes = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            probes[i] = random.nextBoolean() ? sorted[random.nextInt(n)] : random.nextInt();
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            // the timing of the last round is reported
+            start = System.nanoTime();
+            int inTree = 0;
+            for (Integer probe : probes) {
+                if (tree.contains(probe)) inTree++;
+            }
+            long afterTree = System.nanoTime();
+            int inIndex = 0;
+            for (Integer probe : probes) {
+                if (index.contains(probe)) inIndex++;
+            }
+            long afterIndex = System.nanoTime();
+            int inArray = 0;
+            for (Integer probe : probes) {
+                if (Arrays.binarySearch(sorted, probe) >= 0) inArray++;
+            }
+            long afterArray = System.nanoTime();
+            if (inTree != inIndex || inTree != inArray) throw new IllegalStateException("Lookups differ");
+            if (round == WARMUP_ROUNDS - 1) {
+                System.out.printf("eytzinger    n=%-8d freeze %6.1f ms  RedBlackTree %7.1f ns/op  EytzingerIndex %7.1f ns/op  binarySearch %7.1f ns/op%n",
+                    n, freezeNanos / 1e6, (double) (afterTree - start) / n, (double) (afterIndex - afterTree) / n,
+                    (double) (afterArray - afterIndex) / n);
+            }
+        }
+    }
+
+    /**
+     * Measures sustained inserts per second into a DurableSortedCollection
+     * backed by a RedBlackTree, for several numbers of changes per fsync,
+     * and how long reopening the directory takes afterwards.
+     * @param n the number of random keys inserted per setting
+     * @param syncIntervals the numbers of changes per fsync to measure
+     */
+    static void durableInserts(int n, int... syncIntervals) throws IOException {
+        Random random = new Random(42);
+        for (int syncInterval : syncIntervals) {
+            Path directory = Files.createTempDirectory("durable");
+            try {
+                DurableSortedCollection<Integer> durable = DurableSortedCollection.open(directory,
+                    new RedBlackTree<Integer>(), KeyCodec.INTEGER, syncInterval, DurableSortedCollection.DEFAULT_COMPACTION_THRESHOLD);
+                long start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    durable.insert(random.nextInt());
+                }
+                durable.close();
+                long afterInsert = System.nanoTime();
+                DurableSortedCollection<Integer> reopened = DurableSortedCollection.open(directory,
+                    new RedBlackTree<Integer>(), KeyCodec.INTEGER);
+                long afterReplay = System.nanoTime();
+                if (reopened.size() != n) throw new IllegalStateException("Lost keys");
+                reopened.close();
+                System.out.printf("durable      n=%-8d sync every %-6d %10.0f inserts/s  replay %7.1f ms%n",
+                    n, syncInterval, n / ((afterInsert - start) / 1e9), (afterReplay - afterInsert) / 1e6);
+            } finally {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.delete(file);
+                    }
+                }
+                Files.delete(directory);
+            }
+        }
+    }
+
+    /**
+     * Compares the balanced trees on n random and n sorted keys: insert and
+     * contains() time, the mean number of nodes a successful lookup visits,
+     * and the number of rotations the inserts caused.
+     * @param n the number of keys inserted and looked up
+     */
+    static void balancedTrees(int n) {
+        Random random = new Random(42);
+        for (String distribution : new String[] {"random", "sorted"}) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = distribution.equals("sorted") ? i : random.nextInt();
+            }
+            List<Supplier<BSTRotation<Integer>>> trees = List.of(RedBlackTree::new, AVLTree::new, SplayTree::new);
+            for (Supplier<BSTRotation<Integer>> supplier : trees) {
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    // the timing of the last round is reported
+                    BSTRotation<Integer> tree = supplier.get();
+                    long start = System.nanoTime();
+                    for (Integer key : keys) {
+                        tree.insert(key);
+                    }
+                    long afterInsert = System.nanoTime();
+                    int found = 0;
+                    for (Integer key : keys) {
+                        if (tree.contains(key)) found++;
+                    }
+                    long afterContains = System.nanoTime();
+                    if (found != n) throw new IllegalStateException("Lost keys");
+                    if (round < WARMUP_ROUNDS - 1) continue;
+                    // count depths and rotations on a second tree, off the clock
+                    BSTRotation<Integer> counted = supplier.get();
+                    TreeMetrics metrics = counted.enableMetrics();
+                    for (Integer key : keys) {
+                        counted.insert(key);
+                    }
+                    long rotations = metrics.getRotations();
+                    metrics.reset();
+                    for (Integer key : keys) {
+                        counted.contains(key);
+                    }
+                    System.out.printf("%-7s %-14s n=%-8d insert %7.1f ns/op  contains %7.1f ns/op  mean depth %5.2f  height %3d  rotations %.2f/insert%n",
+                        distribution, tree.getClass().getSimpleName(), n, (double) (afterInsert - start) / n,
+                        (double) (afterContains - afterInsert) / n, metrics.getMeanLookupDepth(), tree.height(),
+                        (double) rotations / n);
+                }
+            }
+        }
+    }
+
+    /**
+     * A record that is not Comparable, ordered by its timestamp.
+     */
+    record Reading(long timestamp, double value) { }
+
+    /**
+     * The adapter a Comparable-only tree needs to order Readings by their
+     * timestamp: one extra object per stored value.
+     */
+    static final class ByTimestamp implements Comparable<ByTimestamp> {
+
+        final Reading reading;
+
+        ByTimestamp(Reading reading) { this.reading = reading; }
+
+        @Override
+        public int compareTo(ByTimestamp other) {
+            return Long.compare(this.reading.timestamp(), other.reading.timestamp());
+        }
+    }
+
+    /**
+     * Compares three ways of ordering records by a long field in a
+     * red-black tree: wrapping each record in a Comparable adapter, a
+     * Comparator, and a key extractor whose keys are cached in the nodes.
+     * Reports the time per insert and contains, and the bytes allocated
+     * per insert, which includes the adapter for the wrapped records.
+     * @param n the number of records
+     */
+    static void keyedOrders(int n) {
+        Random random = new Random(42);
+        Reading[] readings = new Reading[n];
+        for (int i = 0; i < n; i++) {
+            readings[i] = new Reading(random.nextLong(), i);
+        }
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            boolean print = round == WARMUP_ROUNDS - 1;
+            RedBlackTree<ByTimestamp> wrapped = new RedBlackTree<>();
+            timeKeyedOrder("adapter", wrapped, readings, ByTimestamp::new, print);
+            RedBlackTree<Reading> compared = new RedBlackTree<>(Comparator.comparingLong(Reading::timestamp));
+            timeKeyedOrder("comparator", compared, readings, reading -> reading, print);
+            RedBlackTree<Reading> keyed = new RedBlackTree<>(Reading::timestamp);
+            timeKeyedOrder("key extractor", keyed, readings, reading -> reading, print);
+        }
+    }
+
+    private static <T> void timeKeyedOrder(String label, RedBlackTree<T> tree, Reading[] readings,
+        Function<Reading, T> toValue, boolean print) {
+        int n = readings.length;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (Reading reading : readings) {
+            tree.insert(toValue.apply(reading));
+        }
+        long afterInsert = System.nanoTime();
+        allocated = allocatedBytes() - allocated;
+        int found = 0;
+        for (Reading reading : readings) {
+            if (tree.contains(toValue.apply(reading))) found++;
+        }
+        long afterContains = System.nanoTime();
+        if (found != n) throw new IllegalStateException("Lost records");
+        if (print) {
+            System.out.printf("%-14s n=%-8d insert %7.1f ns/op  contains %7.1f ns/op  %5.1f bytes allocated/insert%n",
+                label, n, (double) (afterInsert - start) / n, (double) (afterContains - afterInsert) / n,
+                (double) allocated / n);
+        }
+    }
+
+    /**
+     * Compares BinarySearchTreeMap with java.util.TreeMap on put, get,
+     * merge, iterating a subMap view, and remove, all with random keys.
+     * merge() counts how often each of n / 16 keys comes up, so most calls
+     * update an existing entry.
+     * @param n the number of keys
+     */
+    static void mapVsTreeMap(int n) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        List<Supplier<SortedMap<Integer, Integer>>> maps = List.of(TreeMap::new, BinarySearchTreeMap::new);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (Supplier<SortedMap<Integer, Integer>> supplier : maps) {
+                SortedMap<Integer, Integer> map = supplier.get();
+                long start = System.nanoTime();
+                for (Integer key : keys) {
+                    map.put(key, key);
+                }
+                long afterPut = System.nanoTime();
+                long sum = 0;
+                for (Integer key : keys) {
+                    sum += map.get(key);
+                }
+                long afterGet = System.nanoTime();
+                SortedMap<Integer, Integer> counts = supplier.get();
+                for (Integer key : keys) {
+                    counts.merge(key & (n / 16 - 1), 1, Integer::sum);
+                }
+                long afterMerge = System.nanoTime();
+                // 1000 views of about n / 1000 entries each, halving the
+                // start so the end cannot overflow
+                int visited = 0;
+                for (int i = 0; i < 1000; i++) {
+                    int from = keys[i] >> 1;
+                    for (Map.Entry<Integer, Integer> entry : map.subMap(from, from + (1 << 22)).entrySet()) {
+                        sum += entry.getValue();
+                        visited++;
+                    }
+                }
+                long afterSubMap = System.nanoTime();
+                for (Integer key : keys) {
+                    map.remove(key);
+                }
+                long afterRemove = System.nanoTime();
+                sink = sum;
+                if (!map.isEmpty()) throw new IllegalStateException("Map not emptied");
+                if (round < WARMUP_ROUNDS - 1) continue;
+                System.out.printf("%-19s n=%-8d put %7.1f  get %7.1f  merge %7.1f  subMap %5.1f/entry  remove %7.1f ns/op%n",
+                    map.getClass().getSimpleName(), n, (double) (afterPut - start) / n,
+                    (double) (afterGet - afterPut) / n, (double) (afterMerge - afterGet) / n,
+                    (double) (afterSubMap - afterMerge) / visited, (double) (afterRemove - afterSubMap) / n);
+            }
+        }
+    }
+
+    /**
+     * @return the number of garbage collections run so far, by all collectors
+     */
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Fills a red-black tree with n keys, removes and re-inserts a quarter
+     * of them, and clears it, over and over, with and without the node
+     * pool. Reports the time and the bytes allocated per insert, and the
+     * garbage collections run, over the measured cycles.
+     * @param n the number of keys per fill
+     * @param cycles the number of fill and clear cycles measured
+     */
+    static void nodePoolChurn(int n, int cycles) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = random.nextInt();
+        }
+        for (boolean pooled : new boolean[] {false, true}) {
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            if (pooled) tree.enableNodePool();
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                long allocated = allocatedBytes();
+                long collections = gcCount();
+                long start = System.nanoTime();
+                for (int cycle = 0; cycle < cycles; cycle++) {
+                    for (Integer key : keys) {
+                        tree.insert(key);
+                    }
+                    for (int i = 0; i < n / 4; i++) {
+                        tree.remove(keys[i]);
+                    }
+                    for (int i = 0; i < n / 4; i++) {
+                        tree.insert(keys[i]);
+                    }
+                    tree.clear();
+                }
+                long elapsed = System.nanoTime() - start;
+                allocated = allocatedBytes() - allocated;
+                collections = gcCount() - collections;
+                if (round < WARMUP_ROUNDS - 1) continue;
+                long inserts = (long) cycles * (n + n / 4);
+                System.out.printf("%-9s n=%-8d cycles=%-4d %7.1f ns/insert  %6.2f bytes allocated/insert  %d GCs%n",
+                    pooled ? "pooled" : "unpooled", n, cycles, (double) elapsed / inserts,
+                    (double) allocated / inserts, collections);
+            }
+        }
+    }
+
+    /**
+     * Measures total throughput of a mix of contains() and insert()/remove()
+     * calls spread over a number of threads, for ConcurrentSortedCollection
+     * and for a RedBlackTree behind a single global lock.
+     * @param maxThreads the largest thread count to measure, doubling from 1
+     * @param millis how long to run each configuration
+     */
+    static void concurrentThroughput(int maxThreads, long millis) throws InterruptedException {
+        int keyRange = 1 << 20;
+        for (int readPercent : new int[] {50, 90, 99}) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                ConcurrentSortedCollection<Integer> concurrent = new ConcurrentSortedCollection<>();
+                RedBlackTree<Integer> locked = new RedBlackTree<>();
+                Random random = new Random(42);
+                for (int i = 0; i < keyRange / 8; i++) {
+                    int key = random.nextInt(keyRange);
+                    concurrent.insert(key);
+                    locked.insert(key);
+                }
+                double concurrentOps = runMix(concurrent, threads, readPercent, keyRange, millis);
+                double lockedOps = runMix(locked, threads, readPercent, keyRange, millis);
+                System.out.printf("reads=%2d%%   threads=%-3d concurrent %8.2f Mops/s  global lock %8.2f Mops/s%n",
+                    readPercent, threads, concurrentOps / 1e6, lockedOps / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Runs threads that each perform random operations on collection for
+     * the given time. Collections other than ConcurrentSortedCollection are
+     * guarded by synchronizing on them.
+     * @return the total number of operations per second over all threads
+     */
+    private static double runMix(SortedCollection<Integer> collection, int threads, int readPercent,
+        int keyRange, long millis) throws InterruptedException {
+        boolean needsLock = !(collection instanceof ConcurrentSortedCollection);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder operations = new LongAdder();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                long done = 0;
+                while (running.get()) {
+                    int key = random.nextInt(keyRange);
+                    int choice = random.nextInt(100);
+                    if (needsLock) {
+                        synchronized (collection) {
+                            applyOperation(collection, choice, readPercent, key);
+                        }
+                    } else {
+                        applyOperation(collection, choice, readPercent, key);
+                    }
+                    done++;
+                }
+                operations.add(done);
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return operations.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Performs a contains() when choice falls below readPercent, and
+     * otherwise an insert() or a remove() in equal proportion.
+     */
+    private static void applyOperation(SortedCollection<Integer> collection, int choice, int readPercent, int key) {
+        if (choice < readPercent) {
+            collection.contains(key);
+        } else if ((choice & 1) == 0) {
+            collection.insert(key);
+        } else {
+            collection.remove(key);
+        }
+    }
+
+    /**
+     * Creates int keys for one of the suite's key distributions.
+     * @param distribution one of "random", "sorted", "reverse" or "duplicates"
+     * @param n the number of keys to create
+     * @return the keys in insertion order
+     */
+    static Integer[] suiteKeys(String distribution, int n) {
+        Random random = new Random(42);
+        Integer[] keys = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            switch (distribution) {
+                case "random": keys[i] = random.nextInt(); break;
+                case "sorted": keys[i] = i; break;
+                case "reverse": keys[i] = n - i; break;
+                case "duplicates": keys[i] = random.nextInt(16); break;
+                default: throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread
+     */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs operation(0) to operation(ops - 1) once and, when print is set,
+     * reports throughput, latency percentiles, and bytes allocated per
+     * operation. Latencies are timed individually for a sample of at most
+     * about a million operations, which adds the cost of two nanoTime()
+     * calls to those operations only.
+     */
+    static void measure(String label, int ops, IntConsumer operation, boolean print) {
+        int stride = Math.max(1, ops / (1 << 20));
+        long[] latencies = new long[(ops + stride - 1) / stride];
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            if (i % stride == 0) {
+                long before = System.nanoTime();
+                operation.accept(i);
+                latencies[i / stride] = System.nanoTime() - before;
+            } else {
+                operation.accept(i);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        if (!print) return;
+        Arrays.sort(latencies);
+        System.out.printf("%-40s %10.3f Mops/s  p50 %7d  p99 %8d  p99.9 %8d ns  %8.1f B/op%n",
+            label, ops / (nanos / 1e3), percentile(latencies, 0.50), percentile(latencies, 0.99),
+            percentile(latencies, 0.999), (double) allocated / ops);
+    }
+
+    /**
+     * @return the value at fraction p of the sorted samples
+     */
+    static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+    }
+
+    /**
+     * Measures insert, contains, size, traversal and rotate for
+     * BSTRotation and RedBlackTree over every distribution, at sizes
+     * 10^3, 10^4, ... up to maxN. Sorted and reverse-sorted input makes an
+     * unbalanced BSTRotation a linked list, so those runs stop at 10^4.
+     * Run it with: java TreeBenchmark suite [maxN]
+     * The JMH version in src/jmh/java/bst/TreeSuiteBenchmark covers the
+     * same matrix up to 10^7.
+     * @param maxN the largest tree size to measure
+     */
+    static void suite(int maxN) {
+        String[] distributions = {"random", "sorted", "reverse", "duplicates"};
+        List<Supplier<BSTRotation<Integer>>> factories = List.of(BSTRotation::new, RedBlackTree::new);
+        for (int n = 1000; n <= maxN; n *= 10) {
+            for (String distribution : distributions) {
+                Integer[] keys = suiteKeys(distribution, n);
+                for (Supplier<BSTRotation<Integer>> factory : factories) {
+                    boolean degenerate = !(factory.get() instanceof RedBlackTree) && !distribution.equals("random")
+                        && !distribution.equals("duplicates");
+                    if (degenerate && n > 10_000) continue;
+                    // sizes run in increasing order, so only the small ones
+                    // need warm up rounds before the JIT has compiled the code
+                    int rounds = n <= 100_000 ? WARMUP_ROUNDS + 1 : 1;
+                    for (int round = 0; round < rounds; round++) {
+                        suiteRound(factory.get(), distribution, keys, round == rounds - 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs one round of every suite operation on tree.
+     */
+    private static void suiteRound(BSTRotation<Integer> tree, String distribution, Integer[] keys, boolean print) {
+        int n = keys.length;
+        String prefix = String.format("%s %s n=%d ", tree.getClass().getSimpleName(), distribution, n);
+        measure(prefix + "insert", n, i -> tree.insert(keys[i]), print);
+        measure(prefix + "contains", n, i -> {
+            if (!tree.contains(keys[i])) throw new IllegalStateException("Lost key " + keys[i]);
+        }, print);
+        measure(prefix + "size", n, i -> {
+            if (tree.size() != n) throw new IllegalStateException("Wrong size " + tree.size());
+        }, print);
+        Iterator<Integer> traversal = tree.iterator();
+        measure(prefix + "traversal", n, i -> sink = traversal.next(), print);
+        // rotate the root's left child up and back down again
+        measure(prefix + "rotate", n, i -> {
+            BinaryTreeNode<Integer> root = tree.root;
+            BinaryTreeNode<Integer> child = i % 2 == 0 ? root.childLeft() : root.childRight();
+            if (child != null) tree.rotate(child, root);
+        }, print);
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        if (args.length > 0 && args[0].equals("suite")) {
+            suite(args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000);
+            return;
+        }
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+        insertAndContains("random", n);
+        insertAndContains("sorted", n);
+        insertAndContains("duplicates", n);
+        duplicateCompressionMemory(200_000, 20_000);
+        bulkLoad(1_000_000);
+        primitiveVsGeneric(1_000_000);
+        wideNodes(2_000_000);
+        mappedStartup(2_000_000);
+        offHeap(2_000_000);
+        skewedLookups(1_000_000, 2_000_000, 1.0);
+        skewedLookups(1_000_000, 2_000_000, 1.2);
+        metricsOverhead(1_000_000);
+        batchLookups(1_000_000, 100, 10_000, 1_000_000);
+        persistentSnapshots(1_000_000, 20);
+        setOperations(2_000_000);
+        eytzinger(100_000);
+        eytzinger(4_000_000);
+        durableInserts(50_000, 1, 16, 256, 4096);
+        balancedTrees(1_000_000);
+        keyedOrders(1_000_000);
+        mapVsTreeMap(1 << 20);
+        nodePoolChurn(10_000, 200);
+        nodePoolChurn(1_000_000, 3);
+        concurrentThroughput(32, 500);
+    }
+}
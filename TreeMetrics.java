@@ -0,0 +1,298 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms describing how a BinarySearchTree is used: how
+ * many comparisons and node visits its operations take, how often it
+ * rotates, how deep operations go and how long they take. A tree only
+ * records into a TreeMetrics after BinarySearchTree.enableMetrics() has been
+ * called; until then the instrumented methods cost a single null check.
+ *
+ * The counters are LongAdders and the histograms atomic arrays, so they can
+ * be read from another thread at any time, for example over JMX after
+ * register() has been called.
+ */
+public class TreeMetrics implements TreeMetricsMBean {
+
+    // number of depth histogram entries; the last one counts all deeper operations
+    public static final int DEPTH_BUCKETS = 64;
+    // number of latency histogram entries, enough for any long number of nanoseconds
+    public static final int LATENCY_BUCKETS = 64;
+
+    // the tree being measured
+    private final BinarySearchTree<?> tree;
+
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder lookupNodesVisited = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final AtomicLongArray depthHistogram = new AtomicLongArray(DEPTH_BUCKETS);
+    private final AtomicLongArray insertLatency = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLongArray lookupLatency = new AtomicLongArray(LATENCY_BUCKETS);
+
+    // the name this object is registered under with JMX, or null
+    private ObjectName registeredName;
+
+    /**
+     * Creates empty metrics for tree. Use BinarySearchTree.enableMetrics()
+     * to create metrics that the tree records into.
+     * @param tree the tree being measured
+     */
+    TreeMetrics(BinarySearchTree<?> tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Records one insert() call.
+     * @param comparisons the number of compareTo() calls it made
+     * @param depth the depth of the node the value ended up in
+     * @param nanos how long it took
+     */
+    void recordInsert(int comparisons, int depth, long nanos) {
+        this.inserts.increment();
+        this.comparisons.add(comparisons);
+        this.nodesVisited.add(depth);
+        this.depthHistogram.incrementAndGet(Math.min(depth, DEPTH_BUCKETS - 1));
+        this.insertLatency.incrementAndGet(latencyBucket(nanos));
+    }
+
+    /**
+     * Records one contains() call.
+     * @param visited the number of nodes it compared data with
+     * @param found whether the value was found
+     * @param nanos how long it took
+     */
+    void recordLookup(int visited, boolean found, long nanos) {
+        this.lookups.increment();
+        if (found) this.hits.increment();
+        this.comparisons.add(visited);
+        this.nodesVisited.add(visited);
+        this.lookupNodesVisited.add(visited);
+        this.depthHistogram.incrementAndGet(Math.min(visited, DEPTH_BUCKETS - 1));
+        this.lookupLatency.incrementAndGet(latencyBucket(nanos));
+    }
+
+    /**
+     * Records one rotation.
+     */
+    void recordRotation() {
+        this.rotations.increment();
+    }
+
+    /**
+     * @return the histogram entry for an operation that took nanos
+     */
+    private static int latencyBucket(long nanos) {
+        return nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    @Override
+    public long getInserts() {
+        return this.inserts.sum();
+    }
+
+    @Override
+    public long getLookups() {
+        return this.lookups.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    @Override
+    public long getComparisons() {
+        return this.comparisons.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return this.nodesVisited.sum();
+    }
+
+    @Override
+    public long getRotations() {
+        return this.rotations.sum();
+    }
+
+    @Override
+    public double getMeanLookupDepth() {
+        long lookups = this.lookups.sum();
+        return lookups == 0 ? 0 : (double) this.lookupNodesVisited.sum() / lookups;
+    }
+
+    /**
+     * Computes the height by walking the whole tree, in O(n) time. The tree
+     * is not thread-safe, so a height read over JMX while the tree is being
+     * changed is only an estimate, and is reported as -1 if the walk fails.
+     * @return the current height of the tree
+     */
+    @Override
+    public int getHeight() {
+        try {
+            return this.tree.height();
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return this.tree.size();
+    }
+
+    @Override
+    public long[] getDepthHistogram() {
+        return toArray(this.depthHistogram);
+    }
+
+    @Override
+    public long[] getInsertLatencyHistogram() {
+        return toArray(this.insertLatency);
+    }
+
+    @Override
+    public long[] getLookupLatencyHistogram() {
+        return toArray(this.lookupLatency);
+    }
+
+    /**
+     * @return a copy of the entries of histogram
+     */
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] copy = new long[histogram.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = histogram.get(i);
+        }
+        return copy;
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder counter : new LongAdder[] {this.inserts, this.lookups, this.hits, this.comparisons,
+            this.nodesVisited, this.lookupNodesVisited, this.rotations}) {
+            counter.reset();
+        }
+        for (AtomicLongArray histogram : new AtomicLongArray[] {this.depthHistogram, this.insertLatency,
+            this.lookupLatency}) {
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Publishes these metrics with the platform MBean server, under the name
+     * "BinarySearchTree:type=TreeMetrics,name=" followed by name.
+     * @param name identifies the tree on dashboards
+     * @return the name the metrics were registered under
+     * @throws JMException if the name is invalid or already in use
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("BinarySearchTree:type=TreeMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        this.registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes these metrics from the platform MBean server, if register()
+     * was called.
+     * @throws JMException if the metrics could not be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (this.registeredName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredName);
+            this.registeredName = null;
+        }
+    }
+
+
+
+    //-------------------------------------------------Testing------------------------------------------------------------------
+
+
+    /**
+     * Test1 checks the counters and histograms for a small tree whose shape
+     * is known
+     * @return true if every operation is recorded as expected
+     */
+    public boolean test1() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        TreeMetrics metrics = bst.enableMetrics();
+        /*
+         *          10
+         *      5       15
+         *   3
+         */
+        for (int value : new int[] {10, 5, 15, 3}) {
+            bst.insert(value);
+        }
+        if (metrics.getInserts() != 4 || metrics.getComparisons() != 0 + 1 + 1 + 2) return false;
+        if (!bst.contains(3) || bst.contains(4) || !bst.contains(10)) return false;
+        if (metrics.getLookups() != 3 || metrics.getHits() != 2) return false;
+        // the lookups visit 3, 3 and 1 nodes
+        if (metrics.getMeanLookupDepth() != 7.0 / 3) return false;
+        long[] depths = metrics.getDepthHistogram();
+        if (depths[1] != 2 || depths[2] != 2 || depths[3] != 3) return false;
+        long latencies = 0;
+        for (long count : metrics.getLookupLatencyHistogram()) {
+            latencies += count;
+        }
+        if (latencies != 3 || metrics.getHeight() != 3 || metrics.getSize() != 4) return false;
+
+        // rotations are counted, and a disabled tree records nothing
+        RedBlackTree<Integer> rbt = new RedBlackTree<>();
+        TreeMetrics rbtMetrics = rbt.enableMetrics();
+        rbt.insert(1);
+        rbt.insert(2);
+        rbt.insert(3);
+        if (rbtMetrics.getRotations() != 1 || rbtMetrics.getInserts() != 3) return false;
+        rbt.disableMetrics();
+        rbt.insert(4);
+        rbt.contains(4);
+        if (rbtMetrics.getInserts() != 3 || rbtMetrics.getLookups() != 0) return false;
+        rbtMetrics.reset();
+        return rbtMetrics.getRotations() == 0 && rbtMetrics.getDepthHistogram()[1] == 0;
+    }
+
+    /**
+     * Test2 publishes the metrics over JMX and reads them back through the
+     * platform MBean server
+     * @return true if the attributes can be read by name
+     */
+    public boolean test2() {
+        BinarySearchTree<Integer> bst = new BinarySearchTree<>();
+        TreeMetrics metrics = bst.enableMetrics();
+        try {
+            ObjectName name = metrics.register("test tree");
+            bst.insert(1);
+            bst.insert(2);
+            bst.contains(2);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!Long.valueOf(2).equals(server.getAttribute(name, "Inserts"))) return false;
+            if (!Integer.valueOf(2).equals(server.getAttribute(name, "Height"))) return false;
+            if (((long[]) server.getAttribute(name, "DepthHistogram"))[2] != 2) return false;
+            server.invoke(name, "reset", null, null);
+            if (metrics.getLookups() != 0) return false;
+            metrics.unregister();
+            return !server.isRegistered(name);
+        } catch (JMException e) {
+            return false;
+        }
+    }
+
+    public static void main(String[] args) {
+        TreeMetrics faceOfTheOperations = new TreeMetrics(new BinarySearchTree<Integer>());
+        System.out.println("Test 1 " + (faceOfTheOperations.test1() ? "passes" : "fails"));
+        System.out.println("Test 2 " + (faceOfTheOperations.test2() ? "passes" : "fails"));
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * The management interface of TreeMetrics, through which JMX clients such as
+ * JConsole or a metrics agent read the counters of an instrumented tree.
+ */
+public interface TreeMetricsMBean {
+
+    /**
+     * @return the number of insert() calls recorded
+     */
+    public long getInserts();
+
+    /**
+     * @return the number of contains() calls recorded
+     */
+    public long getLookups();
+
+    /**
+     * @return the number of contains() calls that found their value
+     */
+    public long getHits();
+
+    /**
+     * @return the number of compareTo() calls made by recorded operations
+     */
+    public long getComparisons();
+
+    /**
+     * @return the number of nodes visited by recorded operations
+     */
+    public long getNodesVisited();
+
+    /**
+     * @return the number of rotations performed
+     */
+    public long getRotations();
+
+    /**
+     * @return the average number of nodes visited per contains() call
+     */
+    public double getMeanLookupDepth();
+
+    /**
+     * @return the current height of the tree
+     */
+    public int getHeight();
+
+    /**
+     * @return the current number of values in the tree
+     */
+    public int getSize();
+
+    /**
+     * @return entry d counts the operations that ended at depth d, the
+     * root being at depth 1 and the last entry counting all deeper ones
+     */
+    public long[] getDepthHistogram();
+
+    /**
+     * @return entry b counts the insert() calls that took from 2^(b-1) up
+     * to 2^b - 1 nanoseconds, entry 0 those that took no measurable time
+     */
+    public long[] getInsertLatencyHistogram();
+
+    /**
+     * @return entry b counts the contains() calls that took from 2^(b-1)
+     * up to 2^b - 1 nanoseconds, entry 0 those that took no measurable time
+     */
+    public long[] getLookupLatencyHistogram();
+
+    /**
+     * Sets every counter and histogram back to zero.
+     */
+    public void reset();
+}
@@ -0,0 +1,197 @@
+package bst;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JMH version of TreeBenchmark.insertAndContains(): ns/op and
+ * compareTo calls per op for BinarySearchTree insert() and contains() on
+ * random, sorted and duplicate-heavy keys, before and after they were made
+ * iterative. "recursive" is a copy of the earlier recursive helpers, which
+ * compared up to three times per level; "iterative" is BinarySearchTree.
+ *     mvn -P benchmark test-compile exec:exec@jmh -Djmh.args="InsertContainsBenchmark"
+ * The comparisons and keys columns add up the compareTo calls and the keys
+ * inserted or looked up over the measurement iterations, so comparisons
+ * divided by keys is the number of compareTo calls per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InsertContainsBenchmark {
+
+    // number of keys inserted and looked up per invocation, as in the
+    // figures of the iterative insert and contains change
+    static final int N = 4000;
+
+    @Param({"random", "sorted", "duplicates"})
+    String distribution;
+
+    @Param({"recursive", "iterative"})
+    String implementation;
+
+    private TreeBenchmark.CountingKey[] keys;
+    private Tree filled;
+
+    /**
+     * Counts the compareTo calls and keys of each iteration, which JMH adds
+     * up over the measurement iterations.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Comparisons {
+
+        // compareTo calls made in this iteration
+        public long comparisons;
+        // number of keys inserted or looked up in this iteration
+        public long keys;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            TreeBenchmark.CountingKey.comparisons = 0;
+            this.comparisons = 0;
+            this.keys = 0;
+        }
+
+        void record() {
+            this.keys += N;
+            this.comparisons = TreeBenchmark.CountingKey.comparisons;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        this.keys = TreeBenchmark.keys(this.distribution, N);
+        this.filled = newTree();
+        for (TreeBenchmark.CountingKey key : this.keys) {
+            this.filled.insert(key);
+        }
+    }
+
+    private Tree newTree() {
+        if (this.implementation.equals("recursive")) return new RecursiveTree();
+        BinarySearchTree<TreeBenchmark.CountingKey> tree = new BinarySearchTree<>();
+        return new Tree() {
+            @Override
+            public void insert(TreeBenchmark.CountingKey key) { tree.insert(key); }
+
+            @Override
+            public boolean contains(TreeBenchmark.CountingKey key) { return tree.contains(key); }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public Tree insert(Comparisons counter) {
+        Tree tree = newTree();
+        for (TreeBenchmark.CountingKey key : this.keys) {
+            tree.insert(key);
+        }
+        counter.record();
+        return tree;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N)
+    public int contains(Comparisons counter) {
+        int found = 0;
+        for (TreeBenchmark.CountingKey key : this.keys) {
+            if (this.filled.contains(key)) found++;
+        }
+        if (found != N) throw new IllegalStateException("Lost keys: " + found + " of " + N);
+        counter.record();
+        return found;
+    }
+
+    /**
+     * The two operations being compared.
+     */
+    interface Tree {
+        void insert(TreeBenchmark.CountingKey key);
+
+        boolean contains(TreeBenchmark.CountingKey key);
+    }
+
+    /**
+     * insert() and contains() as BinarySearchTree implemented them before
+     * they became iterative: one recursive call per level, with separate
+     * compareTo calls for the equal, less and greater cases.
+     */
+    static final class RecursiveTree implements Tree {
+        private BinaryTreeNode<TreeBenchmark.CountingKey> root;
+
+        @Override
+        public void insert(TreeBenchmark.CountingKey key) {
+            BinaryTreeNode<TreeBenchmark.CountingKey> node = new BinaryTreeNode<>(key);
+            if (this.root == null) {
+                this.root = node;
+            } else {
+                insertHelper(node, this.root);
+            }
+        }
+
+        private void insertHelper(BinaryTreeNode<TreeBenchmark.CountingKey> newNode,
+            BinaryTreeNode<TreeBenchmark.CountingKey> subRoot) {
+            if (subRoot == null) return;
+            if (newNode.getData().compareTo(subRoot.getData()) == 0) {
+                if (subRoot.childLeft() == null) {
+                    subRoot.setChildLeft(newNode);
+                    newNode.setParent(subRoot);
+                    return;
+                }
+                newNode.setChildLeft(subRoot.childLeft());
+                subRoot.childLeft().setParent(newNode);
+                subRoot.setChildLeft(newNode);
+                newNode.setParent(subRoot);
+            }
+            if (newNode.getData().compareTo(subRoot.getData()) < 0) {
+                if (subRoot.childLeft() == null) {
+                    subRoot.setChildLeft(newNode);
+                    newNode.setParent(subRoot);
+                    return;
+                } else {
+                    insertHelper(newNode, subRoot.childLeft());
+                }
+            } else if (newNode.getData().compareTo(subRoot.getData()) > 0) {
+                if (subRoot.childRight() == null) {
+                    subRoot.setChildRight(newNode);
+                    newNode.setParent(subRoot);
+                    return;
+                } else {
+                    insertHelper(newNode, subRoot.childRight());
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(TreeBenchmark.CountingKey key) {
+            return containsHelper(key, this.root);
+        }
+
+        private boolean containsHelper(TreeBenchmark.CountingKey data, BinaryTreeNode<TreeBenchmark.CountingKey> subRoot) {
+            if (subRoot == null) return false;
+            if (subRoot.getData().compareTo(data) == 0) return true;
+            if (data.compareTo(subRoot.getData()) < 0) {
+                return containsHelper(data, subRoot.childLeft());
+            } else {
+                return containsHelper(data, subRoot.childRight());
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package bst;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JMH version of TreeBenchmark.nodePoolChurn(): one operation fills a
+ * RedBlackTree with n values, replaces a quarter of them and clears it,
+ * which is n + n / 4 inserts. Run it with the gc profiler and divide
+ * gc.alloc.rate.norm by n + n / 4 for the bytes allocated per insert:
+ *     mvn -P benchmark test-compile exec:exec@jmh -Djmh.args="NodePoolBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodePoolBenchmark {
+
+    @Param({"10000", "1000000"})
+    int n;
+
+    @Param({"false", "true"})
+    boolean pooled;
+
+    private Integer[] keys;
+    private RedBlackTree<Integer> tree;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.keys = new Integer[this.n];
+        for (int i = 0; i < this.n; i++) {
+            this.keys[i] = random.nextInt();
+        }
+        this.tree = new RedBlackTree<>();
+        if (this.pooled) this.tree.enableNodePool();
+    }
+
+    @Benchmark
+    public int churn() {
+        for (Integer key : this.keys) {
+            this.tree.insert(key);
+        }
+        for (int i = 0; i < this.n / 4; i++) {
+            this.tree.remove(this.keys[i]);
+        }
+        for (int i = 0; i < this.n / 4; i++) {
+            this.tree.insert(this.keys[i]);
+        }
+        int size = this.tree.size();
+        this.tree.clear();
+        return size;
+    }
+}
@@ -0,0 +1,213 @@
+package bst;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * The JMH version of TreeBenchmark.primitiveVsGeneric(): IntBinarySearchTree
+ * and LongBinarySearchTree against BinarySearchTree<Integer> and
+ * BinarySearchTree<Long> on n random keys. insert and contains time one
+ * operation each; footprint builds one tree and reports, in its
+ * bytesPerValue column, the heap the tree retains per value, boxed keys
+ * included. Its time score is only the cost of the build and the garbage
+ * collections around it.
+ *     mvn -P benchmark test-compile exec:exec@jmh -Djmh.args="PrimitiveTreeBenchmark -prof gc"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class PrimitiveTreeBenchmark {
+
+    @Param({"int", "long"})
+    String type;
+
+    @Param({"generic", "primitive"})
+    String tree;
+
+    @Param({"1000000"})
+    int n;
+
+    private static final int GENERIC_INT = 0;
+    private static final int GENERIC_LONG = 1;
+    private static final int PRIMITIVE_INT = 2;
+    private static final int PRIMITIVE_LONG = 3;
+
+    // which of the four trees is measured
+    private int kind;
+    private int[] intKeys;
+    private long[] longKeys;
+    // the keys boxed once, so that lookups in the generic trees do not box
+    private Integer[] boxedInts;
+    private Long[] boxedLongs;
+
+    private BinarySearchTree<Integer> genericInt;
+    private BinarySearchTree<Long> genericLong;
+    private IntBinarySearchTree primitiveInt;
+    private LongBinarySearchTree primitiveLong;
+    private int next;
+
+    /**
+     * The heap retained per value by the tree that footprint() builds. JMH
+     * adds event counters up over the measurement iterations, so each
+     * iteration reports its share of the average.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+
+        // the retained bytes per value, divided by the number of iterations
+        public double bytesPerValue;
+        // number of measurement iterations
+        private int iterations;
+
+        @Setup
+        public void setUp(BenchmarkParams params) {
+            this.iterations = params.getMeasurement().getCount();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.bytesPerValue = 0;
+        }
+
+        void record(long bytes, int values) {
+            this.bytesPerValue = (double) bytes / values / this.iterations;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        this.kind = (this.tree.equals("primitive") ? 2 : 0) + (this.type.equals("long") ? 1 : 0);
+        Random random = new Random(42);
+        this.intKeys = new int[this.n];
+        this.longKeys = new long[this.n];
+        this.boxedInts = new Integer[this.n];
+        this.boxedLongs = new Long[this.n];
+        for (int i = 0; i < this.n; i++) {
+            this.intKeys[i] = random.nextInt();
+            this.longKeys[i] = random.nextLong();
+            this.boxedInts[i] = this.intKeys[i];
+            this.boxedLongs[i] = this.longKeys[i];
+        }
+        this.genericInt = new BinarySearchTree<>();
+        this.genericLong = new BinarySearchTree<>();
+        this.primitiveInt = new IntBinarySearchTree();
+        this.primitiveLong = new LongBinarySearchTree();
+        fill();
+    }
+
+    private void fill() {
+        for (int i = 0; i < this.n; i++) {
+            insert(i);
+        }
+    }
+
+    private void insert(int i) {
+        switch (this.kind) {
+            case GENERIC_INT: this.genericInt.insert(this.boxedInts[i]); break;
+            case GENERIC_LONG: this.genericLong.insert(this.boxedLongs[i]); break;
+            case PRIMITIVE_INT: this.primitiveInt.insert(this.intKeys[i]); break;
+            default: this.primitiveLong.insert(this.longKeys[i]); break;
+        }
+    }
+
+    private void clear() {
+        this.genericInt.clear();
+        this.genericLong.clear();
+        this.primitiveInt.clear();
+        this.primitiveLong.clear();
+    }
+
+    /**
+     * Inserts the next key, clearing the tree in O(1) once all n are in.
+     */
+    @Benchmark
+    public void insert() {
+        if (this.next == this.n) {
+            clear();
+            this.next = 0;
+        }
+        insert(this.next++);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        if (this.next == this.n) this.next = 0;
+        int i = this.next++;
+        switch (this.kind) {
+            case GENERIC_INT: return this.genericInt.contains(this.boxedInts[i]);
+            case GENERIC_LONG: return this.genericLong.contains(this.boxedLongs[i]);
+            case PRIMITIVE_INT: return this.primitiveInt.contains(this.intKeys[i]);
+            default: return this.primitiveLong.contains(this.longKeys[i]);
+        }
+    }
+
+    /**
+     * Builds a tree of n values from the unboxed keys, as a caller holding
+     * ints or longs would, and measures the heap it retains.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object footprint(Footprint footprint) {
+        clear();
+        this.boxedInts = null;
+        this.boxedLongs = null;
+        long before = TreeBenchmark.usedHeap();
+        Object built;
+        switch (this.kind) {
+            case GENERIC_INT:
+                BinarySearchTree<Integer> ints = new BinarySearchTree<>();
+                for (int key : this.intKeys) {
+                    ints.insert(key);
+                }
+                built = ints;
+                break;
+            case GENERIC_LONG:
+                BinarySearchTree<Long> longs = new BinarySearchTree<>();
+                for (long key : this.longKeys) {
+                    longs.insert(key);
+                }
+                built = longs;
+                break;
+            case PRIMITIVE_INT:
+                IntBinarySearchTree primitiveInts = new IntBinarySearchTree();
+                for (int key : this.intKeys) {
+                    primitiveInts.insert(key);
+                }
+                built = primitiveInts;
+                break;
+            default:
+                LongBinarySearchTree primitiveLongs = new LongBinarySearchTree();
+                for (long key : this.longKeys) {
+                    primitiveLongs.insert(key);
+                }
+                built = primitiveLongs;
+                break;
+        }
+        TreeBenchmark.sink = built;
+        footprint.record(TreeBenchmark.usedHeap() - before, this.n);
+        TreeBenchmark.sink = null;
+        return built;
+    }
+}
@@ -0,0 +1,112 @@
+package bst;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The JMH version of TreeBenchmark.suite(): insert, contains, size,
+ * traversal and rotate on BSTRotation and RedBlackTree, over random,
+ * sorted, reverse-sorted and duplicate-heavy keys from
+ * TreeBenchmark.suiteKeys(), at sizes 10^3 to 10^7. Throughput mode gives
+ * operations per microsecond, sample time mode the p50, p99 and p99.9
+ * latencies, and the gc profiler the bytes allocated per operation:
+ *     mvn -P benchmark test-compile exec:exec@jmh -Djmh.args="TreeSuiteBenchmark -prof gc"
+ * The whole matrix takes hours; -p narrows it, for example
+ *     -Djmh.args="TreeSuiteBenchmark -p operation=insert -p n=1000000 -prof gc"
+ *
+ * Every invocation performs one operation. insert adds the next key and
+ * clears the tree in O(1) once all n keys are in; contains looks the keys
+ * up in insertion order; traversal steps an iterator and starts a new one
+ * at the end; rotate turns a child of the root up and back down. Sorted
+ * and reverse-sorted keys make BSTRotation a linked list, so, as in the
+ * plain suite, those runs stop at 10^4: setUp() fails them for larger n
+ * and JMH moves on to the next parameters.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Thread)
+public class TreeSuiteBenchmark {
+
+    @Param({"insert", "contains", "size", "traversal", "rotate"})
+    String operation;
+
+    @Param({"random", "sorted", "reverse", "duplicates"})
+    String distribution;
+
+    @Param({"BSTRotation", "RedBlackTree"})
+    String tree;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int n;
+
+    private Integer[] keys;
+    private BSTRotation<Integer> collection;
+    private Iterator<Integer> traversal;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        if (this.tree.equals("BSTRotation") && (this.distribution.equals("sorted")
+            || this.distribution.equals("reverse")) && this.n > 10_000) {
+            throw new IllegalStateException("An unbalanced tree degenerates to a list on "
+                + this.distribution + " keys; skipping n=" + this.n);
+        }
+        this.keys = TreeBenchmark.suiteKeys(this.distribution, this.n);
+        this.collection = this.tree.equals("RedBlackTree") ? new RedBlackTree<>() : new BSTRotation<>();
+        if (!this.operation.equals("insert")) {
+            for (Integer key : this.keys) {
+                this.collection.insert(key);
+            }
+        }
+        this.traversal = this.collection.iterator();
+    }
+
+    @Benchmark
+    public void operation(Blackhole blackhole) {
+        switch (this.operation) {
+            case "insert":
+                if (this.next == this.n) {
+                    this.collection.clear();
+                    this.next = 0;
+                }
+                this.collection.insert(this.keys[this.next++]);
+                break;
+            case "contains":
+                if (this.next == this.n) this.next = 0;
+                if (!this.collection.contains(this.keys[this.next++])) {
+                    throw new IllegalStateException("Lost key " + this.keys[this.next - 1]);
+                }
+                break;
+            case "size":
+                blackhole.consume(this.collection.size());
+                break;
+            case "traversal":
+                if (!this.traversal.hasNext()) this.traversal = this.collection.iterator();
+                blackhole.consume(this.traversal.next());
+                break;
+            case "rotate":
+                BinaryTreeNode<Integer> root = this.collection.root;
+                BinaryTreeNode<Integer> child = this.next++ % 2 == 0 ? root.childLeft() : root.childRight();
+                if (child != null) this.collection.rotate(child, root);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation " + this.operation);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Runs the self-tests of every class in a directory of compiled classes
+ * and fails the build if any of them fails. A class takes part if it has
+ * a test1() method and a main(), which runs its tests and prints a line
+ * ending in "passes" or "fails" ("Passed" or "FAILED" for
+ * BinarySearchTree) for each of them.
+ *
+ * Usage: java SelfTests classDirectory
+ */
+public class SelfTests {
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        File[] files = new File(args[0]).listFiles((directory, name) ->
+            name.endsWith(".class") && name.indexOf('$') < 0);
+        Arrays.sort(files);
+        PrintStream out = System.out;
+        int classes = 0;
+        int failures = 0;
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().length() - ".class".length());
+            Class<?> type = Class.forName(name);
+            Method main = findMethod(type, "main", String[].class);
+            if (findMethod(type, "test1") == null || main == null || !Modifier.isStatic(main.getModifiers())) {
+                continue;
+            }
+            classes++;
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+            String error = null;
+            try {
+                main.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                error = String.valueOf(e.getCause());
+            } finally {
+                System.setOut(out);
+            }
+            for (String line : output.toString(StandardCharsets.UTF_8).split("\\R")) {
+                if (line.isEmpty()) continue;
+                out.println(name + ": " + line);
+                if (line.endsWith("fails") || line.endsWith("FAILED")) failures++;
+            }
+            if (error != null) {
+                out.println(name + ": main() threw " + error);
+                failures++;
+            }
+        }
+        out.println(classes + " classes tested, " + failures + " failures");
+        if (classes == 0 || failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}